@@ -1,29 +1,58 @@
 package com.virjar.vscrawler.core;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.MDC;
 
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.virjar.dungproxy.client.ningclient.concurrent.NamedThreadFactory;
-import com.virjar.dungproxy.client.util.CommonUtil;
+import com.virjar.vscrawler.core.dedup.NearDuplicateDetector;
+import com.virjar.vscrawler.core.dedup.NearDuplicateStatus;
 import com.virjar.vscrawler.core.event.systemevent.*;
+import com.virjar.vscrawler.core.executor.AdaptiveConcurrencyLimiter;
+import com.virjar.vscrawler.core.executor.ConcurrencyLimitStatus;
+import com.virjar.vscrawler.core.executor.ExecutorStrategy;
+import com.virjar.vscrawler.core.executor.SeedTaskExecutor;
+import com.virjar.vscrawler.core.executor.SeedTaskExecutors;
+import com.virjar.vscrawler.core.executor.StageStatus;
+import com.virjar.vscrawler.core.executor.StagedSeedTaskExecutor;
+import com.virjar.vscrawler.core.grab.GrabCacheStatus;
+import com.virjar.vscrawler.core.grab.GrabResultCache;
+import com.virjar.vscrawler.core.grab.SingleFlightGrabGroup;
 import com.virjar.vscrawler.core.log.LogIdGenarator;
 import com.virjar.vscrawler.core.net.session.CrawlerSession;
 import com.virjar.vscrawler.core.net.session.CrawlerSessionPool;
+import com.virjar.vscrawler.core.politeness.HostPolitenessScheduler;
+import com.virjar.vscrawler.core.politeness.HostStatus;
+import com.virjar.vscrawler.core.processor.AsyncStagedSeedProcessor;
 import com.virjar.vscrawler.core.processor.GrabResult;
 import com.virjar.vscrawler.core.processor.SeedProcessor;
+import com.virjar.vscrawler.core.processor.StagedSeedProcessor;
 import com.virjar.vscrawler.core.seed.BerkeleyDBSeedManager;
 import com.virjar.vscrawler.core.seed.Seed;
 import com.virjar.vscrawler.core.serialize.ConsolePipeline;
@@ -52,9 +81,30 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
     private List<Pipeline> pipeline = Lists.newArrayList();
     private int threadNumber = 10;
 
-    private ThreadPoolExecutor threadPool;
+    /**
+     * 种子任务执行模式,轻量级模式下并发数由maxConcurrentSeed决定
+     */
+    private ExecutorStrategy executorStrategy = ExecutorStrategy.THREAD_POOL;
+
+    private int maxConcurrentSeed = 1024;
+
+    /**
+     * 分阶段执行模式下,抽取阶段和持久化阶段的线程数,以及阶段之间的队列大小
+     */
+    private int extractThreadNumber;
+
+    private int persistThreadNumber;
+
+    private int stageQueueSize;
+
+    private SeedTaskExecutor seedTaskExecutor;
     private Date startTime;
 
+    /**
+     * host维度的礼貌性控制,避免单个热点host占据所有worker
+     */
+    private HostPolitenessScheduler hostPolitenessScheduler = new HostPolitenessScheduler();
+
     private AtomicInteger stat = new AtomicInteger(STAT_INIT);
 
     private final static int STAT_INIT = 0;
@@ -65,21 +115,40 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
 
     private final static int STAT_STARING = 3;
 
+    private final static long CACHE_LOADING_WAIT_MILLIS = 20;
+
     private ReentrantLock taskDispatchLock = new ReentrantLock();
 
     private Condition taskDispatchCondition = taskDispatchLock.newCondition();
 
     /**
-     * 慢启动,默认为true,慢启动打开后,爬虫启动的时候线程不会瞬间变到最大,否则这个时候并发应该是最大的,因为这个时候没有线程阻塞, 另外考虑有些 资源分配问题,慢启动避免初始化的时候初始化资源请求qps过高
+     * 自适应并发控制,打开后爬虫启动的时候并发不会瞬间变到最大,而是根据成功率和耗时逐步增长,出现超时或者代理失败的时候快速回退
      */
-    private boolean slowStart = false;
+    private boolean adaptiveConcurrency = false;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
 
     /**
-     * 慢启动过程是10分钟默认
+     * 在线抓取(grabAsync)使用的线程池,第一次使用的时候创建
      */
-    private long slowStartDuration = 5 * 60 * 1000;
+    private volatile ListeningExecutorService grabExecutor;
 
-    private int slowStartThreadNumber = 0;
+    /**
+     * 在线抓取的请求合并,种子key相同的并发请求只执行一次抓取。可以通过配置 vsCrawler.&lt;crawlerName&gt;.grab.coalescing 动态开关
+     */
+    private boolean grabCoalescing = false;
+
+    private SingleFlightGrabGroup singleFlightGrabGroup = new SingleFlightGrabGroup();
+
+    /**
+     * 在线抓取的结果缓存,为空代表不缓存
+     */
+    private GrabResultCache grabResultCache;
+
+    /**
+     * 近似重复网页检测,为空代表不开启
+     */
+    private NearDuplicateDetector nearDuplicateDetector;
 
     @Getter
     private long lastActiveTime = 0L;
@@ -110,7 +179,9 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
 
     VSCrawler(VSCrawlerContext vsCrawlerContext, CrawlerSessionPool crawlerSessionPool,
             BerkeleyDBSeedManager berkeleyDBSeedManager, SeedProcessor seedProcessor, List<Pipeline> pipeline,
-            int threadNum, boolean slowStart, long slowStartDuration) {
+            int threadNum, boolean adaptiveConcurrency, ExecutorStrategy executorStrategy,
+            int maxConcurrentSeed, int extractThreadNumber, int persistThreadNumber, int stageQueueSize,
+            boolean grabCoalescing, GrabResultCache grabResultCache, NearDuplicateDetector nearDuplicateDetector) {
         // super("VSCrawler-Dispatch");
         // setDaemon(false);
         this.vsCrawlerContext = vsCrawlerContext;
@@ -119,8 +190,15 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
         this.seedProcessor = seedProcessor;
         this.pipeline = pipeline;
         this.threadNumber = threadNum;
-        this.slowStart = slowStart;
-        this.slowStartDuration = slowStartDuration;
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.executorStrategy = executorStrategy;
+        this.maxConcurrentSeed = maxConcurrentSeed;
+        this.extractThreadNumber = extractThreadNumber;
+        this.persistThreadNumber = persistThreadNumber;
+        this.stageQueueSize = stageQueueSize;
+        this.grabCoalescing = grabCoalescing;
+        this.grabResultCache = grabResultCache;
+        this.nearDuplicateDetector = nearDuplicateDetector;
     }
 
     public void stopCrawler() {
@@ -142,6 +220,13 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
             System.err.println("                  每晚灯火阑珊处，夜难寐，加班狂。");
         }
         vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(CrawlerEndEvent.class).crawlerEnd(vsCrawlerContext);
+        synchronized (this) {
+            // 置空之后,重新启动的爬虫在下一次同步抓取时重新创建线程池
+            if (grabExecutor != null) {
+                grabExecutor.shutdown();
+                grabExecutor = null;
+            }
+        }
         VSCrawlerContext.removeContext(vsCrawlerContext);
         // 终止爬虫主派发线程,派发线程是宿主线程,需要最后中断,否则容易引起其他非守护线程提前被中断
         if (crawlerMainThread != null && !crawlerMainThread.isInterrupted()) {
@@ -169,50 +254,95 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
         initComponent();
         log.info("Spider  started!");
         while (!Thread.currentThread().isInterrupted() && stat.get() == STAT_RUNNING) {
-            Seed seed = berkeleyDBSeedManager.pool();
-
-            // 种子为空处理
+            // 优先派发之前由于host超出预算而暂存的种子
+            Seed seed = hostPolitenessScheduler.pollReady();
             if (seed == null) {
-                if (stat.get() == STAT_STOPPED) {
-                    break;
+                if (hostPolitenessScheduler.isDeferredFull()) {
+                    if (!waitDeferredSeed()) {
+                        log.warn("爬虫线程休眠被打断");
+                        break;
+                    }
+                    continue;
                 }
-                vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(SeedEmptyEvent.class)
-                        .onSeedEmpty(vsCrawlerContext);
-                if (!waitDispatchThread()) {
-                    log.warn("爬虫线程休眠被打断");
-                    break;
+                seed = berkeleyDBSeedManager.pool();
+
+                // 种子为空处理
+                if (seed == null) {
+                    if (stat.get() == STAT_STOPPED) {
+                        break;
+                    }
+                    if (hostPolitenessScheduler.deferredSize() > 0) {
+                        // 种子库为空,但是还有暂存的种子,等待host额度释放
+                        if (!waitDeferredSeed()) {
+                            log.warn("爬虫线程休眠被打断");
+                            break;
+                        }
+                        continue;
+                    }
+                    if (berkeleyDBSeedManager.isCacheLoading()) {
+                        // 种子缓存正在后台加载,短暂等待之后重新获取
+                        if (!waitDispatchThread(CACHE_LOADING_WAIT_MILLIS)) {
+                            log.warn("爬虫线程休眠被打断");
+                            break;
+                        }
+                        continue;
+                    }
+                    long retryWaitMillis = berkeleyDBSeedManager.millisUntilNextRetry();
+                    if (retryWaitMillis >= 0) {
+                        // 种子库为空,但是还有等待重试的种子,等待退避时间到期
+                        if (!waitDispatchThread(retryWaitMillis)) {
+                            log.warn("爬虫线程休眠被打断");
+                            break;
+                        }
+                        continue;
+                    }
+                    vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(SeedEmptyEvent.class)
+                            .onSeedEmpty(vsCrawlerContext);
+                    if (!waitDispatchThread()) {
+                        log.warn("爬虫线程休眠被打断");
+                        break;
+                    }
+                    continue;
+                }
+
+                if (hostPolitenessScheduler.isHostDeferredFull(seed)) {
+                    // host暂存的种子已经达到上限,种子放回内存缓存,暂存空间留给其他host。不经过finish,种子不会写回种子库,
+                    // 重试种子也不会被再次退避。缓存中可能全是这个host的种子,等待暂存种子就绪之后再取,避免空转
+                    berkeleyDBSeedManager.requeue(seed);
+                    if (!waitDeferredSeed()) {
+                        log.warn("爬虫线程休眠被打断");
+                        break;
+                    }
+                    continue;
+                }
+
+                // host超出预算,种子暂存在调度器中,继续处理下一个种子
+                if (!hostPolitenessScheduler.tryAcquire(seed)) {
+                    continue;
                 }
-                continue;
             }
             lastActiveTime = System.currentTimeMillis();
 
             // 执行抓取任务
-            threadPool.execute(new SeedProcessTask(seed));
+            if (!dispatchSeed(seed)) {
+                log.warn("种子任务提交被拒绝,执行器已经关闭或者派发线程被打断");
+                break;
+            }
 
             // 当任务满的时候,暂时阻塞任务产生线程,直到有空闲线程资源
-            if (activeTasks.get() >= threadPool.getMaximumPoolSize()) {
+            if (activeTasks.get() >= concurrencyLimit()) {
                 if (!waitDispatchThread()) {
                     log.warn("爬虫线程休眠被打断");
                     break;
                 }
             }
 
-            // 慢启动控制
-            if (slowStart && startTime.getTime() + slowStartDuration > System.currentTimeMillis()) {
-                slowStartThreadNumber++;
-                log.info("慢启动:{}", slowStartThreadNumber);
-                if (threadPool.getActiveCount() >= slowStartThreadNumber) {
-                    // 如果线程数活跃线程数目大于或者等于慢启动控制数目,则暂定线程
-                    CommonUtil.sleep(slowStartDuration / threadNumber);
-                }
-            }
-
         }
-        if (!threadPool.isShutdown()) {
-            threadPool.shutdown();
+        if (!seedTaskExecutor.isShutdown()) {
+            seedTaskExecutor.shutdown();
             try {
                 // 如果是主动停止爬虫,那么等待10分钟,等待爬虫任务执行结束
-                threadPool.awaitTermination(10, TimeUnit.MINUTES);
+                seedTaskExecutor.awaitTermination(10, TimeUnit.MINUTES);
             } catch (InterruptedException e) {
                 log.error("crawler shop wait failed");
             }
@@ -223,6 +353,49 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
         stat.set(STAT_INIT);
     }
 
+    /**
+     * 提交种子任务,任务对象创建的时候已经占用了并发额度,派发之前已经占用了host额度。<br>
+     * 执行器拒绝任务的时候归还这些额度,并且把种子重新写回种子库,避免种子一直停留在租约中
+     *
+     * @return 任务是否提交成功
+     */
+    private boolean dispatchSeed(Seed seed) {
+        Runnable task;
+        if (seedTaskExecutor instanceof StagedSeedTaskExecutor) {
+            task = new StagedSeedProcessTask(seed);
+        } else {
+            task = new SeedProcessTask(seed);
+        }
+        try {
+            seedTaskExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            onSeedTaskEnd(seed);
+            berkeleyDBSeedManager.finish(seed);
+            return false;
+        }
+    }
+
+    /**
+     * @return 当前允许的最大在途种子数,开启自适应并发控制时由控制器决定
+     */
+    private int concurrencyLimit() {
+        if (concurrencyLimiter == null) {
+            return seedTaskExecutor.maxConcurrent();
+        }
+        return Math.min(concurrencyLimiter.getLimit(), seedTaskExecutor.maxConcurrent());
+    }
+
+    /**
+     * 上报种子处理结果,用于自适应并发控制
+     */
+    private void onSeedSample(Seed seed, Exception exception, boolean downloadFailed, long latency) {
+        if (concurrencyLimiter == null) {
+            return;
+        }
+        concurrencyLimiter.onSeedSample(seed, exception, downloadFailed, latency);
+    }
+
     private void activeDispatchThread() {
         try {
             taskDispatchLock.lock();
@@ -244,6 +417,34 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
         return true;
     }
 
+    /**
+     * 等待暂存种子满足host礼貌性约束,worker归还额度的时候也会唤醒派发线程
+     */
+    private boolean waitDeferredSeed() {
+        return waitDispatchThread(hostPolitenessScheduler.millisUntilNextReady());
+    }
+
+    /**
+     * 限时等待,最多等待1秒,期间worker归还额度的时候也会唤醒派发线程
+     */
+    private boolean waitDispatchThread(long waitMillis) {
+        if (waitMillis < 0 || waitMillis > 1000) {
+            waitMillis = 1000;
+        }
+        if (waitMillis == 0) {
+            return true;
+        }
+        try {
+            taskDispatchLock.lock();
+            taskDispatchCondition.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            taskDispatchLock.unlock();
+        }
+        return true;
+    }
+
     /**
      * 同步执行抓取任务,适合booking场景,该抓取任务不入库,抓取结果不入pipeline,session创建不等待
      *
@@ -252,39 +453,188 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
      */
     public GrabResult grabSync(Seed seed) {
         try {
-            MDC.put("grabID", LogIdGenarator.genGrabTransactionID(vsCrawlerContext.getCrawlerName()));
             VSCrawlerCommonUtil.setGrabStartTimeStampThreadLocal(System.currentTimeMillis());
-            // start component
-            if (!hasComponentInit) {
-                initComponentWithOutMainThread();
+            return grab(seed);
+        } finally {
+            VSCrawlerCommonUtil.clearGrabTimeOutControl();
+        }
+    }
+
+    /**
+     * 异步执行抓取任务,任务运行在爬虫的在线抓取线程池,不阻塞调用线程。超时时间沿用调用线程通过
+     * {@link VSCrawlerCommonUtil#setGrabTimeOut(Long)} 设置的值,排队时间同样计入超时
+     *
+     * @param seed 任务种子
+     * @return 抓取结果的future
+     */
+    public ListenableFuture<GrabResult> grabAsync(Seed seed) {
+        return grabAsync(seed, VSCrawlerCommonUtil.getGrabTimeOut());
+    }
+
+    /**
+     * 异步执行抓取任务
+     *
+     * @param seed    任务种子
+     * @param timeOut 超时时间, 单位毫秒, 从提交任务开始计算, 为空则使用默认的session等待时间
+     * @return 抓取结果的future, 超时之后还没有开始执行的任务以TimeoutException失败
+     */
+    public ListenableFuture<GrabResult> grabAsync(final Seed seed, final Long timeOut) {
+        final long submitTimeStamp = System.currentTimeMillis();
+        return grabExecutor().submit(new Callable<GrabResult>() {
+            @Override
+            public GrabResult call() throws Exception {
+                // 线程池中的线程会继承创建者的线程变量,这里必须覆盖
+                VSCrawlerCommonUtil.setGrabStartTimeStampThreadLocal(submitTimeStamp);
+                VSCrawlerCommonUtil.setGrabTimeOut(timeOut);
+                try {
+                    if (VSCrawlerCommonUtil.hasTimeOut()) {
+                        throw new TimeoutException("grab task time out before execute, seed:" + seed.getData());
+                    }
+                    return grab(seed);
+                } finally {
+                    VSCrawlerCommonUtil.clearGrabTimeOutControl();
+                }
             }
+        });
+    }
 
-            // set vsCrawlerContext into ThreadLocal ,for support event loop
-            VSCrawlerCommonUtil.setVSCrawlerContext(vsCrawlerContext);
-            // 30秒资源请求超时,防止线程阻塞
-            CrawlerSession session = crawlerSessionPool.borrowOne(VSCrawlerCommonUtil.grabTaskLessTime(), true);
-            if (session == null) {
-                // TODO store in crawlResult
-                throw new IllegalStateException("can not allocate session resource from session pool");
+    /**
+     * 批量异步抓取,所有种子并行执行
+     *
+     * @param seeds 任务种子
+     * @return 和种子顺序一致的抓取结果, 失败的种子对应的结果为null
+     */
+    public ListenableFuture<List<GrabResult>> grabAll(Collection<Seed> seeds) {
+        Long timeOut = VSCrawlerCommonUtil.getGrabTimeOut();
+        List<ListenableFuture<GrabResult>> futures = Lists.newArrayListWithCapacity(seeds.size());
+        for (Seed seed : seeds) {
+            futures.add(grabAsync(seed, timeOut));
+        }
+        return Futures.successfulAsList(futures);
+    }
+
+    private ListeningExecutorService grabExecutor() {
+        if (grabExecutor != null) {
+            return grabExecutor;
+        }
+        synchronized (this) {
+            if (grabExecutor == null) {
+                int grabThreadNumber = NumberUtils.toInt(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
+                        .getProperty(String.format(VSCrawlerConstant.VSCRAWLER_GRAB_THREAD_NUMBER,
+                                vsCrawlerContext.getCrawlerName())),
+                        threadNumber);
+                ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(grabThreadNumber, grabThreadNumber, 60L,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new NamedThreadFactory("VSCrawlerGrab", true));
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                grabExecutor = MoreExecutors.listeningDecorator(threadPoolExecutor);
             }
+            return grabExecutor;
+        }
+    }
 
-            GrabResult crawlResult = new GrabResult();
-            try {
-                seed.setStatus(Seed.STATUS_RUNNING);
-                VSCrawlerCommonUtil.setCrawlerSession(session);
-                seedProcessor.process(seed, session, crawlResult);
-                return crawlResult;
-            } catch (Exception e) {
-                log.error("error when grab seed:{}", JSONObject.toJSONString(seed), e);
-                throw e;
-            } finally {
-                // 归还一个session,session有并发控制,feedback之后session才能被其他任务复用
-                VSCrawlerCommonUtil.clearCrawlerSession();
-                crawlerSessionPool.recycle(session);
-                MDC.clear();
+    private boolean grabCoalescingEnabled() {
+        String config = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties().getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_GRAB_COALESCING, vsCrawlerContext.getCrawlerName()));
+        if (StringUtils.isBlank(config)) {
+            return grabCoalescing;
+        }
+        return BooleanUtils.toBoolean(config.trim());
+    }
+
+    private GrabResult grab(final Seed seed) {
+        if (grabResultCache == null) {
+            return coalescedGrab(seed);
+        }
+        String seedKey = berkeleyDBSeedManager.getSeedKeyResolver().resolveSeedKey(seed);
+        return grabResultCache.get(seedKey, new Callable<GrabResult>() {
+            @Override
+            public GrabResult call() throws Exception {
+                return coalescedGrab(seed);
             }
+        }, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                // 后台刷新不属于任何一个调用方,不继承调用方的超时时间
+                grabExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        VSCrawlerCommonUtil.setGrabStartTimeStampThreadLocal(System.currentTimeMillis());
+                        VSCrawlerCommonUtil.setGrabTimeOut(null);
+                        try {
+                            command.run();
+                        } finally {
+                            VSCrawlerCommonUtil.clearGrabTimeOutControl();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private GrabResult coalescedGrab(final Seed seed) {
+        if (!grabCoalescingEnabled()) {
+            return doGrab(seed);
+        }
+        String seedKey = berkeleyDBSeedManager.getSeedKeyResolver().resolveSeedKey(seed);
+        // 跟随者最多等待到自己的超时时间,没有设置超时则一直等待在途请求结束
+        long waitMillis = VSCrawlerCommonUtil.getGrabTimeOut() == null ? 0
+                : Math.max(VSCrawlerCommonUtil.grabTaskLessTime(), 1);
+        return singleFlightGrabGroup.execute(seedKey, waitMillis, new Callable<GrabResult>() {
+            @Override
+            public GrabResult call() throws Exception {
+                return doGrab(seed);
+            }
+        });
+    }
+
+    /**
+     * @return 在线抓取中被合并的请求数目
+     */
+    public long grabCollapsedCount() {
+        return singleFlightGrabGroup.collapsedCount();
+    }
+
+    /**
+     * @return 在线抓取结果缓存的统计信息, 没有开启缓存返回null
+     */
+    public GrabCacheStatus grabCacheStatus() {
+        if (grabResultCache == null) {
+            return null;
+        }
+        return grabResultCache.status();
+    }
+
+    private GrabResult doGrab(Seed seed) {
+        MDC.put("grabID", LogIdGenarator.genGrabTransactionID(vsCrawlerContext.getCrawlerName()));
+        // start component
+        if (!hasComponentInit) {
+            initComponentWithOutMainThread();
+        }
+
+        // set vsCrawlerContext into ThreadLocal ,for support event loop
+        VSCrawlerCommonUtil.setVSCrawlerContext(vsCrawlerContext);
+        // 30秒资源请求超时,防止线程阻塞
+        CrawlerSession session = crawlerSessionPool.borrowOne(VSCrawlerCommonUtil.grabTaskLessTime(), true);
+        if (session == null) {
+            // TODO store in crawlResult
+            throw new IllegalStateException("can not allocate session resource from session pool");
+        }
+
+        GrabResult crawlResult = new GrabResult();
+        try {
+            seed.setStatus(Seed.STATUS_RUNNING);
+            VSCrawlerCommonUtil.setCrawlerSession(session);
+            seedProcessor.process(seed, session, crawlResult);
+            return crawlResult;
+        } catch (Exception e) {
+            log.error("error when grab seed:{}", JSONObject.toJSONString(seed), e);
+            throw e;
         } finally {
-            VSCrawlerCommonUtil.clearGrabTimeOutControl();
+            // 归还一个session,session有并发控制,feedback之后session才能被其他任务复用
+            VSCrawlerCommonUtil.clearCrawlerSession();
+            crawlerSessionPool.recycle(session);
+            MDC.clear();
         }
     }
 
@@ -294,25 +644,32 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
 
     private class SeedProcessTask implements Runnable {
         private Seed seed;
+        /**
+         * 下载结果为空或者请求发生了网络异常,httpClient吞掉了异常,一般是超时或者代理失效
+         */
+        private boolean downloadFailed = false;
 
         SeedProcessTask(Seed seed) {
             this.seed = seed;
+            // 在派发的时候就计数,排队中的任务同样占用并发额度
+            activeTasks.incrementAndGet();
         }
 
         @Override
         public void run() {
+            long startTimeStamp = System.currentTimeMillis();
+            Exception exception = null;
             try {
                 MDC.put("grabID", LogIdGenarator.genGrabTransactionID(vsCrawlerContext.getCrawlerName()));
-                activeTasks.incrementAndGet();
                 // 为了性能,不打印json
                 log.info("handle seed: {}", seed.getData());
                 processSeed(seed);
             } catch (Exception e) {
+                exception = e;
                 log.error("process request {} error", JSONObject.toJSONString(seed), e);
             } finally {
-                if (activeTasks.decrementAndGet() < threadPool.getMaximumPoolSize()) {
-                    activeDispatchThread();
-                }
+                onSeedSample(seed, exception, downloadFailed, System.currentTimeMillis() - startTimeStamp);
+                onSeedTaskEnd(seed);
                 MDC.clear();
             }
         }
@@ -323,42 +680,263 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
             CrawlerSession session = crawlerSessionPool.borrowOne(-1, false);
             int originRetryCount = seed.getRetry();
             GrabResult crawlResult = new GrabResult();
+            Exception failedCause = null;
             try {
                 seed.setStatus(Seed.STATUS_RUNNING);
                 VSCrawlerCommonUtil.setCrawlerSession(session);
-                seedProcessor.process(seed, session, crawlResult);
+                VSCrawlerCommonUtil.clearDownloadFailed();
+                if (seedProcessor instanceof StagedSeedProcessor) {
+                    // 近似重复检测和自适应并发控制需要拿到下载结果,拆分为下载和抽取两步执行
+                    StagedSeedProcessor stagedSeedProcessor = (StagedSeedProcessor) seedProcessor;
+                    String content = stagedSeedProcessor.download(seed, session);
+                    downloadFailed = content == null && !seed.isIgnore();
+                    if (!seed.isIgnore() && !isNearDuplicate(seed, content)) {
+                        stagedSeedProcessor.extract(seed, content, crawlResult);
+                    }
+                } else {
+                    seedProcessor.process(seed, session, crawlResult);
+                }
                 if (seed.getStatus() == Seed.STATUS_RUNNING) {
                     seed.setStatus(Seed.STATUS_SUCCESS);
                 }
             } catch (Exception e) {// 如果发生了异常,并且用户没有主动重试,强制重试
+                failedCause = e;
                 if (originRetryCount == seed.getRetry() && seed.getStatus() == Seed.STATUS_RUNNING
                         && !seed.isIgnore()) {
-                    seed.retry();
+                    retrySeed(seed, e);
                 }
                 throw e;
             } finally {
                 // 归还一个session,session有并发控制,feedback之后session才能被其他任务复用
+                // 处理器自己发起请求的时候拿不到下载内容,以最后一次请求是否发生网络异常为准
+                downloadFailed = downloadFailed || (VSCrawlerCommonUtil.isDownloadFailed() && !seed.isIgnore());
                 VSCrawlerCommonUtil.clearCrawlerSession();
+                VSCrawlerCommonUtil.clearDownloadFailed();
                 crawlerSessionPool.recycle(session);
-                berkeleyDBSeedManager.finish(seed);
+                berkeleyDBSeedManager.finish(seed, failedCause);
             }
             processResult(seed, crawlResult);
 
         }
+    }
+
+    /**
+     * 分阶段执行模式下的种子任务,下载、抽取、持久化分别在各自的线程池上执行。<br>
+     * 不支持分阶段的处理器在下载阶段完成全部处理逻辑
+     */
+    private class StagedSeedProcessTask implements Runnable {
+        private Seed seed;
+        private GrabResult grabResult = new GrabResult();
+        private int originRetryCount;
+        private boolean failed = false;
+        private Exception exception = null;
+        private long startTimeStamp;
+        private long downloadEndTimeStamp;
+        /**
+         * 下载结果为空,httpClient吞掉了网络异常,一般是超时或者代理失效
+         */
+        private boolean downloadFailed = false;
+
+        StagedSeedProcessTask(Seed seed) {
+            this.seed = seed;
+            // 在派发的时候就计数,排队中的任务同样占用并发额度
+            activeTasks.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            String content = null;
+            ListenableFuture<String> asyncContent = null;
+            CrawlerSession session = null;
+            startTimeStamp = System.currentTimeMillis();
+            try {
+                MDC.put("grabID", LogIdGenarator.genGrabTransactionID(vsCrawlerContext.getCrawlerName()));
+                log.info("handle seed: {}", seed.getData());
+                VSCrawlerCommonUtil.setVSCrawlerContext(vsCrawlerContext);
+                originRetryCount = seed.getRetry();
+                seed.setStatus(Seed.STATUS_RUNNING);
+                session = crawlerSessionPool.borrowOne(-1, false);
+                VSCrawlerCommonUtil.setCrawlerSession(session);
+                if (seedProcessor instanceof AsyncStagedSeedProcessor) {
+                    // 在途的异步请求达到上限的时候在下载线程等待,而不是在IO线程上阻塞
+                    stagedSeedTaskExecutor().acquireAsyncDownload();
+                    try {
+                        asyncContent = ((AsyncStagedSeedProcessor) seedProcessor).downloadAsync(seed, session);
+                    } finally {
+                        if (asyncContent == null) {
+                            stagedSeedTaskExecutor().releaseAsyncDownload();
+                        }
+                    }
+                }
+                if (asyncContent == null) {
+                    if (seedProcessor instanceof StagedSeedProcessor) {
+                        content = ((StagedSeedProcessor) seedProcessor).download(seed, session);
+                        downloadFailed = content == null && !seed.isIgnore();
+                    } else {
+                        seedProcessor.process(seed, session, grabResult);
+                    }
+                }
+            } catch (Exception e) {
+                onFailed(e);
+            } finally {
+                VSCrawlerCommonUtil.clearCrawlerSession();
+                // 异步下载的session在请求结束之后归还
+                if (asyncContent == null && session != null) {
+                    crawlerSessionPool.recycle(session);
+                }
+                MDC.clear();
+            }
+
+            if (asyncContent != null) {
+                // 请求在异步httpclient的IO线程上完成,下载线程直接返回,接着处理下一个种子。
+                // 回调在独立的回调线程上执行,抽取队列满的时候阻塞的是回调线程,不会阻塞IO线程
+                final ListenableFuture<String> future = asyncContent;
+                final CrawlerSession asyncSession = session;
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        String downloadContent = null;
+                        try {
+                            downloadContent = Uninterruptibles.getUninterruptibly(future);
+                            downloadFailed = downloadContent == null && !seed.isIgnore();
+                        } catch (ExecutionException e) {
+                            onFailed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                        } catch (CancellationException e) {
+                            onFailed(e);
+                        } finally {
+                            crawlerSessionPool.recycle(asyncSession);
+                        }
+                        try {
+                            onDownloaded(downloadContent);
+                        } finally {
+                            stagedSeedTaskExecutor().releaseAsyncDownload();
+                        }
+                    }
+                }, stagedSeedTaskExecutor().downloadCallbackExecutor());
+                return;
+            }
+            onDownloaded(content);
+        }
+
+        /**
+         * 下载阶段结束,提交抽取阶段。抽取队列满的时候阻塞当前的下载线程或者异步下载的回调线程
+         */
+        private void onDownloaded(String content) {
+            downloadEndTimeStamp = System.currentTimeMillis();
+            if (failed || seed.isIgnore() || !(seedProcessor instanceof StagedSeedProcessor)) {
+                submitPersist();
+                return;
+            }
+            final String downloadContent = content;
+            Runnable extractTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // 近似重复检测是CPU计算,和抽取一起在抽取线程池上执行
+                        if (!isNearDuplicate(seed, downloadContent)) {
+                            ((StagedSeedProcessor) seedProcessor).extract(seed, downloadContent, grabResult);
+                        }
+                    } catch (Exception e) {
+                        onFailed(e);
+                    } finally {
+                        submitPersist();
+                    }
+                }
+            };
+            try {
+                stagedSeedTaskExecutor().executeExtract(extractTask);
+            } catch (RejectedExecutionException e) {
+                // 执行器已经关闭,在当前线程完成剩余阶段,保证种子被归还
+                extractTask.run();
+            }
+        }
+
+        private StagedSeedTaskExecutor stagedSeedTaskExecutor() {
+            return (StagedSeedTaskExecutor) seedTaskExecutor;
+        }
 
-        private void processResult(Seed origin, GrabResult grabResult) {
-            List<Seed> seeds = grabResult.allSeed();
-            if (seeds != null) {
-                berkeleyDBSeedManager.addNewSeeds(seeds);
+        private void onFailed(Exception e) {
+            failed = true;
+            if (exception == null) {
+                exception = e;
             }
-            if (!grabResult.allEntityResult().isEmpty()) {
-                for (Pipeline p : pipeline) {
-                    p.saveItem(grabResult, origin);
+            log.error("process request {} error", JSONObject.toJSONString(seed), e);
+            // 如果发生了异常,并且用户没有主动重试,强制重试
+            if (originRetryCount == seed.getRetry() && seed.getStatus() == Seed.STATUS_RUNNING && !seed.isIgnore()) {
+                retrySeed(seed, e);
+            }
+        }
+
+        private void submitPersist() {
+            Runnable persistTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!failed && seed.getStatus() == Seed.STATUS_RUNNING) {
+                            seed.setStatus(Seed.STATUS_SUCCESS);
+                        }
+                        berkeleyDBSeedManager.finish(seed, exception);
+                        if (!failed) {
+                            processResult(seed, grabResult);
+                        }
+                    } catch (Exception e) {
+                        log.error("persist seed {} error", seed.getData(), e);
+                    } finally {
+                        // 自适应并发控制关注的是下载阶段的耗时
+                        onSeedSample(seed, exception, downloadFailed, downloadEndTimeStamp - startTimeStamp);
+                        onSeedTaskEnd(seed);
+                    }
                 }
+            };
+            try {
+                stagedSeedTaskExecutor().executePersist(persistTask);
+            } catch (RejectedExecutionException e) {
+                persistTask.run();
             }
         }
     }
 
+    /**
+     * 下载内容为空的时候不检测,交给处理器自己处理
+     */
+    private boolean isNearDuplicate(Seed seed, String content) {
+        if (nearDuplicateDetector == null || content == null) {
+            return false;
+        }
+        return nearDuplicateDetector.isNearDuplicate(seed.getData(),
+                berkeleyDBSeedManager.getSeedKeyResolver().resolveSeedKey(seed), content);
+    }
+
+    /**
+     * 异常导致的强制重试,异常类型对应的重试策略可以覆盖种子的最大重试次数
+     */
+    private void retrySeed(Seed seed, Exception e) {
+        berkeleyDBSeedManager.getRetryScheduler().policyFor(e).applyMaxRetry(seed);
+        seed.retry();
+    }
+
+    private void processResult(Seed origin, GrabResult grabResult) {
+        List<Seed> seeds = grabResult.allSeed();
+        if (seeds != null) {
+            berkeleyDBSeedManager.addNewSeeds(seeds);
+        }
+        if (!grabResult.allEntityResult().isEmpty()) {
+            for (Pipeline p : pipeline) {
+                p.saveItem(grabResult, origin);
+            }
+        }
+    }
+
+    /**
+     * 种子任务结束,归还host额度,并且唤醒派发线程
+     */
+    private void onSeedTaskEnd(Seed seed) {
+        hostPolitenessScheduler.release(seed);
+        if (activeTasks.decrementAndGet() < concurrencyLimit()) {
+            activeDispatchThread();
+        }
+    }
+
     private void checkRunningStat() {
         if (!stat.compareAndSet(STAT_INIT, STAT_STARING)) {
             throw new IllegalStateException("Spider is already running!");
@@ -372,6 +950,26 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
 
     private void config(Properties properties) {
         // 事件循环是单线程的,所以设计上来说,不会有并发问题
+        hostPolitenessScheduler.config(properties, vsCrawlerContext.getCrawlerName());
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.config(properties, vsCrawlerContext.getCrawlerName());
+        }
+
+        if (executorStrategy == ExecutorStrategy.LIGHTWEIGHT) {
+            int newMaxConcurrentSeed = NumberUtils.toInt(properties.getProperty(
+                    String.format(VSCrawlerConstant.VSCRAWLER_MAX_CONCURRENT_SEED, vsCrawlerContext.getCrawlerName())),
+                    -1);
+            if (newMaxConcurrentSeed > 0 && newMaxConcurrentSeed != maxConcurrentSeed && seedTaskExecutor != null) {
+                log.info("爬虫最大并发种子数目变更,由:{}  变化为:{}", maxConcurrentSeed, newMaxConcurrentSeed);
+                seedTaskExecutor.setMaxConcurrent(newMaxConcurrentSeed);
+                maxConcurrentSeed = newMaxConcurrentSeed;
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.setMaxLimit(seedTaskExecutor.maxConcurrent());
+                }
+            }
+            return;
+        }
+
         int newThreadNumber = NumberUtils.toInt(
                 properties.getProperty(
                         String.format(VSCrawlerConstant.VSCRAWLER_THREAD_NUMBER, vsCrawlerContext.getCrawlerName())),
@@ -379,11 +977,13 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
         if (newThreadNumber < 0) {
             return;
         }
-        if (newThreadNumber != threadNumber && threadPool != null) {
+        if (newThreadNumber != threadNumber && seedTaskExecutor != null) {
             log.info("爬虫线程数目变更,由:{}  变化为:{}", threadNumber, newThreadNumber);
-            threadPool.setCorePoolSize(newThreadNumber);
-            threadPool.setMaximumPoolSize(newThreadNumber);
+            seedTaskExecutor.setMaxConcurrent(newThreadNumber);
             threadNumber = newThreadNumber;
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.setMaxLimit(seedTaskExecutor.maxConcurrent());
+            }
         }
     }
 
@@ -440,10 +1040,17 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
     private void initComponent() {
         initComponentWithOutMainThread();
         crawlerMainThread = Thread.currentThread();
-        // config 会设置 threadPool
-        if (threadNumber > 0 && threadPool == null || threadPool.isShutdown()) {
-            threadPool = new ThreadPoolExecutor(threadNumber, threadNumber, 0L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("VSCrawlerWorker", false));
+        // config 会设置 seedTaskExecutor
+        if (seedTaskExecutor == null || seedTaskExecutor.isShutdown()) {
+            seedTaskExecutor = SeedTaskExecutors.create(executorStrategy,
+                    executorStrategy == ExecutorStrategy.LIGHTWEIGHT ? maxConcurrentSeed : threadNumber,
+                    extractThreadNumber, persistThreadNumber, stageQueueSize);
+        }
+        if (adaptiveConcurrency && concurrencyLimiter == null) {
+            // 从最小并发开始增长,替代原有的慢启动
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(1, seedTaskExecutor.maxConcurrent());
+            concurrencyLimiter.config(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties(),
+                    vsCrawlerContext.getCrawlerName());
         }
         berkeleyDBSeedManager.init();
         stat.set(STAT_RUNNING);
@@ -488,10 +1095,47 @@ public class VSCrawler implements CrawlerConfigChangeEvent, FirstSeedPushEvent,
     }
 
     public int activeWorker() {
-        if (threadPool == null) {
+        if (seedTaskExecutor == null) {
             return 0;
         }
-        return threadPool.getActiveCount();
+        return seedTaskExecutor.activeCount();
+    }
+
+    /**
+     * @return 各个host正在处理和暂存的种子数目, 只返回种子最多的HostPolitenessScheduler.MAX_HOST_STATUS个host
+     */
+    public List<HostStatus> hostStatus() {
+        return hostPolitenessScheduler.hostStatus();
+    }
+
+    /**
+     * @return 自适应(AIMD)并发控制器的状态, 包括当前并发上限, 上一个采样窗口的成功率和p95耗时。没有开启自适应并发控制返回空
+     */
+    public ConcurrencyLimitStatus concurrencyLimitStatus() {
+        if (concurrencyLimiter == null) {
+            return null;
+        }
+        return concurrencyLimiter.status();
+    }
+
+    /**
+     * @return 近似重复网页检测的统计, 没有开启返回空
+     */
+    public NearDuplicateStatus nearDuplicateStatus() {
+        if (nearDuplicateDetector == null) {
+            return null;
+        }
+        return nearDuplicateDetector.status();
+    }
+
+    /**
+     * @return 分阶段执行模式下各个阶段的队列深度, 其他模式返回空
+     */
+    public List<StageStatus> stageStatus() {
+        if (seedTaskExecutor instanceof StagedSeedTaskExecutor) {
+            return ((StagedSeedTaskExecutor) seedTaskExecutor).stageStatus();
+        }
+        return Collections.emptyList();
     }
 
     public void start() {
@@ -1,10 +1,14 @@
 package com.virjar.vscrawler.core;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.virjar.vscrawler.core.dedup.NearDuplicateDetector;
 import com.virjar.vscrawler.core.event.support.AutoEventRegistry;
 import com.virjar.vscrawler.core.event.systemevent.SeedEmptyEvent;
 import com.virjar.vscrawler.core.event.systemevent.ShutDownChecker;
+import com.virjar.vscrawler.core.executor.ExecutorStrategy;
+import com.virjar.vscrawler.core.grab.GrabResultCache;
 import com.virjar.vscrawler.core.net.CrawlerHttpClientGenerator;
 import com.virjar.vscrawler.core.net.DefaultHttpClientGenerator;
 import com.virjar.vscrawler.core.net.proxy.IPPool;
@@ -29,6 +33,7 @@ import com.virjar.vscrawler.core.serialize.Pipeline;
 import com.virjar.vscrawler.core.util.VSCrawlerConstant;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -134,14 +139,59 @@ public class VSCrawlerBuilder {
     private int workerThreadNumber = Runtime.getRuntime().availableProcessors() * 4;
 
     /**
-     * 慢启动控制
+     * 种子任务执行模式
      */
-    private boolean slowStart = false;
+    private ExecutorStrategy executorStrategy = ExecutorStrategy.THREAD_POOL;
 
     /**
-     * 慢启动时长
+     * 轻量级执行模式下,最大同时处理的种子数目
      */
-    private long slowStartDuration = 5 * 60 * 1000;
+    private int maxConcurrentSeed = 1024;
+
+    /**
+     * 分阶段执行模式下,抽取阶段线程数
+     */
+    private int extractThreadNumber = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 分阶段执行模式下,持久化阶段线程数
+     */
+    private int persistThreadNumber = 2;
+
+    /**
+     * 分阶段执行模式下,每个阶段的队列大小
+     */
+    private int stageQueueSize = 256;
+
+    /**
+     * 自适应并发控制,根据成功率和耗时调整在途种子数目
+     */
+    private boolean adaptiveConcurrency = false;
+
+    /**
+     * 在线抓取请求合并
+     */
+    private boolean grabCoalescing = false;
+
+    /**
+     * 在线抓取结果缓存的有效时间,小于等于0代表不开启缓存
+     */
+    private long grabCacheTtlMillis = 0;
+
+    /**
+     * 在线抓取结果缓存容量,按照结果估算的字节数计算
+     */
+    private long grabCacheMaxWeightBytes = 64 * 1024 * 1024;
+
+    /**
+     * 结果过期之后仍然可以返回并在后台刷新的时间窗口,小于等于0代表不开启
+     */
+    private long grabCacheStaleWhileRevalidateMillis = 0;
+
+    /**
+     * 近似重复网页检测,为空代表不开启
+     */
+    private NearDuplicateDetector nearDuplicateDetector;
 
     /**
      * 一分钟内没有新任务,则关闭爬虫
@@ -158,6 +208,11 @@ public class VSCrawlerBuilder {
 
     private Set<Object> eventObservers = Sets.newHashSet();
 
+    /**
+     * 按照异常类型定制的重试策略
+     */
+    private Map<Class<? extends Throwable>, RetryPolicy> retryPolicies = Maps.newHashMap();
+
     public static VSCrawlerBuilder create() {
         return new VSCrawlerBuilder();
     }
@@ -167,13 +222,70 @@ public class VSCrawlerBuilder {
         return this;
     }
 
+    public VSCrawlerBuilder setGrabCoalescing(boolean grabCoalescing) {
+        this.grabCoalescing = grabCoalescing;
+        return this;
+    }
+
+    /**
+     * 开启在线抓取结果缓存,key为种子key
+     *
+     * @param ttlMillis      结果有效时间, 单位毫秒
+     * @param maxWeightBytes 缓存容量, 单位字节
+     */
+    public VSCrawlerBuilder setGrabResultCache(long ttlMillis, long maxWeightBytes) {
+        this.grabCacheTtlMillis = ttlMillis;
+        this.grabCacheMaxWeightBytes = maxWeightBytes;
+        return this;
+    }
+
+    public VSCrawlerBuilder setGrabCacheStaleWhileRevalidate(long staleWhileRevalidateMillis) {
+        this.grabCacheStaleWhileRevalidateMillis = staleWhileRevalidateMillis;
+        return this;
+    }
+
+    /**
+     * 开启近似重复网页检测,下载之后计算网页正文的SimHash,和同一个host下已经抓取的网页比较,近似重复的网页跳过抽取和链接发现
+     *
+     * @param maxHammingDistance 判定为近似重复的最大海明距离, 一般为3
+     */
+    public VSCrawlerBuilder setNearDuplicateDetection(int maxHammingDistance) {
+        return setNearDuplicateDetection(maxHammingDistance, 10000);
+    }
+
+    /**
+     * @param maxHammingDistance    判定为近似重复的最大海明距离, 一般为3
+     * @param maxFingerprintPerHost 每个host在内存中保留的指纹数目
+     */
+    public VSCrawlerBuilder setNearDuplicateDetection(int maxHammingDistance, int maxFingerprintPerHost) {
+        return setNearDuplicateDetector(
+                new NearDuplicateDetector(maxHammingDistance, maxFingerprintPerHost, 10000, 100));
+    }
+
+    public VSCrawlerBuilder setNearDuplicateDetector(NearDuplicateDetector nearDuplicateDetector) {
+        this.nearDuplicateDetector = nearDuplicateDetector;
+        return this;
+    }
+
+    public VSCrawlerBuilder setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        return this;
+    }
+
+    /**
+     * @deprecated 慢启动已经被自适应并发控制替代, 等价于 {@link #setAdaptiveConcurrency(boolean)}
+     */
+    @Deprecated
     public VSCrawlerBuilder setSlowStart(boolean slowStart) {
-        this.slowStart = slowStart;
+        this.adaptiveConcurrency = slowStart;
         return this;
     }
 
+    /**
+     * @deprecated 自适应并发控制根据成功率和耗时增长并发,不再需要指定慢启动时长,该参数被忽略
+     */
+    @Deprecated
     public VSCrawlerBuilder setSlowStartDuration(long slowStartDuration) {
-        this.slowStartDuration = slowStartDuration;
         return this;
     }
 
@@ -182,6 +294,31 @@ public class VSCrawlerBuilder {
         return this;
     }
 
+    public VSCrawlerBuilder setExecutorStrategy(ExecutorStrategy executorStrategy) {
+        this.executorStrategy = executorStrategy;
+        return this;
+    }
+
+    public VSCrawlerBuilder setMaxConcurrentSeed(int maxConcurrentSeed) {
+        this.maxConcurrentSeed = maxConcurrentSeed;
+        return this;
+    }
+
+    public VSCrawlerBuilder setExtractThreadNumber(int extractThreadNumber) {
+        this.extractThreadNumber = extractThreadNumber;
+        return this;
+    }
+
+    public VSCrawlerBuilder setPersistThreadNumber(int persistThreadNumber) {
+        this.persistThreadNumber = persistThreadNumber;
+        return this;
+    }
+
+    public VSCrawlerBuilder setStageQueueSize(int stageQueueSize) {
+        this.stageQueueSize = stageQueueSize;
+        return this;
+    }
+
     public VSCrawlerBuilder setLoginOnSessionCreate(boolean loginOnSessionCreate) {
         this.loginOnSessionCreate = loginOnSessionCreate;
         return this;
@@ -326,6 +463,11 @@ public class VSCrawlerBuilder {
         return this;
     }
 
+    public VSCrawlerBuilder addRetryPolicy(Class<? extends Throwable> errorClass, RetryPolicy retryPolicy) {
+        this.retryPolicies.put(errorClass, retryPolicy);
+        return this;
+    }
+
     public VSCrawlerBuilder addEventObserver(Object observer) {
         this.eventObservers.add(observer);
         return this;
@@ -365,6 +507,9 @@ public class VSCrawlerBuilder {
 
         BerkeleyDBSeedManager berkeleyDBSeedManager = new BerkeleyDBSeedManager(vsCrawlerContext, initSeedSource, seedKeyResolver,
                 segmentResolver, seedManagerCacheSize);
+        for (Map.Entry<Class<? extends Throwable>, RetryPolicy> entry : retryPolicies.entrySet()) {
+            berkeleyDBSeedManager.getRetryScheduler().registerPolicy(entry.getKey(), entry.getValue());
+        }
 
         if (processor == null && seedRouters.isEmpty()) {
             processor = new PageDownLoadProcessor();
@@ -385,7 +530,10 @@ public class VSCrawlerBuilder {
         }
 
         VSCrawler vsCrawler = new VSCrawler(vsCrawlerContext, crawlerSessionPool, berkeleyDBSeedManager, processor, pipelineList,
-                workerThreadNumber, slowStart, slowStartDuration);
+                workerThreadNumber, adaptiveConcurrency, executorStrategy, maxConcurrentSeed,
+                extractThreadNumber, persistThreadNumber, stageQueueSize, grabCoalescing,
+                grabCacheTtlMillis > 0 ? new GrabResultCache(grabCacheTtlMillis, grabCacheMaxWeightBytes,
+                        grabCacheStaleWhileRevalidateMillis) : null, nearDuplicateDetector);
         if (loginOnSessionCreate) {
             if (userResourceFacade == null) {
                 userResourceFacade = new DefaultUserResource();
@@ -0,0 +1,105 @@
+package com.virjar.vscrawler.core.dedup;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.virjar.vscrawler.core.politeness.HostPolitenessScheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/21.<br>
+ * 近似重复网页检测。下载之后计算网页正文的SimHash,在同一个host已经抓取过的网页中查找海明距离不超过阈值的指纹,
+ * 命中的网页(同样的内容挂在不同的session id,排序参数,跟踪参数下面)跳过抽取和链接发现。<br>
+ * 索引只保存在内存中,按照host分区,每个host保留最近的指纹,host数目超出上限的时候淘汰最久没有访问的host。
+ * 同一个种子重新抓取的内容不算重复,保证抽取失败重试的种子可以再次抽取
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class NearDuplicateDetector {
+    private final int maxDistance;
+
+    private final int minTextLength;
+
+    private final LoadingCache<String, SimHashIndex> hostIndexes;
+
+    private AtomicLong checkedCount = new AtomicLong(0);
+
+    private AtomicLong duplicateCount = new AtomicLong(0);
+
+    private AtomicLong skippedChars = new AtomicLong(0);
+
+    /**
+     * @param maxDistance           判定为近似重复的最大海明距离, 0到10之间
+     * @param maxFingerprintPerHost 每个host保留的指纹数目
+     * @param maxHosts              保留索引的host数目
+     * @param minTextLength         正文少于这个长度的网页不参与检测, 避免错误页之类的短页面互相误判
+     */
+    public NearDuplicateDetector(int maxDistance, final int maxFingerprintPerHost, long maxHosts, int minTextLength) {
+        this.maxDistance = Math.min(Math.max(maxDistance, 0), 10);
+        this.minTextLength = Math.max(minTextLength, 0);
+        final int capacity = Math.max(maxFingerprintPerHost, 1);
+        this.hostIndexes = CacheBuilder.newBuilder().maximumSize(Math.max(maxHosts, 1))
+                .build(new CacheLoader<String, SimHashIndex>() {
+                    @Override
+                    public SimHashIndex load(String key) {
+                        return new SimHashIndex(NearDuplicateDetector.this.maxDistance, capacity);
+                    }
+                });
+    }
+
+    /**
+     * 检测网页是否和同一个host下其他种子的网页近似重复,不重复的网页加入索引
+     *
+     * @param seedData 种子数据, 用于解析host
+     * @param seedKey  种子key
+     * @param content  网页内容
+     * @return 是否近似重复
+     */
+    public boolean isNearDuplicate(String seedData, String seedKey, String content) {
+        if (content == null) {
+            return false;
+        }
+        SimHash simHash = SimHash.compute(content);
+        if (simHash.getTextLength() < minTextLength) {
+            return false;
+        }
+        checkedCount.incrementAndGet();
+        SimHashIndex simHashIndex;
+        try {
+            simHashIndex = hostIndexes.get(HostPolitenessScheduler.resolveHost(seedData));
+        } catch (ExecutionException e) {
+            // 创建索引不会抛出异常
+            throw new IllegalStateException(e);
+        }
+        long owner = Hashing.murmur3_128().hashString(seedKey, Charsets.UTF_8).asLong();
+        if (!simHashIndex.checkAndAdd(simHash.getFingerprint(), owner)) {
+            return false;
+        }
+        duplicateCount.incrementAndGet();
+        skippedChars.addAndGet(content.length());
+        log.info("网页内容近似重复,跳过抽取:{}", seedData);
+        return true;
+    }
+
+    public NearDuplicateStatus status() {
+        NearDuplicateStatus nearDuplicateStatus = new NearDuplicateStatus();
+        nearDuplicateStatus.setCheckedCount(checkedCount.get());
+        nearDuplicateStatus.setDuplicateCount(duplicateCount.get());
+        nearDuplicateStatus.setSkippedChars(skippedChars.get());
+        long fingerprintCount = 0;
+        for (SimHashIndex simHashIndex : hostIndexes.asMap().values()) {
+            fingerprintCount += simHashIndex.size();
+        }
+        nearDuplicateStatus.setHostCount(hostIndexes.size());
+        nearDuplicateStatus.setFingerprintCount(fingerprintCount);
+        return nearDuplicateStatus;
+    }
+}
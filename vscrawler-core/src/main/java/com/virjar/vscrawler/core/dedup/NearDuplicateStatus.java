@@ -0,0 +1,28 @@
+package com.virjar.vscrawler.core.dedup;
+
+import lombok.Data;
+
+/**
+ * Created by virjar on 2018/3/21.<br>
+ * 近似重复网页检测的统计信息
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Data
+public class NearDuplicateStatus {
+    /**
+     * 参与检测的网页数目
+     */
+    private long checkedCount;
+    /**
+     * 判定为近似重复,跳过抽取和链接发现的网页数目
+     */
+    private long duplicateCount;
+    /**
+     * 跳过抽取的网页内容字符数
+     */
+    private long skippedChars;
+    private long hostCount;
+    private long fingerprintCount;
+}
@@ -0,0 +1,148 @@
+package com.virjar.vscrawler.core.dedup;
+
+/**
+ * Created by virjar on 2018/3/21.<br>
+ * 网页文本的64位SimHash指纹。<br>
+ * 只计算正文文字:去掉标签,script和style的内容,字母数字统一为小写,其他字符合并为一个空格。
+ * 特征为连续4个字符的shingle,不依赖分词,中文和英文都适用。4个字符正好拼成一个long,经过murmur3的fmix64打散之后作为特征哈希,
+ * 整个计算只扫描一遍文本,不产生中间字符串
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class SimHash {
+    private static final int SHINGLE_SIZE = 4;
+
+    private final long fingerprint;
+
+    private final int textLength;
+
+    private SimHash(long fingerprint, int textLength) {
+        this.fingerprint = fingerprint;
+        this.textLength = textLength;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return 参与计算的正文字符数
+     */
+    public int getTextLength() {
+        return textLength;
+    }
+
+    /**
+     * @return 两个指纹之间的海明距离
+     */
+    public static int distance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+
+    /**
+     * 计算网页的SimHash
+     *
+     * @param content 网页内容, html或者纯文本
+     * @return 指纹
+     */
+    public static SimHash compute(String content) {
+        // 每一位为1的特征数目,超过特征总数一半的位指纹为1,等价于+1/-1加权求和,但是没有分支
+        int[] ones = new int[64];
+        int features = 0;
+        long shingle = 0;
+        int textLength = 0;
+        boolean lastSpace = true;
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == '<') {
+                i = skipTag(content, i);
+                c = ' ';
+            } else {
+                i++;
+                if (Character.isLetterOrDigit(c)) {
+                    c = Character.toLowerCase(c);
+                } else {
+                    c = ' ';
+                }
+            }
+            if (c == ' ') {
+                if (lastSpace) {
+                    continue;
+                }
+                lastSpace = true;
+            } else {
+                lastSpace = false;
+            }
+            shingle = (shingle << 16) | c;
+            textLength++;
+            if (textLength >= SHINGLE_SIZE) {
+                long hash = fmix64(shingle);
+                for (int bit = 0; bit < 64; bit++) {
+                    ones[bit] += (int) ((hash >>> bit) & 1);
+                }
+                features++;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (ones[bit] * 2 > features) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return new SimHash(fingerprint, textLength);
+    }
+
+    /**
+     * 跳过一个标签,script和style标签跳过到对应的结束标签
+     *
+     * @return 标签之后的位置
+     */
+    private static int skipTag(String content, int start) {
+        int end = content.indexOf('>', start);
+        if (end < 0) {
+            return content.length();
+        }
+        String endTag = null;
+        if (content.regionMatches(true, start + 1, "script", 0, 6)) {
+            endTag = "</script";
+        } else if (content.regionMatches(true, start + 1, "style", 0, 5)) {
+            endTag = "</style";
+        }
+        if (endTag == null || content.charAt(end - 1) == '/') {
+            return end + 1;
+        }
+        int closeStart = indexOfIgnoreCase(content, endTag, end + 1);
+        if (closeStart < 0) {
+            return content.length();
+        }
+        int closeEnd = content.indexOf('>', closeStart);
+        return closeEnd < 0 ? content.length() : closeEnd + 1;
+    }
+
+    private static int indexOfIgnoreCase(String content, String target, int from) {
+        // 结束标签以'<'开头,只需要在'<'的位置比较
+        int i = content.indexOf('<', from);
+        while (i >= 0) {
+            if (content.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+            i = content.indexOf('<', i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * murmur3的64位finalizer
+     */
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,134 @@
+package com.virjar.vscrawler.core.dedup;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Created by virjar on 2018/3/21.<br>
+ * 一个host的SimHash指纹索引,支持按照海明距离查找。<br>
+ * 最大距离为k的时候,64位指纹切分为k+1段,两个距离不超过k的指纹至少有一段完全相同,
+ * 所以每一段建立一个精确匹配的哈希表,查询只需要比较k+1个桶里面的候选指纹,不需要和所有指纹比较。<br>
+ * 指纹存储在固定容量的环形数组中,满了之后淘汰最早的指纹
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class SimHashIndex {
+    private final int maxDistance;
+
+    private final int[] blockShift;
+
+    private final long[] blockMask;
+
+    private final List<Map<Long, Bucket>> tables;
+
+    private final long[] fingerprints;
+
+    /**
+     * 指纹所属的种子,同一个种子重新抓取的内容不算重复
+     */
+    private final long[] owners;
+
+    private int size = 0;
+
+    private int next = 0;
+
+    SimHashIndex(int maxDistance, int capacity) {
+        this.maxDistance = maxDistance;
+        int blocks = maxDistance + 1;
+        blockShift = new int[blocks];
+        blockMask = new long[blocks];
+        tables = Lists.newArrayListWithCapacity(blocks);
+        for (int i = 0; i < blocks; i++) {
+            int start = i * 64 / blocks;
+            int end = (i + 1) * 64 / blocks;
+            blockShift[i] = start;
+            blockMask[i] = end - start == 64 ? -1L : (1L << (end - start)) - 1;
+            tables.add(Maps.<Long, Bucket> newHashMap());
+        }
+        fingerprints = new long[capacity];
+        owners = new long[capacity];
+    }
+
+    /**
+     * 查找相似的指纹,不存在的时候加入索引
+     *
+     * @param fingerprint 指纹
+     * @param owner       指纹所属种子的标识
+     * @return 存在其他种子的相似指纹
+     */
+    synchronized boolean checkAndAdd(long fingerprint, long owner) {
+        for (int i = 0; i < tables.size(); i++) {
+            Bucket bucket = tables.get(i).get(block(fingerprint, i));
+            if (bucket == null) {
+                continue;
+            }
+            for (int j = 0; j < bucket.size; j++) {
+                int slot = bucket.slots[j];
+                if (owners[slot] != owner && SimHash.distance(fingerprints[slot], fingerprint) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        if (size == fingerprints.length) {
+            // 淘汰最早的指纹
+            for (int i = 0; i < tables.size(); i++) {
+                Long key = block(fingerprints[next], i);
+                Bucket bucket = tables.get(i).get(key);
+                if (bucket != null && bucket.remove(next) && bucket.size == 0) {
+                    tables.get(i).remove(key);
+                }
+            }
+        } else {
+            size++;
+        }
+        fingerprints[next] = fingerprint;
+        owners[next] = owner;
+        for (int i = 0; i < tables.size(); i++) {
+            Long key = block(fingerprint, i);
+            Bucket bucket = tables.get(i).get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                tables.get(i).put(key, bucket);
+            }
+            bucket.add(next);
+        }
+        next = (next + 1) % fingerprints.length;
+        return false;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private long block(long fingerprint, int index) {
+        return (fingerprint >>> blockShift[index]) & blockMask[index];
+    }
+
+    private static class Bucket {
+        private int[] slots = new int[2];
+        private int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                int[] newSlots = new int[size * 2];
+                System.arraycopy(slots, 0, newSlots, 0, size);
+                slots = newSlots;
+            }
+            slots[size++] = slot;
+        }
+
+        boolean remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
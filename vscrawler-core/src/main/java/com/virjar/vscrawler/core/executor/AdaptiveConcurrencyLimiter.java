@@ -0,0 +1,187 @@
+package com.virjar.vscrawler.core.executor;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.virjar.vscrawler.core.seed.Seed;
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 基于AIMD(加性增,乘性减)的自适应并发控制器,替代原有的固定时长慢启动。<br>
+ * 每个种子处理结束后上报结果和耗时,控制器按照采样窗口统计成功率和p95耗时:
+ * <ul>
+ * <li>成功率和p95耗时都健康的时候,并发上限加一</li>
+ * <li>出现超时、连接失败(通常是代理失效)或者p95耗时相对基线突增的时候,并发上限乘以回退系数</li>
+ * </ul>
+ * 一个窗口内最多回退一次,避免一批超时请求把并发直接打到最小值
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private int minLimit = 1;
+    private int maxLimit;
+    private double limit;
+
+    private double backoffRatio = 0.7;
+    private double minSuccessRate = 0.9;
+    /**
+     * p95耗时超过基线的多少倍认为是耗时突增
+     */
+    private double latencyTolerance = 2.0;
+
+    private long baselineLatency = -1;
+
+    private long[] latencies = new long[64];
+    private int sampleSize = 0;
+    private int failedSize = 0;
+    private boolean decreasedInWindow = false;
+
+    private double lastSuccessRate = 1;
+    private long lastP95Latency = 0;
+
+    /**
+     * @param initLimit 初始并发上限
+     * @param maxLimit  最大并发上限,一般为执行器的最大并发数
+     */
+    public AdaptiveConcurrencyLimiter(int initLimit, int maxLimit) {
+        this.maxLimit = Math.max(maxLimit, 1);
+        this.limit = Math.max(Math.min(initLimit, this.maxLimit), minLimit);
+    }
+
+    /**
+     * @return 当前并发上限
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(maxLimit, minLimit);
+        if (limit > this.maxLimit) {
+            limit = this.maxLimit;
+        }
+    }
+
+    /**
+     * 上报一次种子处理结果
+     *
+     * @param success    是否成功
+     * @param congestion 是否是超时、代理失败等拥塞信号
+     * @param latency    处理耗时,单位毫秒
+     */
+    public synchronized void onSample(boolean success, boolean congestion, long latency) {
+        if (congestion && !decreasedInWindow) {
+            decrease("timeout or proxy failure");
+        }
+        if (!success) {
+            failedSize++;
+        }
+        if (sampleSize >= latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[sampleSize++] = latency;
+
+        // 窗口大小和当前并发上限相当,保证每个窗口大约是一轮完整的请求
+        if (sampleSize < Math.max((int) limit, 20)) {
+            return;
+        }
+        Arrays.sort(latencies, 0, sampleSize);
+        long p95 = latencies[(int) (sampleSize * 0.95) - 1];
+        double successRate = (sampleSize - failedSize) / (double) sampleSize;
+        lastSuccessRate = successRate;
+        lastP95Latency = p95;
+        if (baselineLatency < 0) {
+            baselineLatency = p95;
+        }
+
+        if (!decreasedInWindow) {
+            if (successRate < minSuccessRate) {
+                decrease("success rate " + successRate);
+            } else if (p95 > baselineLatency * latencyTolerance) {
+                decrease("latency spike p95:" + p95 + " baseline:" + baselineLatency);
+            } else if (limit < maxLimit) {
+                limit = Math.min(limit + 1, maxLimit);
+            }
+        }
+        // 基线取健康窗口的p95,缓慢向上跟随,避免由于目标站点整体变慢导致一直回退
+        if (successRate >= minSuccessRate) {
+            baselineLatency = p95 < baselineLatency ? p95 : (long) (baselineLatency * 0.9 + p95 * 0.1);
+        }
+
+        sampleSize = 0;
+        failedSize = 0;
+        decreasedInWindow = false;
+    }
+
+    /**
+     * 上报一次种子处理结果,根据种子状态和异常换算为成功和拥塞信号
+     *
+     * @param seed           种子
+     * @param exception      种子处理过程中抛出的异常,没有异常为null
+     * @param downloadFailed 下载是否失败,httpClient吞掉了网络异常返回了空内容
+     * @param latency        处理耗时,单位毫秒
+     */
+    public void onSeedSample(Seed seed, Throwable exception, boolean downloadFailed, long latency) {
+        boolean success = exception == null && seed.getStatus() == Seed.STATUS_SUCCESS;
+        boolean congestion = downloadFailed || (exception != null && isCongestion(exception));
+        onSample(success, congestion, latency);
+    }
+
+    private void decrease(String reason) {
+        double newLimit = Math.max(limit * backoffRatio, minLimit);
+        log.info("自适应并发控制回退,由:{} 变化为:{} 原因:{}", (int) limit, (int) newLimit, reason);
+        limit = newLimit;
+        decreasedInWindow = true;
+    }
+
+    public synchronized ConcurrencyLimitStatus status() {
+        return new ConcurrencyLimitStatus((int) limit, maxLimit, lastSuccessRate, lastP95Latency, baselineLatency);
+    }
+
+    public synchronized void config(Properties properties, String crawlerName) {
+        minLimit = Math.max(NumberUtils.toInt(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_ADAPTIVE_CONCURRENCY_MIN_LIMIT, crawlerName)), 1), 1);
+        backoffRatio = NumberUtils.toDouble(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_ADAPTIVE_CONCURRENCY_BACKOFF_RATIO, crawlerName)), 0.7);
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            backoffRatio = 0.7;
+        }
+        minSuccessRate = NumberUtils.toDouble(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_ADAPTIVE_CONCURRENCY_MIN_SUCCESS_RATE, crawlerName)), 0.9);
+        latencyTolerance = NumberUtils.toDouble(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_ADAPTIVE_CONCURRENCY_LATENCY_TOLERANCE, crawlerName)), 2.0);
+        if (limit < minLimit) {
+            limit = Math.min(minLimit, maxLimit);
+        }
+    }
+
+    /**
+     * 判断异常是否为拥塞信号,超时和连接失败一般意味着目标站点或者代理过载
+     *
+     * @param throwable 种子处理过程中的异常
+     * @return 是否是拥塞信号
+     */
+    public static boolean isCongestion(Throwable throwable) {
+        int depth = 0;
+        while (throwable != null && depth++ < 10) {
+            if (throwable instanceof InterruptedIOException || throwable instanceof ConnectException
+                    || throwable instanceof SocketException || throwable instanceof UnknownHostException) {
+                return true;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,30 @@
+package com.virjar.vscrawler.core.executor;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 自适应并发控制器的状态快照,用于监控展示
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+@AllArgsConstructor
+public class ConcurrencyLimitStatus {
+    /**
+     * 当前并发上限
+     */
+    private int limit;
+    private int maxLimit;
+    /**
+     * 上一个采样窗口的成功率
+     */
+    private double successRate;
+    /**
+     * 上一个采样窗口的p95耗时,单位毫秒
+     */
+    private long p95Latency;
+    private long baselineLatency;
+}
@@ -0,0 +1,24 @@
+package com.virjar.vscrawler.core.executor;
+
+/**
+ * Created by virjar on 2018/3/4.<br>
+ * 种子任务的执行模式
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public enum ExecutorStrategy {
+    /**
+     * 固定大小的平台线程池,并发数由threadNumber决定,每个种子在整个阻塞下载过程中占用一个线程
+     */
+    THREAD_POOL,
+    /**
+     * 轻量级线程模式,jdk支持虚拟线程的时候每个种子运行在一个虚拟线程上,否则使用小栈线程。并发数由信号量控制,适合大量慢速下载的场景
+     */
+    LIGHTWEIGHT,
+    /**
+     * 分阶段执行模式,下载阶段运行在大小为threadNumber的IO线程池,抽取阶段运行在和CPU核数匹配的线程池,持久化阶段运行在独立的线程池。
+     * 阶段之间通过有界队列连接,处理器需要实现StagedSeedProcessor才能拆分下载和抽取
+     */
+    STAGED
+}
@@ -0,0 +1,144 @@
+package com.virjar.vscrawler.core.executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by virjar on 2018/3/4.<br>
+ * 轻量级执行器,每个种子一个轻量级线程,并发数由信号量控制而不是线程数。<br>
+ * 运行在支持虚拟线程的jdk上时使用虚拟线程(通过反射探测,保持低版本jdk的兼容),
+ * 否则退化为小栈内存的按需线程,空闲60s后回收,这种情况下单个线程的内存开销远小于默认线程栈
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class LightweightSeedTaskExecutor implements SeedTaskExecutor {
+    /**
+     * 退化模式下的线程栈大小
+     */
+    private static final long FALLBACK_THREAD_STACK_SIZE = 256 * 1024;
+
+    private ExecutorService delegate;
+    private ResizableSemaphore semaphore;
+    private volatile int maxConcurrent;
+    private AtomicInteger activeCount = new AtomicInteger(0);
+
+    public LightweightSeedTaskExecutor(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.semaphore = new ResizableSemaphore(maxConcurrent);
+        this.delegate = createVirtualThreadExecutor();
+        if (delegate == null) {
+            log.info("当前jdk不支持虚拟线程,使用小栈线程执行种子任务");
+            delegate = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new SmallStackThreadFactory());
+        } else {
+            log.info("使用虚拟线程执行种子任务");
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "VSCrawlerWorker-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (Throwable throwable) {
+            // jdk版本不支持,或者虚拟线程为预览特性且没有开启
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted when wait for concurrent permit", e);
+        }
+        activeCount.incrementAndGet();
+        try {
+            delegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        activeCount.decrementAndGet();
+                        semaphore.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            activeCount.decrementAndGet();
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public int maxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public synchronized void setMaxConcurrent(int newMaxConcurrent) {
+        int delta = newMaxConcurrent - maxConcurrent;
+        if (delta > 0) {
+            semaphore.release(delta);
+        } else if (delta < 0) {
+            semaphore.reducePermits(-delta);
+        }
+        maxConcurrent = newMaxConcurrent;
+    }
+
+    @Override
+    public int activeCount() {
+        return activeCount.get();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private static class SmallStackThreadFactory implements ThreadFactory {
+        private AtomicInteger threadNumber = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(null, r, "VSCrawlerWorker-" + threadNumber.incrementAndGet(),
+                    FALLBACK_THREAD_STACK_SIZE);
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.virjar.vscrawler.core.executor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by virjar on 2018/3/4.<br>
+ * 种子任务执行器,派发线程通过他执行种子处理任务
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public interface SeedTaskExecutor {
+    /**
+     * 执行一个种子任务,如果并发已满,可能阻塞调用线程
+     *
+     * @param task 种子任务
+     */
+    void execute(Runnable task);
+
+    /**
+     * @return 最大并发任务数
+     */
+    int maxConcurrent();
+
+    /**
+     * 运行期调整最大并发任务数
+     *
+     * @param maxConcurrent 新的最大并发数
+     */
+    void setMaxConcurrent(int maxConcurrent);
+
+    /**
+     * @return 正在执行的任务数
+     */
+    int activeCount();
+
+    boolean isShutdown();
+
+    void shutdown();
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,24 @@
+package com.virjar.vscrawler.core.executor;
+
+/**
+ * Created by virjar on 2018/3/4.<br>
+ * 根据执行模式创建种子任务执行器
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class SeedTaskExecutors {
+    private SeedTaskExecutors() {
+    }
+
+    public static SeedTaskExecutor create(ExecutorStrategy executorStrategy, int concurrent, int extractThreadNumber,
+                                          int persistThreadNumber, int stageQueueSize) {
+        if (executorStrategy == ExecutorStrategy.LIGHTWEIGHT) {
+            return new LightweightSeedTaskExecutor(concurrent);
+        }
+        if (executorStrategy == ExecutorStrategy.STAGED) {
+            return new StagedSeedTaskExecutor(concurrent, extractThreadNumber, persistThreadNumber, stageQueueSize);
+        }
+        return new ThreadPoolSeedTaskExecutor(concurrent);
+    }
+}
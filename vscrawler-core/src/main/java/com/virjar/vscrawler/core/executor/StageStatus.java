@@ -0,0 +1,21 @@
+package com.virjar.vscrawler.core.executor;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/6.<br>
+ * 分阶段执行模式下,单个阶段的状态快照
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+@AllArgsConstructor
+public class StageStatus {
+    private String stageName;
+    private int threadNumber;
+    private int activeThreadNumber;
+    private int queueDepth;
+    private int queueCapacity;
+}
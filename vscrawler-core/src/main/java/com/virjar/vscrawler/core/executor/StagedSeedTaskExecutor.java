@@ -0,0 +1,182 @@
+package com.virjar.vscrawler.core.executor;
+
+import com.google.common.collect.Lists;
+import com.virjar.dungproxy.client.ningclient.concurrent.NamedThreadFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Created by virjar on 2018/3/6.<br>
+ * 分阶段执行器,下载、抽取、持久化分别运行在独立的线程池上,避免IO密集型任务和CPU密集型任务争抢同一批线程。<br>
+ * 阶段之间通过有界队列连接,下游队列满的时候上游线程阻塞,最终反压到派发线程。<br>
+ * 异步下载的请求在httpclient的IO线程上完成,IO线程不能阻塞,所以请求结束之后的回调在独立的回调线程上提交抽取任务;
+ * 在途的异步请求数目由信号量限制,下载线程发出请求之前获取,回调把任务交给抽取阶段之后释放,反压发生在发出请求之前
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class StagedSeedTaskExecutor implements SeedTaskExecutor {
+    private ThreadPoolExecutor downloadStage;
+    private ThreadPoolExecutor extractStage;
+    private ThreadPoolExecutor persistStage;
+    /**
+     * 异步下载结束之后的回调线程,队列长度受asyncDownloadPermits限制,不需要有界队列
+     */
+    private ThreadPoolExecutor downloadCallbackStage;
+    private Semaphore asyncDownloadPermits;
+    private int queueSize;
+
+    public StagedSeedTaskExecutor(int downloadThreadNumber, int extractThreadNumber, int persistThreadNumber,
+                                  int queueSize) {
+        this.queueSize = queueSize;
+        downloadStage = createStage("VSCrawlerDownload", downloadThreadNumber, queueSize);
+        extractStage = createStage("VSCrawlerExtract", extractThreadNumber, queueSize);
+        persistStage = createStage("VSCrawlerPersist", persistThreadNumber, queueSize);
+        // 关闭之后才到达的回调在调用线程执行,保证种子被归还
+        downloadCallbackStage = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("VSCrawlerDownloadCallback", false),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // 在途的异步请求不超过抽取队列的长度,回调提交抽取任务的时候一般不会阻塞
+        asyncDownloadPermits = new Semaphore(queueSize);
+    }
+
+    private static ThreadPoolExecutor createStage(String name, int threadNumber, int queueSize) {
+        return new ThreadPoolExecutor(threadNumber, threadNumber, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory(name, false),
+                new BlockWhenFullPolicy());
+    }
+
+    /**
+     * 提交下载阶段任务,派发线程调用
+     */
+    @Override
+    public void execute(Runnable task) {
+        downloadStage.execute(task);
+    }
+
+    /**
+     * 提交抽取阶段任务,在下载线程中调用,队列满的时候阻塞
+     */
+    public void executeExtract(Runnable task) {
+        extractStage.execute(task);
+    }
+
+    /**
+     * 提交持久化阶段任务,在抽取线程中调用,队列满的时候阻塞
+     */
+    public void executePersist(Runnable task) {
+        persistStage.execute(task);
+    }
+
+    /**
+     * 发出异步下载请求之前调用,在途的异步请求达到上限的时候阻塞下载线程
+     */
+    public void acquireAsyncDownload() {
+        asyncDownloadPermits.acquireUninterruptibly();
+    }
+
+    /**
+     * 异步下载的结果已经交给抽取阶段,或者没有发出异步请求
+     */
+    public void releaseAsyncDownload() {
+        asyncDownloadPermits.release();
+    }
+
+    /**
+     * @return 异步下载结束之后执行回调的线程池, 不能在httpclient的IO线程上执行可能阻塞的逻辑
+     */
+    public Executor downloadCallbackExecutor() {
+        return downloadCallbackStage;
+    }
+
+    /**
+     * 所有阶段的线程和队列都被占满时的种子数目,达到这个数目后派发线程等待
+     */
+    @Override
+    public int maxConcurrent() {
+        return downloadStage.getMaximumPoolSize() + extractStage.getMaximumPoolSize()
+                + persistStage.getMaximumPoolSize() + queueSize * 3;
+    }
+
+    /**
+     * 调整下载阶段的线程数,抽取和持久化阶段的线程数在创建时确定
+     */
+    @Override
+    public void setMaxConcurrent(int downloadThreadNumber) {
+        if (downloadThreadNumber > downloadStage.getMaximumPoolSize()) {
+            downloadStage.setMaximumPoolSize(downloadThreadNumber);
+            downloadStage.setCorePoolSize(downloadThreadNumber);
+        } else {
+            downloadStage.setCorePoolSize(downloadThreadNumber);
+            downloadStage.setMaximumPoolSize(downloadThreadNumber);
+        }
+    }
+
+    @Override
+    public int activeCount() {
+        return downloadStage.getActiveCount() + extractStage.getActiveCount() + persistStage.getActiveCount();
+    }
+
+    public List<StageStatus> stageStatus() {
+        return Lists.newArrayList(stageStatus("download", downloadStage), stageStatus("extract", extractStage),
+                stageStatus("persist", persistStage));
+    }
+
+    private StageStatus stageStatus(String name, ThreadPoolExecutor stage) {
+        return new StageStatus(name, stage.getMaximumPoolSize(), stage.getActiveCount(), stage.getQueue().size(),
+                queueSize);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return downloadStage.isShutdown();
+    }
+
+    /**
+     * 下游阶段需要在上游全部结束之后才能关闭,否则上游提交的任务会被拒绝,在awaitTermination中逐级关闭,
+     * 抽取阶段在在途的异步请求全部结束之后才关闭
+     */
+    @Override
+    public void shutdown() {
+        downloadStage.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean ret = downloadStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        // 等待在途的异步请求全部交给抽取阶段
+        if (asyncDownloadPermits.tryAcquire(queueSize, Math.max(deadline - System.nanoTime(), 0),
+                TimeUnit.NANOSECONDS)) {
+            asyncDownloadPermits.release(queueSize);
+        } else {
+            ret = false;
+        }
+        downloadCallbackStage.shutdown();
+        ret &= downloadCallbackStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        extractStage.shutdown();
+        ret &= extractStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        persistStage.shutdown();
+        ret &= persistStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        return ret;
+    }
+
+    /**
+     * 队列满的时候阻塞提交线程,实现阶段之间的反压
+     */
+    private static class BlockWhenFullPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("stage has been shutdown");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted when wait for stage queue", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.virjar.vscrawler.core.executor;
+
+import com.virjar.dungproxy.client.ningclient.concurrent.NamedThreadFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by virjar on 2018/3/4.<br>
+ * 默认的执行器,固定大小的线程池
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class ThreadPoolSeedTaskExecutor implements SeedTaskExecutor {
+    private ThreadPoolExecutor threadPool;
+
+    public ThreadPoolSeedTaskExecutor(int threadNumber) {
+        threadPool = new ThreadPoolExecutor(threadNumber, threadNumber, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("VSCrawlerWorker", false));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threadPool.execute(task);
+    }
+
+    @Override
+    public int maxConcurrent() {
+        return threadPool.getMaximumPoolSize();
+    }
+
+    @Override
+    public void setMaxConcurrent(int maxConcurrent) {
+        // 扩容的时候先调整最大值,缩容的时候先调整核心值,否则会抛出IllegalArgumentException
+        if (maxConcurrent > threadPool.getMaximumPoolSize()) {
+            threadPool.setMaximumPoolSize(maxConcurrent);
+            threadPool.setCorePoolSize(maxConcurrent);
+        } else {
+            threadPool.setCorePoolSize(maxConcurrent);
+            threadPool.setMaximumPoolSize(maxConcurrent);
+        }
+    }
+
+    @Override
+    public int activeCount() {
+        return threadPool.getActiveCount();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return threadPool.isShutdown();
+    }
+
+    @Override
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threadPool.awaitTermination(timeout, unit);
+    }
+}
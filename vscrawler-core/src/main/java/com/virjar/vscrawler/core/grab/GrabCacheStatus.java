@@ -0,0 +1,23 @@
+package com.virjar.vscrawler.core.grab;
+
+import lombok.Data;
+
+/**
+ * Created by virjar on 2018/3/10.<br>
+ * 在线抓取结果缓存的统计信息
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Data
+public class GrabCacheStatus {
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    /**
+     * 返回了过期结果并且触发后台刷新的次数,同时也计入hitCount
+     */
+    private long staleHitCount;
+    private double hitRate;
+}
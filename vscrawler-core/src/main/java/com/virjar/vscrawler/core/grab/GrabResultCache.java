@@ -0,0 +1,166 @@
+package com.virjar.vscrawler.core.grab;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.virjar.vscrawler.core.processor.GrabResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/10.<br>
+ * 在线抓取的结果缓存,key为种子key。缓存容量按照结果的估算字节数限制,超出容量的时候按照LRU淘汰。<br>
+ * 打开stale-while-revalidate之后,过期但是还在容忍窗口内的结果会直接返回给调用方,同时在后台刷新,
+ * 同一个key同一时刻只有一个刷新任务。没有抓到任何结果的请求不会被缓存
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class GrabResultCache {
+    /**
+     * 每个缓存条目的固定开销估算
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final long ttlMillis;
+
+    private final long staleWhileRevalidateMillis;
+
+    private final Cache<String, CachedGrabResult> cache;
+
+    private Set<String> refreshing = Sets.newConcurrentHashSet();
+
+    private AtomicLong staleHitCount = new AtomicLong(0);
+
+    /**
+     * @param ttlMillis                  结果有效时间, 单位毫秒
+     * @param maxWeightBytes             缓存容量, 按照结果估算的字节数计算
+     * @param staleWhileRevalidateMillis 结果过期之后仍然可以返回的时间窗口, 小于等于0代表不开启
+     */
+    public GrabResultCache(long ttlMillis, long maxWeightBytes, long staleWhileRevalidateMillis) {
+        this.ttlMillis = Math.max(ttlMillis, 1);
+        this.staleWhileRevalidateMillis = Math.max(staleWhileRevalidateMillis, 0);
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maxWeightBytes)
+                .weigher(new Weigher<String, CachedGrabResult>() {
+                    @Override
+                    public int weigh(String key, CachedGrabResult value) {
+                        return value.weight;
+                    }
+                }).expireAfterWrite(this.ttlMillis + this.staleWhileRevalidateMillis, TimeUnit.MILLISECONDS)
+                .recordStats().build();
+    }
+
+    /**
+     * 获取缓存的抓取结果,没有命中的时候在调用线程中执行抓取
+     *
+     * @param key             种子key
+     * @param loader          抓取逻辑
+     * @param refreshExecutor stale-while-revalidate模式下后台刷新使用的线程池
+     * @return 抓取结果
+     */
+    public GrabResult get(final String key, final Callable<GrabResult> loader, Executor refreshExecutor) {
+        CachedGrabResult cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (System.currentTimeMillis() - cached.createTimeStamp <= ttlMillis) {
+                return cached.grabResult;
+            }
+            staleHitCount.incrementAndGet();
+            refreshAsync(key, loader, refreshExecutor);
+            return cached.grabResult;
+        }
+        GrabResult grabResult;
+        try {
+            grabResult = loader.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncheckedExecutionException(e);
+        }
+        put(key, grabResult);
+        return grabResult;
+    }
+
+    private void refreshAsync(final String key, final Callable<GrabResult> loader, Executor refreshExecutor) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        put(key, loader.call());
+                    } catch (Exception e) {
+                        log.warn("后台刷新抓取结果失败:{}", key, e);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            log.warn("后台刷新任务被拒绝:{}", key);
+        }
+    }
+
+    private void put(String key, GrabResult grabResult) {
+        if (grabResult == null || grabResult.allEntityResult().isEmpty()) {
+            return;
+        }
+        cache.put(key, new CachedGrabResult(grabResult));
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public GrabCacheStatus status() {
+        CacheStats stats = cache.stats();
+        GrabCacheStatus grabCacheStatus = new GrabCacheStatus();
+        grabCacheStatus.setSize(cache.size());
+        grabCacheStatus.setHitCount(stats.hitCount());
+        grabCacheStatus.setMissCount(stats.missCount());
+        grabCacheStatus.setEvictionCount(stats.evictionCount());
+        grabCacheStatus.setStaleHitCount(staleHitCount.get());
+        grabCacheStatus.setHitRate(stats.hitRate());
+        return grabCacheStatus;
+    }
+
+    private static class CachedGrabResult {
+        private final GrabResult grabResult;
+        private final long createTimeStamp;
+        private final int weight;
+
+        CachedGrabResult(GrabResult grabResult) {
+            this.grabResult = grabResult;
+            this.createTimeStamp = System.currentTimeMillis();
+            this.weight = estimateWeight(grabResult);
+        }
+    }
+
+    /**
+     * 按照结果序列化之后的字符数估算内存占用,java字符串每个字符两个字节
+     */
+    private static int estimateWeight(GrabResult grabResult) {
+        long weight = ENTRY_OVERHEAD;
+        for (String result : grabResult.allResult()) {
+            weight += (long) result.length() * 2;
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,103 @@
+package com.virjar.vscrawler.core.grab;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.virjar.vscrawler.core.processor.GrabResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/10.<br>
+ * 在线抓取的请求合并(single flight)。种子key相同的并发抓取请求,只有第一个请求真正执行抓取,
+ * 其他请求等待第一个请求的结果,所有请求拿到同一个GrabResult(或者同一个异常)。<br>
+ * 只合并同时在途的请求,第一个请求结束之后,后续的请求会重新抓取
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class SingleFlightGrabGroup {
+    private ConcurrentMap<String, SettableFuture<GrabResult>> inFlight = Maps.newConcurrentMap();
+
+    private AtomicLong collapsedCount = new AtomicLong(0);
+
+    /**
+     * 执行抓取,如果已经有相同key的请求在途,则等待在途请求的结果
+     *
+     * @param key          种子key
+     * @param waitMillis   等待在途请求的最长时间, 单位毫秒, 小于等于0代表一直等待
+     * @param grabFunction 真正的抓取逻辑
+     * @return 抓取结果
+     */
+    public GrabResult execute(String key, long waitMillis, Callable<GrabResult> grabFunction) {
+        SettableFuture<GrabResult> future = SettableFuture.create();
+        SettableFuture<GrabResult> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            collapsedCount.incrementAndGet();
+            log.debug("合并在途的抓取请求:{}", key);
+            return await(key, leader, waitMillis);
+        }
+
+        try {
+            GrabResult grabResult = grabFunction.call();
+            future.set(grabResult);
+            return grabResult;
+        } catch (RuntimeException e) {
+            future.setException(e);
+            throw e;
+        } catch (Exception e) {
+            future.setException(e);
+            throw new UncheckedExecutionException(e);
+        } catch (Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private GrabResult await(String key, SettableFuture<GrabResult> leader, long waitMillis) {
+        try {
+            if (waitMillis <= 0) {
+                return leader.get();
+            }
+            return leader.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted when wait for in flight grab:" + key, e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("time out when wait for in flight grab:" + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UncheckedExecutionException(cause);
+        }
+    }
+
+    /**
+     * @return 被合并(没有真正执行抓取)的请求数目
+     */
+    public long collapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * @return 当前在途的抓取请求数目
+     */
+    public int inFlightSize() {
+        return inFlight.size();
+    }
+}
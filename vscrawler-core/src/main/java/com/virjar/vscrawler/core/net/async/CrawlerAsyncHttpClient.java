@@ -0,0 +1,152 @@
+package com.virjar.vscrawler.core.net.async;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.virjar.vscrawler.core.net.proxy.Proxy;
+import com.virjar.vscrawler.core.net.session.CrawlerSession;
+import com.virjar.vscrawler.core.net.useragent.UserAgentBuilder;
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 基于NIO的异步httpclient,少量IO线程即可维持大量同时进行的请求。<br>
+ * 一个session池共享一个实例,每个请求通过HttpClientContext绑定session的cookie和代理路由,
+ * 代理打分逻辑和ProxyFeedBackClientExecChain保持一致
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class CrawlerAsyncHttpClient implements Closeable {
+    static final String CRAWLER_SESSION_KEY = "vscrawler.async.crawlerSession";
+
+    private static final String USER_AGENT_KEY = "vscrawler.async.userAgent";
+
+    private CloseableHttpAsyncClient httpAsyncClient;
+
+    public CrawlerAsyncHttpClient(int maxConnection, int ioThreadNumber, int timeOutMillis) {
+        httpAsyncClient = HttpAsyncClients.custom()
+                .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreadNumber)
+                        .setSoKeepAlive(true).setTcpNoDelay(true).setSoTimeout(timeOutMillis)
+                        .setConnectTimeout(timeOutMillis).build())
+                .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(timeOutMillis)
+                        .setSocketTimeout(timeOutMillis).setConnectionRequestTimeout(timeOutMillis).build())
+                .setRoutePlanner(new SessionRoutePlanner())
+                .setRedirectStrategy(new LaxRedirectStrategy())
+                .setMaxConnTotal(maxConnection).setMaxConnPerRoute(maxConnection)
+                // 和同步httpclient一致,兼容带有非ASCII字符的header
+                .setDefaultConnectionConfig(ConnectionConfig.custom().setCharset(Charsets.UTF_8).build()).build();
+        httpAsyncClient.start();
+    }
+
+    /**
+     * 以session的身份异步执行一个请求,请求的cookie读写session的cookieStore,代理由session的路由器决定
+     *
+     * @param crawlerSession session
+     * @param request        请求
+     * @return 响应结果的future
+     */
+    public ListenableFuture<HttpResponse> execute(CrawlerSession crawlerSession, HttpUriRequest request) {
+        final HttpClientContext httpClientContext = HttpClientContext.create();
+        httpClientContext.setCookieStore(crawlerSession.getCookieStore());
+        httpClientContext.setAttribute(CRAWLER_SESSION_KEY, crawlerSession);
+        if (!request.containsHeader(HttpHeaders.USER_AGENT)) {
+            request.setHeader(HttpHeaders.USER_AGENT, userAgent(crawlerSession));
+        }
+
+        final SettableFuture<HttpResponse> ret = SettableFuture.create();
+        httpAsyncClient.execute(request, httpClientContext, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse result) {
+                feedback(httpClientContext, null);
+                ret.set(result);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                feedback(httpClientContext, ex);
+                ret.setException(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                // 同步请求被中止的时候抛出RequestAbortedException,和ProxyFeedBackClientExecChain一样记为代理失败
+                feedback(httpClientContext, new RequestAbortedException("request cancelled"));
+                ret.cancel(false);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * 异步get请求,返回响应内容
+     *
+     * @param crawlerSession session
+     * @param url            url
+     * @return 响应内容的future, 非2xx响应内容同样返回
+     */
+    public ListenableFuture<String> get(CrawlerSession crawlerSession, String url) {
+        final SettableFuture<String> ret = SettableFuture.create();
+        final ListenableFuture<HttpResponse> responseFuture = execute(crawlerSession, new HttpGet(url));
+        responseFuture.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpEntity entity = responseFuture.get().getEntity();
+                    ret.set(entity == null ? null : EntityUtils.toString(entity, Charsets.UTF_8));
+                } catch (Exception e) {
+                    ret.setException(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return ret;
+    }
+
+    private void feedback(HttpClientContext httpClientContext, Exception exception) {
+        Object proxy = httpClientContext.getAttribute(VSCrawlerConstant.VSCRAWLER_AVPROXY_KEY);
+        if (!(proxy instanceof Proxy)) {
+            return;
+        }
+        ((Proxy) proxy).recordUsage();
+        if (exception instanceof IOException) {
+            ((Proxy) proxy).recordFailed();
+        }
+    }
+
+    private String userAgent(CrawlerSession crawlerSession) {
+        // 同一个session保持相同的ua
+        Object userAgent = crawlerSession.getExtInfo(USER_AGENT_KEY);
+        if (userAgent == null) {
+            userAgent = UserAgentBuilder.randomUserAgent();
+            crawlerSession.setExtInfo(USER_AGENT_KEY, userAgent);
+        }
+        return userAgent.toString();
+    }
+
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(httpAsyncClient);
+    }
+}
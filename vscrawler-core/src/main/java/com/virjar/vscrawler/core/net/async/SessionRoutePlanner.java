@@ -0,0 +1,34 @@
+package com.virjar.vscrawler.core.net.async;
+
+import com.virjar.vscrawler.core.net.session.CrawlerSession;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 异步httpclient被所有session共享,路由决策委托给请求所属session的路由器(即VSCrawlerRoutePlanner),
+ * 保证异步请求和同步请求使用相同的代理策略
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class SessionRoutePlanner implements HttpRoutePlanner {
+    private HttpRoutePlanner defaultRoutePlanner = new DefaultRoutePlanner(null);
+
+    @Override
+    public HttpRoute determineRoute(HttpHost host, HttpRequest request, HttpContext context) throws HttpException {
+        Object crawlerSession = context.getAttribute(CrawlerAsyncHttpClient.CRAWLER_SESSION_KEY);
+        if (crawlerSession instanceof CrawlerSession) {
+            HttpRoutePlanner routePlanner = ((CrawlerSession) crawlerSession).getCrawlerHttpClient().getRoutePlanner();
+            if (routePlanner != null) {
+                return routePlanner.determineRoute(host, request, context);
+            }
+        }
+        return defaultRoutePlanner.determineRoute(host, request, context);
+    }
+}
@@ -11,6 +11,7 @@ import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.execchain.ClientExecChain;
 
 import com.virjar.vscrawler.core.net.proxy.Proxy;
+import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
 import com.virjar.vscrawler.core.util.VSCrawlerConstant;
 
 /**
@@ -34,11 +35,14 @@ public class ProxyFeedBackClientExecChain implements ClientExecChain {
             proxy.recordUsage();
         }
         try {
-            return delegate.execute(route, request, clientContext, execAware);
+            CloseableHttpResponse response = delegate.execute(route, request, clientContext, execAware);
+            VSCrawlerCommonUtil.setDownloadFailed(false);
+            return response;
         } catch (IOException ioe) {
             if (proxy != null) {
                 proxy.recordFailed();
             }
+            VSCrawlerCommonUtil.setDownloadFailed(true);
             throw ioe;
         }
     }
@@ -2,6 +2,7 @@ package com.virjar.vscrawler.core.net.session;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.virjar.dungproxy.client.httpclient.CrawlerHttpClient;
 import com.virjar.dungproxy.client.httpclient.conn.ProxyBindRoutPlanner;
 import com.virjar.vscrawler.core.event.systemevent.SessionDestroyEvent;
@@ -17,7 +18,9 @@ import com.virjar.vscrawler.core.util.VSCrawlerConstant;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 
 import java.util.Map;
@@ -128,6 +131,26 @@ public class CrawlerSession {
 
     }
 
+    /**
+     * 异步get请求,不占用调用线程,cookie和代理策略和同步请求保持一致
+     *
+     * @param url url
+     * @return 响应内容的future
+     */
+    public ListenableFuture<String> getAsync(String url) {
+        return crawlerSessionPool.getCrawlerAsyncHttpClient().get(this, url);
+    }
+
+    /**
+     * 异步执行一个请求,cookie和代理策略和同步请求保持一致
+     *
+     * @param request 请求
+     * @return 响应的future
+     */
+    public ListenableFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+        return crawlerSessionPool.getCrawlerAsyncHttpClient().execute(this, request);
+    }
+
     /**
      * 清空session
      */
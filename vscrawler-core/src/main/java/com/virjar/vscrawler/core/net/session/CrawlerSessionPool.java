@@ -8,12 +8,17 @@ import com.virjar.vscrawler.core.event.systemevent.SessionBorrowEvent;
 import com.virjar.vscrawler.core.event.systemevent.SessionCreateEvent;
 import com.virjar.vscrawler.core.event.systemevent.SessionRecycleEvent;
 import com.virjar.vscrawler.core.net.CrawlerHttpClientGenerator;
+import com.virjar.vscrawler.core.net.async.CrawlerAsyncHttpClient;
 import com.virjar.vscrawler.core.net.proxy.IPPool;
 import com.virjar.vscrawler.core.net.proxy.strategy.ProxyPlanner;
 import com.virjar.vscrawler.core.net.proxy.strategy.ProxyStrategy;
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
@@ -64,6 +69,11 @@ public class CrawlerSessionPool implements CrawlerEndEvent {
     @Getter
     private VSCrawlerContext vsCrawlerContext;
 
+    /**
+     * 所有session共享的异步httpclient,第一次使用的时候创建
+     */
+    private volatile CrawlerAsyncHttpClient crawlerAsyncHttpClient;
+
     public CrawlerSessionPool(VSCrawlerContext vsCrawlerContext, CrawlerHttpClientGenerator crawlerHttpClientGenerator, ProxyStrategy proxyStrategy,
                               IPPool ipPool, ProxyPlanner proxyPlanner, int maxSize, int coreSize, int initialSize, long reuseDuration,
                               long maxOnlineDuration) {
@@ -294,8 +304,27 @@ public class CrawlerSessionPool implements CrawlerEndEvent {
 
     }
 
+    public CrawlerAsyncHttpClient getCrawlerAsyncHttpClient() {
+        if (crawlerAsyncHttpClient != null) {
+            return crawlerAsyncHttpClient;
+        }
+        synchronized (this) {
+            if (crawlerAsyncHttpClient != null) {
+                return crawlerAsyncHttpClient;
+            }
+            Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+            crawlerAsyncHttpClient = new CrawlerAsyncHttpClient(
+                    NumberUtils.toInt(properties.getProperty(VSCrawlerConstant.ASYNC_HTTP_CLIENT_MAX_CONNECTION), 1024),
+                    NumberUtils.toInt(properties.getProperty(VSCrawlerConstant.ASYNC_HTTP_CLIENT_IO_THREAD_NUMBER),
+                            Runtime.getRuntime().availableProcessors()),
+                    NumberUtils.toInt(properties.getProperty(VSCrawlerConstant.ASYNC_HTTP_CLIENT_TIME_OUT), 30000));
+            return crawlerAsyncHttpClient;
+        }
+    }
+
     @Override
     public void crawlerEnd(VSCrawlerContext vsCrawlerContext) {
+        IOUtils.closeQuietly(crawlerAsyncHttpClient);
         sessionDaemonThread.interrupt();
         log.info("关闭所有session....");
         for (SessionHolder crawlerSession : sessionQueue) {
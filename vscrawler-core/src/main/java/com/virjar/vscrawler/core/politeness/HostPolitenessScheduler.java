@@ -0,0 +1,418 @@
+package com.virjar.vscrawler.core.politeness;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.virjar.vscrawler.core.seed.Seed;
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by virjar on 2018/3/3.<br>
+ * host维度的礼貌性调度器,控制单个host的并发数和请求速率。<br>
+ * 种子从seedManager中取出后,如果对应host已经超出预算,那么种子暂存在调度器中,派发线程继续处理下一个种子,
+ * 等待host有空闲额度的时候再从调度器中取出。<br>
+ * 每个host一个暂存队列,存在暂存种子的host处于三种状态之一:下一次允许抓取的时间已经到了的host在就绪环中轮转;
+ * 等待令牌的host按照令牌可用时间放在小顶堆中,到期之后移入就绪环;并发数达到上限的host挂起,worker归还额度的时候唤醒。
+ * 取出一个满足礼貌性约束的种子只需要O(log H),不再扫描所有host。<br>
+ * 暂存队列只在内存中,总数受maxDeferredSeed限制;单个host的暂存数受maxDeferredSeedPerHost限制,达到上限之后派发线程把种子归还种子库,
+ * 暂存空间留给其他host。暂存的种子仍然持有种子库的租约,进程退出之后由租约日志恢复。<br>
+ * pollReady,tryAcquire只能在派发线程调用,release可以在任意worker线程调用
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class HostPolitenessScheduler {
+    public static final String UNKNOWN_HOST = "unknown";
+
+    /**
+     * hostStatus最多返回的host数目
+     */
+    public static final int MAX_HOST_STATUS = 100;
+
+    /**
+     * 清理空闲host状态的间隔
+     */
+    private static final long EVICT_INTERVAL_MILLIS = 60000;
+
+    private ConcurrentMap<String, HostState> hostStates = Maps.newConcurrentMap();
+
+    // 已经可以抓取的host,按照轮转顺序排列,只在派发线程访问
+    private ArrayDeque<HostState> readyHosts = new ArrayDeque<>();
+
+    // 等待令牌的host,按照令牌可用时间排序,只在派发线程访问
+    private PriorityQueue<HostState> delayedHosts = new PriorityQueue<>(16, new Comparator<HostState>() {
+        @Override
+        public int compare(HostState o1, HostState o2) {
+            return Long.compare(o1.readyTime, o2.readyTime);
+        }
+    });
+
+    // 由于并发数挂起之后,被worker归还额度唤醒的host
+    private ConcurrentLinkedQueue<HostState> wakeupHosts = new ConcurrentLinkedQueue<>();
+
+    private AtomicInteger deferredSize = new AtomicInteger(0);
+
+    private volatile HostRule defaultRule = HostRule.UNLIMITED;
+
+    private volatile Map<String, HostRule> hostRules = Collections.emptyMap();
+
+    private volatile int maxDeferredSeed = 4096;
+
+    private volatile int maxDeferredSeedPerHost = 512;
+
+    // 上次清理空闲host的时间,只在派发线程访问
+    private long lastEvictTime = System.currentTimeMillis();
+
+    /**
+     * 从暂存的种子中取出一个已经满足礼貌性约束的种子,同时占用该host的额度
+     *
+     * @return 可以派发的种子, 没有则返回null
+     */
+    public Seed pollReady() {
+        HostState hostState;
+        while ((hostState = wakeupHosts.poll()) != null) {
+            place(hostState);
+        }
+        long now = System.currentTimeMillis();
+        evictIdleHosts(now);
+        while (!delayedHosts.isEmpty() && delayedHosts.peek().readyTime <= now) {
+            readyHosts.addLast(delayedHosts.poll());
+        }
+        // 获取额度失败的host会离开就绪环,所以每个host最多尝试一次
+        for (int i = readyHosts.size(); i > 0; i--) {
+            hostState = readyHosts.pollFirst();
+            if (hostState.deferred.isEmpty()) {
+                hostState.scheduled = false;
+                continue;
+            }
+            if (!hostState.tryAcquire()) {
+                place(hostState);
+                continue;
+            }
+            Seed seed = hostState.pollDeferred();
+            deferredSize.decrementAndGet();
+            // 轮转到队尾,避免一个host一直占据派发机会
+            if (hostState.deferred.isEmpty()) {
+                hostState.scheduled = false;
+            } else {
+                place(hostState);
+            }
+            return seed;
+        }
+        return null;
+    }
+
+    /**
+     * 尝试为种子占用host额度,如果host超出预算,种子会被暂存在调度器中
+     *
+     * @param seed 种子
+     * @return 是否可以立即派发
+     */
+    public boolean tryAcquire(Seed seed) {
+        String host = resolveHost(seed.getData());
+        HostState hostState = getOrCreate(host);
+        // 同一个host的种子保持先后顺序
+        if (hostState.deferred.isEmpty() && hostState.tryAcquire()) {
+            return true;
+        }
+        hostState.defer(seed);
+        deferredSize.incrementAndGet();
+        if (!hostState.scheduled) {
+            hostState.scheduled = true;
+            place(hostState);
+        }
+        return false;
+    }
+
+    /**
+     * 定期清理没有在途种子,没有暂存种子并且令牌已经积满的host,避免抓取过的host状态无限增长。<br>
+     * 只有派发线程会占用额度,在派发线程中判断在途数为0之后,不会再有worker归还这个host的额度,可以安全删除
+     */
+    private void evictIdleHosts(long now) {
+        if (now - lastEvictTime < EVICT_INTERVAL_MILLIS) {
+            return;
+        }
+        lastEvictTime = now;
+        int evicted = 0;
+        Iterator<HostState> iterator = hostStates.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isIdle()) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.info("清理空闲的host状态:{} 剩余:{}", evicted, hostStates.size());
+        }
+    }
+
+    /**
+     * 根据host当前的额度,把host放入就绪环,等待堆,或者挂起等待worker归还额度
+     */
+    private void place(HostState hostState) {
+        HostRule rule = hostState.rule;
+        if (rule.getMaxConcurrent() > 0 && hostState.inFlight.get() >= rule.getMaxConcurrent()) {
+            hostState.suspended.set(true);
+            // 挂起之前worker可能已经归还了额度,这种情况下自己负责唤醒
+            if (hostState.inFlight.get() >= rule.getMaxConcurrent() || !hostState.wakeup()) {
+                return;
+            }
+        }
+        long wait = hostState.tokenBucket.millisUntilAvailable();
+        if (wait <= 0) {
+            readyHosts.addLast(hostState);
+        } else {
+            hostState.readyTime = System.currentTimeMillis() + wait;
+            delayedHosts.add(hostState);
+        }
+    }
+
+    /**
+     * 种子处理结束,归还host额度
+     *
+     * @param seed 种子
+     */
+    public void release(Seed seed) {
+        HostState hostState = hostStates.get(resolveHost(seed.getData()));
+        if (hostState != null) {
+            hostState.inFlight.decrementAndGet();
+            if (hostState.wakeup()) {
+                wakeupHosts.offer(hostState);
+            }
+        }
+    }
+
+    public boolean isDeferredFull() {
+        return deferredSize.get() >= maxDeferredSeed;
+    }
+
+    /**
+     * @return 种子所在host暂存的种子是否已经达到上限,达到上限的时候tryAcquire仍然会暂存种子,调用方需要先检查
+     */
+    public boolean isHostDeferredFull(Seed seed) {
+        HostState hostState = hostStates.get(resolveHost(seed.getData()));
+        return hostState != null && hostState.queued.get() >= maxDeferredSeedPerHost;
+    }
+
+    public int deferredSize() {
+        return deferredSize.get();
+    }
+
+    /**
+     * @return 暂存种子中最早可以派发的等待时间, 单位毫秒。如果所有host都是由于并发数受限,那么返回-1,需要等待worker归还额度
+     */
+    public long millisUntilNextReady() {
+        if (!readyHosts.isEmpty() || !wakeupHosts.isEmpty()) {
+            return 0;
+        }
+        if (delayedHosts.isEmpty()) {
+            return -1;
+        }
+        return Math.max(delayedHosts.peek().readyTime - System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * @return 正在处理和暂存种子最多的host, 最多返回MAX_HOST_STATUS个
+     */
+    public List<HostStatus> hostStatus() {
+        List<HostStatus> ret = Lists.newArrayListWithExpectedSize(hostStates.size());
+        for (Map.Entry<String, HostState> entry : hostStates.entrySet()) {
+            HostState hostState = entry.getValue();
+            HostRule rule = hostState.rule;
+            ret.add(new HostStatus(entry.getKey(), hostState.inFlight.get(), hostState.queued.get(),
+                    rule.getMaxConcurrent(), rule.getQps()));
+        }
+        if (ret.size() <= MAX_HOST_STATUS) {
+            return ret;
+        }
+        Collections.sort(ret, new Comparator<HostStatus>() {
+            @Override
+            public int compare(HostStatus o1, HostStatus o2) {
+                return Integer.compare(o2.getInFlight() + o2.getQueued(), o1.getInFlight() + o1.getQueued());
+            }
+        });
+        return Lists.newArrayList(ret.subList(0, MAX_HOST_STATUS));
+    }
+
+    public void config(Properties properties, String crawlerName) {
+        HostRule newDefaultRule = new HostRule(
+                NumberUtils.toInt(properties.getProperty(
+                        String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_MAX_CONCURRENT_PER_HOST, crawlerName)), 0),
+                NumberUtils.toDouble(properties.getProperty(
+                        String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_QPS_PER_HOST, crawlerName)), 0),
+                NumberUtils.toDouble(properties.getProperty(
+                        String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_BURST_PER_HOST, crawlerName)), 1));
+
+        // vsCrawler.<crawlerName>.politeness.host.<host>.<maxConcurrent|qps|burst>
+        String hostRulePrefix = String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_HOST_RULE_PREFIX, crawlerName);
+        Map<String, Map<String, String>> hostRuleItems = Maps.newHashMap();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(hostRulePrefix)) {
+                continue;
+            }
+            String hostAndItem = key.substring(hostRulePrefix.length());
+            int index = hostAndItem.lastIndexOf('.');
+            if (index <= 0) {
+                continue;
+            }
+            String host = hostAndItem.substring(0, index).toLowerCase();
+            Map<String, String> items = hostRuleItems.get(host);
+            if (items == null) {
+                items = Maps.newHashMap();
+                hostRuleItems.put(host, items);
+            }
+            items.put(hostAndItem.substring(index + 1), properties.getProperty(key));
+        }
+        Map<String, HostRule> newHostRules = Maps.newHashMap();
+        for (Map.Entry<String, Map<String, String>> entry : hostRuleItems.entrySet()) {
+            Map<String, String> items = entry.getValue();
+            newHostRules.put(entry.getKey(), new HostRule(
+                    NumberUtils.toInt(items.get("maxConcurrent"), newDefaultRule.getMaxConcurrent()),
+                    NumberUtils.toDouble(items.get("qps"), newDefaultRule.getQps()),
+                    NumberUtils.toDouble(items.get("burst"), newDefaultRule.getBurst())));
+        }
+
+        maxDeferredSeed = NumberUtils.toInt(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_MAX_DEFERRED_SEED, crawlerName)), 4096);
+        maxDeferredSeedPerHost = NumberUtils.toInt(properties.getProperty(
+                String.format(VSCrawlerConstant.VSCRAWLER_POLITENESS_MAX_DEFERRED_SEED_PER_HOST, crawlerName)), 512);
+        defaultRule = newDefaultRule;
+        hostRules = newHostRules;
+        for (Map.Entry<String, HostState> entry : hostStates.entrySet()) {
+            entry.getValue().applyRule(ruleFor(entry.getKey()));
+        }
+        log.info("host礼貌性规则,默认规则: maxConcurrent:{} qps:{}, 特殊host规则数目:{}", newDefaultRule.getMaxConcurrent(),
+                newDefaultRule.getQps(), newHostRules.size());
+    }
+
+    private HostRule ruleFor(String host) {
+        HostRule hostRule = hostRules.get(host);
+        return hostRule == null ? defaultRule : hostRule;
+    }
+
+    private HostState getOrCreate(String host) {
+        HostState hostState = hostStates.get(host);
+        if (hostState != null) {
+            return hostState;
+        }
+        hostState = new HostState(ruleFor(host));
+        HostState old = hostStates.putIfAbsent(host, hostState);
+        return old == null ? hostState : old;
+    }
+
+    /**
+     * 从种子数据中解析host,不是url的种子统一归为一个host
+     *
+     * @param seedData 种子数据
+     * @return host
+     */
+    public static String resolveHost(String seedData) {
+        if (StringUtils.isEmpty(seedData)) {
+            return UNKNOWN_HOST;
+        }
+        int start = seedData.indexOf("://");
+        if (start <= 0) {
+            return UNKNOWN_HOST;
+        }
+        start += 3;
+        int end = start;
+        while (end < seedData.length()) {
+            char c = seedData.charAt(end);
+            if (c == '/' || c == ':' || c == '?' || c == '#') {
+                break;
+            }
+            end++;
+        }
+        int at = seedData.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        if (end <= start) {
+            return UNKNOWN_HOST;
+        }
+        return seedData.substring(start, end).toLowerCase();
+    }
+
+    private static class HostState {
+        private volatile HostRule rule;
+        private final TokenBucket tokenBucket;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final AtomicInteger queued = new AtomicInteger(0);
+        private final ConcurrentLinkedQueue<Seed> deferred = new ConcurrentLinkedQueue<>();
+        /**
+         * 已经在就绪环,等待堆中或者处于挂起状态,只在派发线程访问
+         */
+        private boolean scheduled = false;
+        /**
+         * 在等待堆中的时候,令牌可用的时间
+         */
+        private long readyTime;
+        /**
+         * 由于并发数达到上限而挂起
+         */
+        private final AtomicBoolean suspended = new AtomicBoolean(false);
+
+        HostState(HostRule rule) {
+            this.rule = rule;
+            this.tokenBucket = new TokenBucket(rule.getQps(), rule.getBurst());
+        }
+
+        void applyRule(HostRule newRule) {
+            rule = newRule;
+            tokenBucket.reset(newRule.getQps(), newRule.getBurst());
+        }
+
+        boolean tryAcquire() {
+            HostRule hostRule = rule;
+            if (hostRule.isUnlimited()) {
+                inFlight.incrementAndGet();
+                return true;
+            }
+            if (hostRule.getMaxConcurrent() > 0 && inFlight.get() >= hostRule.getMaxConcurrent()) {
+                return false;
+            }
+            if (!tokenBucket.tryAcquire()) {
+                return false;
+            }
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * 没有在途种子,没有暂存种子,并且令牌已经积满,删除之后重新创建的状态和当前状态等价
+         */
+        boolean isIdle() {
+            return !scheduled && !suspended.get() && inFlight.get() == 0 && deferred.isEmpty()
+                    && tokenBucket.isFull();
+        }
+
+        /**
+         * 解除挂起,派发线程和worker线程之间只有一方可以成功
+         */
+        boolean wakeup() {
+            return suspended.compareAndSet(true, false);
+        }
+
+        void defer(Seed seed) {
+            deferred.offer(seed);
+            queued.incrementAndGet();
+        }
+
+        Seed pollDeferred() {
+            Seed seed = deferred.poll();
+            if (seed != null) {
+                queued.decrementAndGet();
+            }
+            return seed;
+        }
+    }
+}
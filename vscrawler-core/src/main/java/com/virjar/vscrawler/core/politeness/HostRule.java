@@ -0,0 +1,36 @@
+package com.virjar.vscrawler.core.politeness;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/3.<br>
+ * 单个host的礼貌性规则,小于等于0的值代表不做限制
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+@AllArgsConstructor
+public class HostRule {
+    static final HostRule UNLIMITED = new HostRule(0, 0, 1);
+
+    /**
+     * 同一个host最多同时处理的种子数目
+     */
+    private int maxConcurrent;
+
+    /**
+     * 每秒最多发出的请求数目
+     */
+    private double qps;
+
+    /**
+     * 令牌桶容量,允许的突发请求数目
+     */
+    private double burst;
+
+    boolean isUnlimited() {
+        return maxConcurrent <= 0 && qps <= 0;
+    }
+}
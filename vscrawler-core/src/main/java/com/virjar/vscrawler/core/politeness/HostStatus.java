@@ -0,0 +1,27 @@
+package com.virjar.vscrawler.core.politeness;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/3.<br>
+ * host维度的调度状态快照,用于监控展示
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+@AllArgsConstructor
+public class HostStatus {
+    private String host;
+    /**
+     * 正在处理的种子数目
+     */
+    private int inFlight;
+    /**
+     * 由于超出host预算而暂存在调度器中的种子数目
+     */
+    private int queued;
+    private int maxConcurrent;
+    private double qps;
+}
@@ -0,0 +1,81 @@
+package com.virjar.vscrawler.core.politeness;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by virjar on 2018/3/3.<br>
+ * 令牌桶,控制单个host的请求速率。rate小于等于0代表不限速
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class TokenBucket {
+    private double permitsPerSecond;
+    private double capacity;
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        this.lastRefillNanos = System.nanoTime();
+        reset(permitsPerSecond, capacity);
+    }
+
+    /**
+     * 配置变更的时候调用,已经积累的令牌不会超过新的容量
+     */
+    public synchronized void reset(double permitsPerSecond, double capacity) {
+        refill();
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity < 1 ? 1 : capacity;
+        this.storedPermits = Math.min(storedPermits, this.capacity);
+        if (permitsPerSecond <= 0) {
+            this.storedPermits = this.capacity;
+        }
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (permitsPerSecond <= 0) {
+            return true;
+        }
+        refill();
+        if (storedPermits >= 1) {
+            storedPermits -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 距离下一个令牌可用的时间,单位毫秒
+     */
+    public synchronized long millisUntilAvailable() {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+        refill();
+        if (storedPermits >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - storedPermits) * 1000 / permitsPerSecond);
+    }
+
+    /**
+     * @return 令牌是否已经积满,积满的令牌桶和新建的令牌桶等价
+     */
+    public synchronized boolean isFull() {
+        if (permitsPerSecond <= 0) {
+            return true;
+        }
+        refill();
+        return storedPermits >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (permitsPerSecond > 0) {
+            double newPermits = (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            storedPermits = Math.min(capacity, storedPermits + newPermits);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,25 @@
+package com.virjar.vscrawler.core.processor;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.virjar.vscrawler.core.net.session.CrawlerSession;
+import com.virjar.vscrawler.core.seed.Seed;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 支持异步下载的分阶段处理器。分阶段执行模式下,下载线程只负责发出请求,请求在异步httpclient的IO线程上完成,
+ * 完成之后直接进入抽取阶段,下载线程不会被慢速服务器占用。<br>
+ * 异步请求结束之前session不会被归还
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public interface AsyncStagedSeedProcessor extends StagedSeedProcessor {
+    /**
+     * 异步下载阶段
+     *
+     * @param seed           种子
+     * @param crawlerSession session
+     * @return 下载内容的future, 返回null代表当前种子不支持异步下载, 在下载线程中调用download同步下载
+     */
+    ListenableFuture<String> downloadAsync(Seed seed, CrawlerSession crawlerSession);
+}
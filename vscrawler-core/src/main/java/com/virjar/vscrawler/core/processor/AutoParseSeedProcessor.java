@@ -1,5 +1,7 @@
 package com.virjar.vscrawler.core.processor;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.virjar.vscrawler.core.net.session.CrawlerSession;
 import com.virjar.vscrawler.core.seed.Seed;
 import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
@@ -15,19 +17,48 @@ import java.net.URL;
  * @since 0.0.1
  */
 @Slf4j
-public abstract class AutoParseSeedProcessor implements SeedProcessor {
+public abstract class AutoParseSeedProcessor implements AsyncStagedSeedProcessor {
 
     @Override
     public void process(Seed seed, CrawlerSession crawlerSession, GrabResult crawlResult) {
-        URL url;
+        URL url = toURL(seed);
+        if (url == null) {
+            return;
+        }
+        parse(seed, download(crawlerSession, url), crawlResult);
+    }
+
+    @Override
+    public String download(Seed seed, CrawlerSession crawlerSession) {
+        URL url = toURL(seed);
+        if (url == null) {
+            return null;
+        }
+        return download(crawlerSession, url);
+    }
+
+    @Override
+    public ListenableFuture<String> downloadAsync(Seed seed, CrawlerSession crawlerSession) {
+        URL url = toURL(seed);
+        if (url == null) {
+            return Futures.immediateFuture(null);
+        }
+        return downloadAsync(crawlerSession, url);
+    }
+
+    @Override
+    public void extract(Seed seed, String content, GrabResult grabResult) {
+        parse(seed, content, grabResult);
+    }
+
+    private URL toURL(Seed seed) {
         try {
-            url = new URL(seed.getData());
+            return new URL(seed.getData());
         } catch (MalformedURLException e) {
             log.warn("this seed is not a url:{}", seed.getData(), e);
             seed.setIgnore(true);
-            return;
+            return null;
         }
-        parse(seed, download(crawlerSession, url), crawlResult);
     }
 
     protected abstract void parse(Seed seed, String result, GrabResult crawlResult);
@@ -43,6 +74,19 @@ public abstract class AutoParseSeedProcessor implements SeedProcessor {
         return crawlerSession.getCrawlerHttpClient().get(url.toString());
     }
 
+    /**
+     * 异步下载,不阻塞调用线程,只在分阶段执行模式下使用。默认返回null,使用download同步下载,
+     * 避免覆盖了download的子类在分阶段模式下被绕过。子类可以覆盖本方法开启异步下载,如:
+     * return crawlerSession.getAsync(url.toString());
+     *
+     * @param crawlerSession session
+     * @param url            链接
+     * @return 下载结果的future, null代表同步下载
+     */
+    protected ListenableFuture<String> downloadAsync(CrawlerSession crawlerSession, URL url) {
+        return null;
+    }
+
     public CrawlerSession getCrawlerSession() {
         return VSCrawlerCommonUtil.crawlerSessionInThread();
     }
@@ -58,6 +58,22 @@ public class CrawlResult {
         newSeeds.add(new Seed(seed));
     }
 
+    /**
+     * @param seed     种子数据
+     * @param priority 种子优先级,值越大越优先
+     */
+    public void addSeed(String seed, int priority) {
+        Seed newSeed = new Seed(seed);
+        newSeed.setPriority(priority);
+        newSeeds.add(newSeed);
+    }
+
+    public void addStrSeeds(Collection<String> seeds, int priority) {
+        for (String str : seeds) {
+            addSeed(str, priority);
+        }
+    }
+
     public List<Seed> allSeed() {
         return Lists.newArrayList(newSeeds);
     }
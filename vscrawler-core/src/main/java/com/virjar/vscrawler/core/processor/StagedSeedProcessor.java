@@ -0,0 +1,32 @@
+package com.virjar.vscrawler.core.processor;
+
+import com.virjar.vscrawler.core.net.session.CrawlerSession;
+import com.virjar.vscrawler.core.seed.Seed;
+
+/**
+ * Created by virjar on 2018/3/6.<br>
+ * 支持分阶段执行的种子处理器,下载和抽取拆分为两个步骤,在分阶段执行模式(ExecutorStrategy.STAGED)下分别运行在IO线程池和CPU线程池上。<br>
+ * 请注意,抽取阶段运行的时候session已经被归还,抽取逻辑不应该再使用session发送请求
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public interface StagedSeedProcessor extends SeedProcessor {
+    /**
+     * 下载阶段
+     *
+     * @param seed           种子
+     * @param crawlerSession session
+     * @return 下载内容, 如果不需要进入抽取阶段, 设置seed.setIgnore(true)
+     */
+    String download(Seed seed, CrawlerSession crawlerSession);
+
+    /**
+     * 抽取阶段
+     *
+     * @param seed       种子
+     * @param content    下载内容
+     * @param grabResult 抽取结果
+     */
+    void extract(Seed seed, String content, GrabResult grabResult);
+}
@@ -1,33 +1,47 @@
 package com.virjar.vscrawler.core.seed;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.collect.*;
-import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
+import com.google.common.hash.Hashing;
 import com.google.common.hash.PrimitiveSink;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.sleepycat.je.*;
+import com.virjar.dungproxy.client.ningclient.concurrent.NamedThreadFactory;
 import com.virjar.vscrawler.core.VSCrawlerContext;
 import com.virjar.vscrawler.core.event.systemevent.CrawlerConfigChangeEvent;
 import com.virjar.vscrawler.core.event.systemevent.CrawlerEndEvent;
 import com.virjar.vscrawler.core.event.systemevent.FirstSeedPushEvent;
 import com.virjar.vscrawler.core.event.systemevent.NewSeedArrivalEvent;
-import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
+import com.virjar.vscrawler.core.politeness.HostPolitenessScheduler;
 import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by virjar on 17/5/14. <br/>
@@ -39,57 +53,156 @@ import java.util.concurrent.locks.ReentrantLock;
 @Slf4j
 public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedArrivalEvent, CrawlerEndEvent {
 
-    private Environment env;
+    /**
+     * 种子库分片,元数据,段表和统计数据存储在第0个分片中
+     */
+    private SeedShard[] shards;
+
+    /**
+     * 按照host分片,同一个host的种子在同一个分片中;否则按照种子key分片
+     */
+    private boolean shardByHost = true;
 
-    private String dbFilePath;
+    private AtomicInteger shardPollIndex = new AtomicInteger(0);
 
     private InitSeedSource initSeedSource;
 
+    @Getter
     private SeedKeyResolver seedKeyResolver;
 
     private SegmentResolver segmentResolver;
 
-    private Map<String, BloomFilter<Seed>> bloomFilters = Maps.newConcurrentMap();
-
-    private DatabaseConfig databaseConfig;
-
+    private Map<String, PersistentBloomFilter<Seed>> bloomFilters = Maps.newConcurrentMap();
+    private final Funnel<Seed> seedFunnel = new Funnel<Seed>() {
+        @Override
+        public void funnel(Seed from, PrimitiveSink into) {
+            into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
+        }
+    };
 
     private AtomicBoolean isSeedEmpty = new AtomicBoolean(false);
 
-    // 内部cache,数据加载到内存,以对象的方式存储,避免db操作带来锁的压力
-    private ConcurrentLinkedQueue<Seed> ramCache = new ConcurrentLinkedQueue<>();
+    // 已经存在种子的优先级,降序排列,用于决定加载和消重需要访问哪些优先级分桶
+    private ConcurrentSkipListSet<Integer> usedPriorities = new ConcurrentSkipListSet<>(
+            Collections.reverseOrder());
     // 所有正在处理的种子
-    private Map<String, Seed> runningSeeds = Maps.newConcurrentMap();
+    private RunningSeedTable runningSeeds = new RunningSeedTable();
+    /**
+     * 种子出入内存和写回种子库持有读锁,清空种子库持有写锁。清空之后,清空之前取出的种子不再有租约,处理结果被丢弃
+     */
+    private ReentrantReadWriteLock clearLock = new ReentrantReadWriteLock();
+    // 处理失败等待重试的种子,退避时间到期之后才能被重新派发
+    @Getter
+    private RetryScheduler retryScheduler = new RetryScheduler();
     private volatile boolean isClosed = false;
     private ReentrantLock dbLock = new ReentrantLock();
     private Condition dbRelease = dbLock.newCondition();
     private volatile int dbOperator = 0;
     private int cacheSize;
     private VSCrawlerContext vsCrawlerContext;
-    private ConcurrentMap<String, Database> openedDataBase = Maps.newConcurrentMap();
+    /**
+     * 每个批次写入之后是否fsync,否则只保证写入操作系统缓冲区
+     */
+    private boolean groupCommitFsync = false;
     /**
      * 段信息
      */
-    private TreeSet<Long> allSegments = Sets.newTreeSet();
-    private TreeSet<Long> runningSegments = Sets.newTreeSet();
+    private ConcurrentSkipListSet<Long> allSegments = new ConcurrentSkipListSet<>();
+    /**
+     * 未来生效的种子存储在各个分片的时间轮中,由后台线程推进,到期之后转移到运行库
+     */
+    private ScheduledExecutorService timingWheelTicker;
+    /**
+     * 内存缓存的水位,所有分片共享,每个分片按照分片数目平分。
+     * 分片的缓存低于低水位的时候,分片自己的加载线程在后台补充到高水位,pool不等待加载。<br>
+     * 分片的运行库写入版本每次写入递增,上一次加载没有填满缓存并且之后没有新的写入,说明运行库已经空了,不需要反复扫描
+     */
+    private CacheWatermark watermark;
+    /**
+     * 打开完成索引和创建布隆过滤器按照名字分段加锁,不同段之间互不阻塞
+     */
+    private Striped<Lock> databaseOpenLocks = Striped.lock(32);
+    private Striped<Lock> bloomFilterLocks = Striped.lock(32);
+    /**
+     * 种子库主键编码,主键模式在种子库创建的时候确定,之后不再改变
+     */
+    private SeedKeyEncoder seedKeyEncoder;
+    /**
+     * 完成种子的消重索引,只保存种子指纹
+     */
+    private Map<String, FinishedSeedIndex> finishedIndexes = Maps.newConcurrentMap();
+    /**
+     * 种子数目统计,查询的时候不再遍历db
+     */
+    private FrontierStatistics statistics;
+    /**
+     * 正在执行的批量导入
+     */
+    private Set<BulkSeedImporter> bulkImporters = Sets.newConcurrentHashSet();
     ////////// 以下为常量数据
     /**
      * 段表
      */
     private static final String SEGMENT = "SEGMENT_TABLE";
 
+    /**
+     * 种子库元数据表,记录主键模式
+     */
+    static final String STORE_META = "STORE_META";
+
+    static final String META_KEY_MODE = "seedKeyMode";
+
+    static final String META_SHARD_COUNT = "shardCount";
+
+    static final String META_SHARD_BY = "shardBy";
+
+    static final String DB_DIRECTORY = "berkeleyDB";
+
+    static final String FINISHED_INDEX_DIRECTORY = "finishedIndex";
+
+    static final String BULK_IMPORT_DIRECTORY = "bulkImport";
+
+    /**
+     * 租约日志在各个分片目录下的位置
+     */
+    static final String LEASE_LOG_DIRECTORY = "leaseLog";
+
     private static final String RUNNING_SEGMENT_PREFIX = "RUNNING_SEGMENT_PREFIX_";
 
-    private static final String FINISHED_SEGMENT_PREFIX = "FINISHED_SEGMENT_PREFIX_";
+    /**
+     * 老版本的完成库,启动的时候迁移到完成种子索引
+     */
+    static final String FINISHED_SEGMENT_PREFIX = "FINISHED_SEGMENT_PREFIX_";
+
+    /**
+     * 优先级分桶后缀,默认优先级的种子仍然存储在原来的库中,保证对老数据的兼容
+     */
+    private static final String PRIORITY_SUFFIX = "_P";
 
     private static final String defaultSegment = "defaultSegment";
 
+    private static final long DEFAULT_BLOOM_INITIAL_CAPACITY = 100000L;
+
+    private static final double DEFAULT_BLOOM_FPP = 0.03;
+
+    private static final double DEFAULT_BLOOM_GROWTH_FACTOR = 2;
+
+    private static final double DEFAULT_BLOOM_TIGHTENING_RATIO = 0.85;
+
+    /**
+     * 运行库已经空了的时候,两次扫描之间的最小间隔,用于发现新到期的时间段
+     */
+    private static final long EXHAUSTED_RESCAN_MILLIS = 1000;
+
     /**
      * 这个方法和pool必须在同一个线程里面
      */
     public void init() {
         // 移植初始种子信息
         migrateInitSeed();
+        for (SeedShard shard : shards) {
+            triggerCacheLoad(shard);
+        }
     }
 
     public BerkeleyDBSeedManager(final VSCrawlerContext vsCrawlerContext, InitSeedSource initSeedSource, SeedKeyResolver seedKeyResolver,
@@ -99,15 +212,50 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
         this.seedKeyResolver = seedKeyResolver;
         this.segmentResolver = segmentResolver;
         this.cacheSize = cacheSize;
-        // 配置数据库环境
+        this.watermark = new CacheWatermark(cacheSize);
+        // 配置数据库环境,元数据在第0个分片中
         configEnv();
 
+        // 主键模式,需要在创建种子库之前确定
+        seedKeyEncoder = new SeedKeyEncoder(resolveKeyMode());
+
+        // 打开其他分片
+        openShards();
+
         // 初始化分段数据库
         loadSegments();
 
+        // 老版本的完成库迁移到完成种子索引
+        migrateFinishedDatabase();
+
+        // 还原优先级分桶信息
+        loadPriorities();
+
+        // 还原统计数据,上次异常退出的时候重建
+        statistics = new FrontierStatistics(metaShard().createOrGetDataBase(STORE_META));
+        if (!statistics.load()) {
+            rebuildStatistics();
+        }
+
+        // 上次退出时还没有完成的种子重新入库
+        recoverLeasedSeeds();
+
         // 布隆过滤器数据还原
         buildBloomFilterInfo();
 
+        // 启动种子写入线程
+        startSeedWriter();
+
+        retryScheduler.config(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties());
+        watermark.config(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties(), cacheSize);
+
+        startTimingWheelTicker();
+
+        for (SeedShard shard : shards) {
+            shard.seedLoader = Executors
+                    .newSingleThreadExecutor(new NamedThreadFactory("VSCrawlerSeedLoader-" + shard.getIndex(), true));
+        }
+
         // 监听消息
         vsCrawlerContext.getAutoEventRegistry().registerObserver(this);
 
@@ -120,7 +268,7 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
     }
 
     private void loadSegments() {
-        Database iteratorDatabases = createOrGetDataBase(SEGMENT);// env.openDatabase(null, SEGMENT, databaseConfig);
+        Database iteratorDatabases = metaShard().createOrGetDataBase(SEGMENT);// env.openDatabase(null, SEGMENT, databaseConfig);
         Cursor cursor = iteratorDatabases.openCursor(null, CursorConfig.DEFAULT);
         DatabaseEntry iteratorKey = new DatabaseEntry();
         DatabaseEntry iteratorValue = new DatabaseEntry();
@@ -129,23 +277,450 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
             while (cursor.getNext(iteratorKey, iteratorValue, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
                 String segmentName = new String(iteratorValue.getData());
                 allSegments.add(Long.parseLong(segmentName));
-                runningSegments.add(Long.parseLong(segmentName));
             }
         } finally {
             IOUtils.closeQuietly(cursor);
             // IOUtils.closeQuietly(iteratorDatabases);
         }
+
+        // 只有存在运行库的段才需要扫描,时间轮管理的段只用于消重
+        for (SeedShard shard : shards) {
+            List<String> databaseNames = shard.databaseNames();
+            for (Long segment : allSegments) {
+                for (String databaseName : databaseNames) {
+                    if (databaseName.startsWith(RUNNING_SEGMENT_PREFIX + segment)) {
+                        shard.runningSegments.add(segment);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 新建的种子库使用配置的主键模式,并记录在元数据表中;已经存在的种子库沿用创建时的模式,
+     * 没有元数据的老版本种子库只能使用字符串主键
+     */
+    private int resolveKeyMode() {
+        int configMode = SeedKeyEncoder.parseMode(StringUtils.trimToNull(VSCrawlerContext.vsCrawlerConfigFileWatcher
+                .loadedProperties().getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_FINGERPRINT_KEY)));
+        Database metaDatabase = metaShard().createOrGetDataBase(STORE_META);
+        DatabaseEntry key = new DatabaseEntry(META_KEY_MODE.getBytes());
+        DatabaseEntry value = new DatabaseEntry();
+        if (metaDatabase.get(null, key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+            int mode = NumberUtils.toInt(new String(value.getData()), SeedKeyEncoder.MODE_STRING);
+            if (mode != configMode) {
+                log.warn("种子库已经使用主键模式:{},忽略配置的主键模式:{}", mode, configMode);
+            }
+            return mode;
+        }
+        int mode = configMode;
+        for (String databaseName : metaShard().databaseNames()) {
+            if (databaseName.startsWith(RUNNING_SEGMENT_PREFIX) || databaseName.startsWith(FINISHED_SEGMENT_PREFIX)) {
+                if (mode != SeedKeyEncoder.MODE_STRING) {
+                    log.warn("种子库中已经存在字符串主键的数据,不能开启指纹主键");
+                }
+                mode = SeedKeyEncoder.MODE_STRING;
+                break;
+            }
+        }
+        metaDatabase.put(null, key, new DatabaseEntry(String.valueOf(mode).getBytes()));
+        return mode;
+    }
+
+    /**
+     * 新建的种子库按照配置的分片数目和分片方式创建分片,并记录在元数据表中;已经存在的种子库沿用创建时的分片,
+     * 种子按照分片哈希存储,分片数目改变之后无法定位到原来的种子。没有分片信息的老版本种子库,如果已经存在种子,那么只能使用一个分片
+     */
+    private void openShards() {
+        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+        int configCount = Math.max(
+                NumberUtils.toInt(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_SHARD_COUNT), 1), 1);
+        String configShardBy = StringUtils.equalsIgnoreCase(
+                StringUtils.trimToNull(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_SHARD_BY)),
+                "key") ? "key" : "host";
+
+        Database metaDatabase = metaShard().createOrGetDataBase(STORE_META);
+        DatabaseEntry countKey = new DatabaseEntry(META_SHARD_COUNT.getBytes());
+        DatabaseEntry shardByKey = new DatabaseEntry(META_SHARD_BY.getBytes());
+        DatabaseEntry value = new DatabaseEntry();
+        int shardCount;
+        String shardBy;
+        if (metaDatabase.get(null, countKey, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+            shardCount = Math.max(NumberUtils.toInt(new String(value.getData()), 1), 1);
+            shardBy = metaDatabase.get(null, shardByKey, value, LockMode.DEFAULT) == OperationStatus.SUCCESS
+                    ? new String(value.getData()) : "host";
+            if (shardCount != configCount || !StringUtils.equals(shardBy, configShardBy)) {
+                log.warn("种子库已经按照{}分为{}个分片,忽略配置的分片:{} {}", shardBy, shardCount, configShardBy, configCount);
+            }
+        } else {
+            shardCount = configCount;
+            shardBy = configShardBy;
+            if (shardCount > 1 && hasLegacySeed()) {
+                log.warn("种子库中已经存在没有分片的种子,不能开启分片");
+                shardCount = 1;
+            }
+            metaDatabase.put(null, countKey, new DatabaseEntry(String.valueOf(shardCount).getBytes()));
+            metaDatabase.put(null, shardByKey, new DatabaseEntry(shardBy.getBytes()));
+        }
+        shardByHost = "host".equals(shardBy);
+
+        String[] directories = StringUtils.split(StringUtils.trimToEmpty(
+                properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_SHARD_DIRECTORIES)), ',');
+        SeedShard[] newShards = new SeedShard[shardCount];
+        newShards[0] = metaShard();
+        for (int i = 1; i < shardCount; i++) {
+            newShards[i] = SeedShard.open(i, shardDirectory(i, directories));
+        }
+        shards = newShards;
+        if (shardCount > 1) {
+            log.info("种子库分片数目:{} 分片方式:{}", shardCount, shardBy);
+        }
+    }
+
+    /**
+     * 第0个分片固定在工作目录的berkeleyDB下,其他分片依次使用配置的目录,没有配置的分片放在工作目录下
+     */
+    private File shardDirectory(int index, String[] directories) {
+        if (index <= directories.length) {
+            File directory = new File(StringUtils.trim(directories[index - 1]));
+            if (!directory.isAbsolute()) {
+                directory = new File(vsCrawlerContext.getWorkPath(), directory.getPath());
+            }
+            return directory;
+        }
+        return new File(vsCrawlerContext.getWorkPath(), DB_DIRECTORY + "_" + index);
+    }
+
+    private boolean hasLegacySeed() {
+        SeedShard metaShard = metaShard();
+        if (metaShard.timingWheel.count() > 0) {
+            return true;
+        }
+        for (String databaseName : metaShard.databaseNames()) {
+            if (databaseName.startsWith(RUNNING_SEGMENT_PREFIX)
+                    && metaShard.createOrGetDataBase(databaseName).count() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SeedShard metaShard() {
+        return shards[0];
+    }
+
+    /**
+     * @return 种子所在的分片, 同一个种子总是在同一个分片中
+     */
+    private SeedShard shardOf(Seed seed) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        String partitionKey = null;
+        if (shardByHost) {
+            partitionKey = HostPolitenessScheduler.resolveHost(seed.getData());
+            if (HostPolitenessScheduler.UNKNOWN_HOST.equals(partitionKey)) {
+                // 不是url的种子按照种子key分散,避免全部落入同一个分片
+                partitionKey = null;
+            }
+        }
+        if (partitionKey == null) {
+            partitionKey = seedKeyResolver.resolveSeedKey(seed);
+        }
+        int hash = Hashing.murmur3_32().hashString(partitionKey, Charsets.UTF_8).asInt();
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private void migrateFinishedDatabase() {
+        try {
+            long migrated = FinishedSeedIndexMigrator.migrate(metaShard().getEnv(), finishedIndexDirectory(),
+                    seedKeyEncoder, seedKeyResolver);
+            if (migrated > 0) {
+                log.info("完成库迁移到完成种子索引,种子数目:{}", migrated);
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("完成库迁移失败", ioe);
+        }
+    }
+
+    private File finishedIndexDirectory() {
+        return new File(vsCrawlerContext.getWorkPath(), FINISHED_INDEX_DIRECTORY);
+    }
+
+    private FinishedSeedIndex finishedIndex(String segment) {
+        FinishedSeedIndex finishedSeedIndex = finishedIndexes.get(segment);
+        if (finishedSeedIndex != null) {
+            return finishedSeedIndex;
+        }
+        Lock lock = databaseOpenLocks.get(FINISHED_INDEX_DIRECTORY + segment);
+        lock.lock();
+        try {
+            finishedSeedIndex = finishedIndexes.get(segment);
+            if (finishedSeedIndex != null) {
+                return finishedSeedIndex;
+            }
+            finishedSeedIndex = FinishedSeedIndex.open(finishedIndexDirectory(), segment);
+            finishedIndexes.put(segment, finishedSeedIndex);
+            return finishedSeedIndex;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("不能打开完成种子索引,段:" + segment, ioe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markFinished(Seed seed, String segment) {
+        try {
+            finishedIndex(segment).add(SeedKeyEncoder.fingerprint128(seedKeyResolver.resolveSeedKey(seed)));
+        } catch (IOException ioe) {
+            throw new IllegalStateException("完成种子索引写入失败,段:" + segment, ioe);
+        }
+    }
+
+    private void flushFinishedIndexes(boolean fsync) {
+        for (FinishedSeedIndex finishedSeedIndex : finishedIndexes.values()) {
+            try {
+                finishedSeedIndex.flush(fsync);
+            } catch (IOException ioe) {
+                log.warn("完成种子索引刷盘失败", ioe);
+            }
+        }
+    }
+
+    private void closeFinishedIndexes() {
+        for (String segment : finishedIndexes.keySet()) {
+            try {
+                finishedIndexes.remove(segment).close();
+            } catch (IOException ioe) {
+                log.warn("关闭完成种子索引失败,段:{}", segment, ioe);
+            }
+        }
+    }
+
+    /**
+     * @return 种子在种子库中的主键
+     */
+    private byte[] storeKey(Seed seed) {
+        return seedKeyEncoder.encode(seedKeyResolver.resolveSeedKey(seed), seed.isKeyOverflow());
+    }
+
+    /**
+     * 扫描运行库,时间轮和完成索引重建统计数据,只在恢复的时候执行
+     */
+    private void rebuildStatistics() {
+        log.info("种子库上次没有正常关闭,重建种子统计数据...");
+        long startTimeStamp = System.currentTimeMillis();
+        statistics.reset();
+        for (SeedShard shard : shards) {
+            rebuildStatistics(shard);
+        }
+        statistics.addFinished(defaultSegment, finishedIndex(defaultSegment).count());
+        for (Long segment : allSegments) {
+            statistics.addFinished(String.valueOf(segment), finishedIndex(String.valueOf(segment)).count());
+        }
+        statistics.checkpoint(true);
+        log.info("种子统计数据重建完成,耗时:{}毫秒", System.currentTimeMillis() - startTimeStamp);
+    }
+
+    private void rebuildStatistics(SeedShard shard) {
+        for (String databaseName : shard.databaseNames()) {
+            if (!databaseName.startsWith(RUNNING_SEGMENT_PREFIX)) {
+                continue;
+            }
+            String segment = databaseName.substring(RUNNING_SEGMENT_PREFIX.length());
+            int index = segment.lastIndexOf(PRIORITY_SUFFIX);
+            if (index > 0) {
+                segment = segment.substring(0, index);
+            }
+            Cursor cursor = shard.createOrGetDataBase(databaseName).openCursor(null, CursorConfig.DEFAULT);
+            try {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry value = new DatabaseEntry();
+                while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                    Seed seed = SeedCodec.decode(value.getData());
+                    statistics.onStore(seed.getSegmentKey() == null ? segment : seed.getSegmentKey(), seed);
+                }
+            } finally {
+                IOUtils.closeQuietly(cursor);
+            }
+        }
+        shard.timingWheel.forEach(new TimingWheelSeedStore.SeedDataVisitor() {
+            @Override
+            public void visit(byte[] seedData) {
+                Seed seed = SeedCodec.decode(seedData);
+                statistics.onStore(seed.getSegmentKey(), seed);
+            }
+        });
+    }
+
+    private void loadPriorities() {
+        usedPriorities.add(Seed.DEFAULT_PRIORITY);
+        for (SeedShard shard : shards) {
+            for (String databaseName : shard.databaseNames()) {
+                if (!databaseName.startsWith(RUNNING_SEGMENT_PREFIX)) {
+                    continue;
+                }
+                int index = databaseName.lastIndexOf(PRIORITY_SUFFIX);
+                if (index <= RUNNING_SEGMENT_PREFIX.length()) {
+                    continue;
+                }
+                int priority = NumberUtils.toInt(databaseName.substring(index + PRIORITY_SUFFIX.length()), -1);
+                if (priority > Seed.DEFAULT_PRIORITY && priority <= Seed.MAX_PRIORITY) {
+                    usedPriorities.add(priority);
+                }
+            }
+        }
+    }
+
+    /**
+     * 种子重新写回运行库时使用的段,时间轮中转移出来的种子统一写入默认段的运行库,避免重新产生需要扫描的时间段
+     */
+    private String runningSegmentOf(SeedShard shard, Seed seed) {
+        String segment = seed.getSegmentKey();
+        if (StringUtils.equals(segment, defaultSegment) || segment == null) {
+            return defaultSegment;
+        }
+        if (shard.runningSegments.contains(NumberUtils.toLong(segment))) {
+            return segment;
+        }
+        return defaultSegment;
+    }
+
+    private void startTimingWheelTicker() {
+        timingWheelTicker = Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory("VSCrawlerTimingWheel", true));
+        timingWheelTicker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (SeedShard shard : shards) {
+                    try {
+                        promoteDueSeeds(shard);
+                    } catch (Exception e) {
+                        log.error("推进时间轮失败,分片:{}", shard.getIndex(), e);
+                    }
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        long bloomFlushInterval = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
+                .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BLOOM_FLUSH_INTERVAL_MILLIS), 5000L);
+        timingWheelTicker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushBloomFilters();
+            }
+        }, bloomFlushInterval, Math.max(bloomFlushInterval, 100), TimeUnit.MILLISECONDS);
+
+        long checkpointInterval = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
+                .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_STATISTICS_CHECKPOINT_INTERVAL_MILLIS), 5000L);
+        timingWheelTicker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkpointStatistics();
+            }
+        }, checkpointInterval, Math.max(checkpointInterval, 100), TimeUnit.MILLISECONDS);
+
+        long leaseLogFlushInterval = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
+                .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_LEASE_LOG_FLUSH_INTERVAL_MILLIS), 1000L);
+        timingWheelTicker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushLeaseLogs();
+            }
+        }, leaseLogFlushInterval, Math.max(leaseLogFlushInterval, 100), TimeUnit.MILLISECONDS);
+    }
+
+    private void checkpointStatistics() {
+        if (isClosed) {
+            return;
+        }
+        try {
+            lockDBOperate();
+            if (!isClosed) {
+                statistics.checkpoint(false);
+            }
+        } catch (Exception e) {
+            log.error("种子统计数据写入检查点失败", e);
+        } finally {
+            unlockDBOperate();
+        }
+    }
+
+    /**
+     * 推进时间轮,把到期的种子转移到默认段的运行库中,等待派发线程加载。种子先写入运行库,再从时间轮中删除
+     */
+    private void promoteDueSeeds(final SeedShard shard) {
+        if (isClosed) {
+            return;
+        }
+        final Seed[] firstSeed = new Seed[1];
+        int promoted;
+        try {
+            lockDBOperate();
+            if (isClosed) {
+                return;
+            }
+            promoted = shard.timingWheel.advance(System.currentTimeMillis(),
+                    new TimingWheelSeedStore.SeedDataVisitor() {
+                        @Override
+                        public void visit(byte[] seedData) {
+                            Seed seed = SeedCodec.decode(seedData);
+                            DatabaseEntry key = new DatabaseEntry(storeKey(seed));
+                            shard.createOrGetDataBase(runningDatabaseName(defaultSegment, seed.getPriority()))
+                                    .put(null, key, new DatabaseEntry(seedData));
+                            onRunningSeedWrite(shard, seed.getPriority());
+                            if (firstSeed[0] == null) {
+                                firstSeed[0] = seed;
+                            }
+                        }
+                    });
+        } finally {
+            unlockDBOperate();
+        }
+        if (promoted == 0) {
+            return;
+        }
+        log.info("时间轮到期种子数量:{}", promoted);
+        if (isSeedEmpty.compareAndSet(true, false)) {
+            vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(FirstSeedPushEvent.class)
+                    .firstSeed(vsCrawlerContext, firstSeed[0]);
+        }
+    }
+
+    private static String runningDatabaseName(String segment, int priority) {
+        if (priority <= Seed.DEFAULT_PRIORITY) {
+            return RUNNING_SEGMENT_PREFIX + segment;
+        }
+        return RUNNING_SEGMENT_PREFIX + segment + PRIORITY_SUFFIX + priority;
+    }
+
+    /**
+     * 种子写入了运行库,如果优先级高于内存缓存,那么通知派发线程提前加载
+     */
+    private void onRunningSeedWrite(SeedShard shard, int priority) {
+        shard.runningWriteVersion.incrementAndGet();
+        if (priority <= Seed.DEFAULT_PRIORITY) {
+            return;
+        }
+        usedPriorities.add(priority);
+        while (true) {
+            int pending = shard.pendingHighPriority.get();
+            if (pending >= priority || shard.pendingHighPriority.compareAndSet(pending, priority)) {
+                return;
+            }
+        }
     }
 
-    private synchronized void loadCache() {
+    private void loadCache(SeedShard shard, int limit) {
         // step one ,attempt load default segment
-        loadCache(defaultSegment);
-        if (ramCache.size() >= cacheSize) {
+        loadCache(shard, defaultSegment, limit);
+        if (shard.ramCache.size() >= limit) {
             return;
         }
 
         // step two ,attempt to load time segment
-        Iterator<Long> iterator = runningSegments.iterator();
+        Iterator<Long> iterator = shard.runningSegments.iterator();
         while (iterator.hasNext()) {
             Long activeTimeStamp = iterator.next();
 
@@ -153,89 +728,276 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
             if (activeTimeStamp > System.currentTimeMillis()) {
                 return;
             }
-            if (loadCache(String.valueOf(activeTimeStamp)) == 0) {
+            if (loadCache(shard, String.valueOf(activeTimeStamp), limit) == 0) {
                 iterator.remove();
             }
-            if (ramCache.size() >= cacheSize) {
+            if (shard.ramCache.size() >= limit) {
                 return;
             }
         }
     }
 
-    private Database createOrGetDataBase(String key) {
-        if (openedDataBase.containsKey(key)) {
-            return openedDataBase.get(key);
-        }
-        synchronized (this) {
-            if (openedDataBase.containsKey(key)) {
-                return openedDataBase.get(key);
-            }
-            Database database = env.openDatabase(null, key, databaseConfig);
-            openedDataBase.put(key, database);
-            return database;
-        }
+    private int loadCache(SeedShard shard, String segmentName, int limit) {
+        return loadCache(shard, segmentName, Seed.DEFAULT_PRIORITY, limit);
     }
 
-    private void closeAllDatabase() {
-        for (String databaseName : openedDataBase.keySet()) {
-            IOUtils.closeQuietly(openedDataBase.remove(databaseName));
+    /**
+     * 按照优先级从高到低加载一个段的种子
+     *
+     * @param segmentName 段
+     * @param minPriority 需要加载的最低优先级
+     * @param limit       内存缓存达到这个数目之后停止加载
+     * @return 从运行库中取出的种子数目
+     */
+    private int loadCache(SeedShard shard, String segmentName, int minPriority, int limit) {
+        int loadSize = 0;
+        for (Integer priority : usedPriorities) {
+            if (priority < minPriority || shard.ramCache.size() >= limit) {
+                break;
+            }
+            loadSize += loadBucket(shard, segmentName, priority, limit);
         }
+        return loadSize;
     }
 
-    private synchronized int loadCache(String segmentName) {
+    private int loadBucket(SeedShard shard, String segmentName, int priority, int limit) {
         int loadSize = 0;
         Database iteratorDatabases = null;
         Cursor cursor = null;
-        Database finishedSeedDatabase = null;
         if (isClosed) {
             return 0;
         }
         DatabaseEntry iteratorKey = new DatabaseEntry();
         DatabaseEntry iteratorValue = new DatabaseEntry();
+        List<byte[]> leasedKeys = Lists.newArrayList();
+        List<byte[]> leasedValues = Lists.newArrayList();
+        List<Seed> leasedSeeds = Lists.newArrayList();
 
+        lockDBOperate();
+        statistics.beginWrite();
         try {
-            lockDBOperate();
-
-            iteratorDatabases = createOrGetDataBase(RUNNING_SEGMENT_PREFIX + segmentName); //env.openDatabase(null, RUNNING_SEGMENT_PREFIX + segmentName, databaseConfig);
+            iteratorDatabases = shard.createOrGetDataBase(runningDatabaseName(segmentName, priority)); //env.openDatabase(null, RUNNING_SEGMENT_PREFIX + segmentName, databaseConfig);
             cursor = iteratorDatabases.openCursor(null, CursorConfig.DEFAULT);
-            finishedSeedDatabase = createOrGetDataBase(FINISHED_SEGMENT_PREFIX + segmentName); //env.openDatabase(null, FINISHED_SEGMENT_PREFIX + segmentName, databaseConfig);
             while (cursor.getNext(iteratorKey, iteratorValue, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
                 loadSize++;
-                Seed ret = VSCrawlerCommonUtil.transferStringToSeed(new String(iteratorValue.getData()));
-                ret.setSegmentKey(segmentName);
-                cursor.delete();// 删除当前数据
+                Seed ret = SeedCodec.decode(iteratorValue.getData());
+                // 时间轮转移过来的种子保留原始的段,用于完成库和消重
+                if (ret.getSegmentKey() == null) {
+                    ret.setSegmentKey(segmentName);
+                }
                 if (!ret.needEnd()) {
-                    ramCache.offer(ret);
-                    if (ramCache.size() >= cacheSize) {
+                    // 先记录租约,租约落盘之后才能从运行库删除。DatabaseEntry的数组在下一次读取的时候可能被复用
+                    leasedKeys.add(copyOf(iteratorKey));
+                    leasedValues.add(copyOf(iteratorValue));
+                    leasedSeeds.add(ret);
+                    if (shard.ramCache.size() + leasedSeeds.size() >= limit) {
                         break;
                     }
                 } else {
-                    finishedSeedDatabase.put(null, iteratorKey, iteratorValue);
+                    cursor.delete();// 删除当前数据
+                    statistics.onLoad(ret.getSegmentKey(), ret);
+                    markFinished(ret, ret.getSegmentKey());
+                    statistics.onEnd(ret.getSegmentKey(), ret);
+                }
+            }
+            // 删除之前释放游标持有的锁
+            IOUtils.closeQuietly(cursor);
+            cursor = null;
+            if (leasedSeeds.isEmpty()) {
+                return loadSize;
+            }
+            try {
+                for (int i = 0; i < leasedSeeds.size(); i++) {
+                    Seed seed = leasedSeeds.get(i);
+                    shard.leaseLog.lease(seed.getSegmentKey(), leasedKeys.get(i), leasedValues.get(i));
                 }
+                shard.leaseLog.flush(groupCommitFsync);
+            } catch (IOException ioe) {
+                // 租约没有落盘的种子保留在运行库中
+                log.error("种子租约日志写入失败,分片:{}", shard.getIndex(), ioe);
+                return loadSize;
+            }
+            for (int i = 0; i < leasedSeeds.size(); i++) {
+                Seed seed = leasedSeeds.get(i);
+                iteratorDatabases.delete(null, new DatabaseEntry(leasedKeys.get(i)));
+                statistics.onLoad(seed.getSegmentKey(), seed);
+                shard.ramCache.offer(seed);
             }
         } finally {
+            statistics.endWrite();
             unlockDBOperate();
             IOUtils.closeQuietly(cursor);
         }
-        return loadSize;
+        return loadSize;
+    }
+
+    private static byte[] copyOf(DatabaseEntry databaseEntry) {
+        return Arrays.copyOfRange(databaseEntry.getData(), databaseEntry.getOffset(),
+                databaseEntry.getOffset() + databaseEntry.getSize());
+    }
+
+    /**
+     * 内存缓存中都是低优先级种子的时候,新写入的高优先级种子需要插队加载,否则需要等缓存消耗完毕才能被调度
+     */
+    private void loadHighPriorityCache(SeedShard shard) {
+        PrioritySeedCache ramCache = shard.ramCache;
+        int pending = shard.pendingHighPriority.getAndSet(-1);
+        if (pending <= ramCache.highestPriority()) {
+            return;
+        }
+        int minPriority = Math.max(ramCache.highestPriority() + 1, Seed.DEFAULT_PRIORITY + 1);
+        // 允许内存缓存超出一倍,避免由于缓存满了导致高优先级种子加载不进来
+        int limit = ramCache.size() + shardWater(watermark.highWater());
+        loadCache(shard, defaultSegment, minPriority, limit);
+        for (Long activeTimeStamp : shard.runningSegments) {
+            if (activeTimeStamp > System.currentTimeMillis() || ramCache.size() >= limit) {
+                return;
+            }
+            loadCache(shard, String.valueOf(activeTimeStamp), minPriority, limit);
+        }
+    }
+
+    /**
+     * 从内存缓存中取出一个种子,不会等待db加载。缓存低于水位或者有更高优先级的种子写入的时候,触发后台加载,
+     * 缓存为空的时候直接返回null,调用方可以通过{@link #isCacheLoading()}判断是否需要稍后重试。<br>
+     * 多个分片的时候从缓存头部优先级最高的分片中取,优先级相同的分片之间轮询
+     *
+     * @return 种子, 缓存为空返回null
+     */
+    public Seed pool() {
+        if (isClosed) {
+            return null;
+        }
+        clearLock.readLock().lock();
+        try {
+            return poolSeed();
+        } finally {
+            clearLock.readLock().unlock();
+        }
+    }
+
+    private Seed poolSeed() {
+        // 退避时间已经到期的重试种子重新进入内存缓存
+        for (Seed retrySeed : retryScheduler.drainReady()) {
+            shardOf(retrySeed).ramCache.offer(retrySeed);
+        }
+        int start = (shardPollIndex.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+        SeedShard target = null;
+        int targetPriority = -1;
+        for (int i = 0; i < shards.length; i++) {
+            SeedShard shard = shards[(start + i) % shards.length];
+            if (needLoadCache(shard)) {
+                triggerCacheLoad(shard);
+            }
+            int priority = shard.ramCache.highestPriority();
+            if (priority > targetPriority) {
+                target = shard;
+                targetPriority = priority;
+            }
+        }
+        Seed poll = target == null ? null : target.ramCache.poll();
+        if (poll == null) {
+            this.isSeedEmpty.set(true);
+            return null;
+        }
+        runningSeeds.put(poll.getSegmentKey(), seedKeyResolver.resolveSeedKey(poll), poll);
+        watermark.onPoll();
+        return poll;
+    }
+
+    /**
+     * 取出之后还没有开始处理的种子放回内存缓存,排在同优先级种子的后面。<br>
+     * 种子仍然持有加载时的租约,不会写回种子库,也不会消耗重试次数
+     *
+     * @param seed 通过pool取出的种子
+     */
+    public void requeue(Seed seed) {
+        clearLock.readLock().lock();
+        try {
+            // 种子库已经被清空的时候直接丢弃
+            if (runningSeeds.remove(seed.getSegmentKey(), seedKeyResolver.resolveSeedKey(seed), seed) && !isClosed) {
+                // 关闭之后租约还在,下次启动的时候重新入库
+                shardOf(seed).ramCache.offer(seed);
+            }
+        } finally {
+            clearLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 后台正在加载缓存, 或者缓存中还有种子
+     */
+    public boolean isCacheLoading() {
+        for (SeedShard shard : shards) {
+            if (shard.cacheLoading.get() || shard.ramCache.size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 水位平分到每个分片
+     */
+    private int shardWater(int water) {
+        return Math.max((water + shards.length - 1) / shards.length, 1);
+    }
+
+    private boolean needLoadCache(SeedShard shard) {
+        PrioritySeedCache ramCache = shard.ramCache;
+        if (ramCache.size() > 0 && shard.pendingHighPriority.get() > ramCache.highestPriority()) {
+            return true;
+        }
+        if (ramCache.size() > shardWater(watermark.lowWater())) {
+            return false;
+        }
+        return shard.exhaustedVersion != shard.runningWriteVersion.get()
+                || System.currentTimeMillis() - shard.exhaustedTimeStamp > EXHAUSTED_RESCAN_MILLIS;
     }
 
-    public synchronized Seed pool() {
-        if (isClosed) {
-            return null;
+    private void triggerCacheLoad(final SeedShard shard) {
+        if (isClosed || !shard.cacheLoading.compareAndSet(false, true)) {
+            return;
         }
-        if (ramCache.size() == 0) {
-            loadCache();
+        try {
+            shard.seedLoader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doLoadCache(shard);
+                    } catch (Exception e) {
+                        log.error("加载种子缓存失败,分片:{}", shard.getIndex(), e);
+                    } finally {
+                        shard.cacheLoading.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            shard.cacheLoading.set(false);
         }
-        if (ramCache.size() == 0) {
-            this.isSeedEmpty.set(true);
-            return null;
-        } else {
-            Seed poll = ramCache.poll();
-            if (poll != null) {
-                runningSeeds.put(poll.getSegmentKey() + seedKeyResolver.resolveSeedKey(poll), poll);
+    }
+
+    /**
+     * 只在分片的加载线程中执行,加锁只是为了和clear互斥,pool不再持有这把锁
+     */
+    private void doLoadCache(SeedShard shard) {
+        synchronized (shard) {
+            long startTimeStamp = System.currentTimeMillis();
+            if (shard.ramCache.size() <= shardWater(watermark.lowWater())) {
+                long version = shard.runningWriteVersion.get();
+                int highWater = shardWater(watermark.highWater());
+                shard.pendingHighPriority.set(-1);
+                loadCache(shard, highWater);
+                if (shard.ramCache.size() < highWater) {
+                    shard.exhaustedVersion = version;
+                    shard.exhaustedTimeStamp = System.currentTimeMillis();
+                } else {
+                    shard.exhaustedVersion = -1;
+                }
+            } else if (shard.pendingHighPriority.get() > shard.ramCache.highestPriority()) {
+                loadHighPriorityCache(shard);
             }
-            return poll;
+            watermark.onLoad(System.currentTimeMillis() - startTimeStamp);
         }
     }
 
@@ -253,180 +1015,414 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
     }
 
     private boolean saveBloomFilterInfo(String segment) {
-        File bloomData = new File(vsCrawlerContext.getWorkPath(), segment + ".bloom");
-        if (!bloomData.exists()) {
-            try {
-                if (!bloomData.createNewFile()) {
-                    return false;
-                }
-            } catch (IOException ioe) {
-                log.error("cannot serialize bloomFilter data", ioe);
-                return false;
-            }
+        PersistentBloomFilter<Seed> bloomFilter = bloomFilters.get(segment);
+        if (bloomFilter == null) {
+            return true;
         }
-
-        FileOutputStream fileOutputStream = null;
         try {
-            fileOutputStream = new FileOutputStream(bloomData);
-            bloomFilters.get(segment).writeTo(fileOutputStream);
+            bloomFilter.close();
             return true;
         } catch (IOException ioe) {
             log.warn("不能写入取BloomFilter数据,消重逻辑可能转移到数据库,性能可能受到影响", ioe);
             return false;
-        } finally {
-            IOUtils.closeQuietly(fileOutputStream);
+        }
+    }
+
+    /**
+     * 文件映射模式下定期刷盘,进程异常退出的时候最多丢失一个刷盘周期的消重数据
+     */
+    private void flushBloomFilters() {
+        for (PersistentBloomFilter<Seed> bloomFilter : bloomFilters.values()) {
+            try {
+                bloomFilter.flush();
+            } catch (IOException ioe) {
+                log.warn("布隆过滤器刷盘失败", ioe);
+            }
         }
     }
 
     private void buildBloomFilterInfo() {
         for (Long segment : allSegments) {
             String s = String.valueOf(segment);
-            bloomFilters.put(s, buildBloomFilterInfo(s));
+            bloomFilters.put(s, newBloomFilter(s));
         }
-        bloomFilters.put(defaultSegment, buildBloomFilterInfo(defaultSegment));
+        bloomFilters.put(defaultSegment, newBloomFilter(defaultSegment));
     }
 
-    private BloomFilter<Seed> buildBloomFilterInfo(String segment) {
+    private PersistentBloomFilter<Seed> newBloomFilter(String segment) {
+        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+        BloomFilterConfig<Seed> config = new BloomFilterConfig<>(seedFunnel, bloomInitialCapacity(properties),
+                bloomFpp(properties), bloomGrowthFactor(properties), DEFAULT_BLOOM_TIGHTENING_RATIO);
         File bloomData = new File(vsCrawlerContext.getWorkPath(), segment + ".bloom");
-        if (bloomData.exists()) {
-            FileInputStream inputStream = null;
+        if (BooleanUtils.toBoolean(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BLOOM_MMAP))) {
             try {
-                inputStream = new FileInputStream(bloomData);
-                return BloomFilter.readFrom(inputStream, new Funnel<Seed>() {
-                    @Override
-                    public void funnel(Seed from, PrimitiveSink into) {
-                        into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
-                    }
-                });
+                return MappedBloomFilter.open(new File(vsCrawlerContext.getWorkPath()), segment + ".bloom", bloomData,
+                        config);
             } catch (IOException ioe) {
-                log.warn("不能读取BloomFilter数据,消重逻辑可能转移到数据库,性能可能受到影响", ioe);
-                if (!bloomData.delete()) {
-                    log.warn("delete bloom failed:{}", bloomData.getAbsoluteFile());
-                }
-            } finally {
-                IOUtils.closeQuietly(inputStream);
+                log.warn("不能打开映射文件布隆过滤器,段:{} 使用堆内布隆过滤器", segment, ioe);
             }
         }
+        return FileBackedBloomFilter.load(bloomData, config);
+    }
 
-        long expectedNumber = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
-                .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_EXPECTED_SEED_NUMBER), 1000000L);
+    private void clearBloomFilter(String segment) {
+        PersistentBloomFilter<Seed> bloomFilter = bloomFilters.get(segment);
+        if (bloomFilter == null) {
+            return;
+        }
+        try {
+            bloomFilter.clear();
+        } catch (IOException ioe) {
+            log.warn("清空布隆过滤器失败,段:{}", segment, ioe);
+            bloomFilters.remove(segment);
+        }
+    }
 
-        // any way, build a filter instance if not exist
-        return BloomFilter.create(new Funnel<Seed>() {
-            @Override
-            public void funnel(Seed from, PrimitiveSink into) {
-                into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
-            }
-        }, expectedNumber);
+    private static long bloomInitialCapacity(Properties properties) {
+        return NumberUtils.toLong(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_EXPECTED_SEED_NUMBER),
+                DEFAULT_BLOOM_INITIAL_CAPACITY);
+    }
+
+    private static double bloomFpp(Properties properties) {
+        return NumberUtils.toDouble(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BLOOM_FPP),
+                DEFAULT_BLOOM_FPP);
+    }
 
+    private static double bloomGrowthFactor(Properties properties) {
+        return NumberUtils.toDouble(
+                properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BLOOM_GROWTH_FACTOR),
+                DEFAULT_BLOOM_GROWTH_FACTOR);
     }
 
     private void configEnv() {
-        resolveDBFile();
-        EnvironmentConfig environmentConfig = new EnvironmentConfig();
-        environmentConfig.setAllowCreate(true);
-        try {
-            env = new Environment(new File(dbFilePath), environmentConfig);
-        } catch (EnvironmentLockedException e) {
-            if (new File(dbFilePath, "je.lck").delete()) {
-                log.warn("上次未正常关闭爬虫,尝试修复");
-                env = new Environment(new File(dbFilePath), environmentConfig);
-            } else {
-                log.error("存在多个爬虫操作同一份数据,请确认多个爬虫的工作空间是否相同", e);
-                throw e;
-            }
+        // 配置数据库文件地址,第0个分片和老版本的种子库位置相同
+        shards = new SeedShard[] { SeedShard.open(0, new File(vsCrawlerContext.getWorkPath(), DB_DIRECTORY)) };
+    }
 
+    private void startSeedWriter() {
+        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+        groupCommitFsync = BooleanUtils
+                .toBoolean(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_FSYNC));
+        for (SeedShard shard : shards) {
+            shard.seedWriter = new SeedGroupCommitWriter(this, shard,
+                    NumberUtils.toInt(properties.getProperty(
+                            VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_BATCH_SIZE), 256),
+                    NumberUtils.toLong(properties.getProperty(
+                            VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_MAX_DELAY_MILLIS), 10),
+                    NumberUtils.toInt(properties.getProperty(
+                            VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_QUEUE_SIZE), 10000));
+            shard.seedWriter.start();
         }
-
-        databaseConfig = new DatabaseConfig();
-        databaseConfig.setAllowCreate(true);
     }
 
     /**
      * 如果用户配置了初始的种子源那么启动时加载种子源
      */
     private void migrateInitSeed() {
+        if (initSeedSource instanceof LocalFileSeedSource) {
+            // 本地文件可能非常大,使用批量导入,不阻塞爬虫启动
+            File seedFile = ((LocalFileSeedSource) initSeedSource).resolveSeedFile(vsCrawlerContext);
+            if (seedFile != null) {
+                log.info("import init seed file:{}", seedFile.getAbsolutePath());
+                bulkImport(seedFile);
+            }
+            return;
+        }
         Collection<Seed> seeds = initSeedSource.initSeeds(vsCrawlerContext);
         if (seeds == null) {
             return;
         }
         log.info("import new init seeds:{}", seeds.size());
-        addNewSeeds(seeds);
+        // 初始种子需要在派发之前落盘
+        Futures.getUnchecked(addNewSeeds(seeds));
     }
 
     /**
-     * 更新种子,如果种子已经处理完成,那么移动到完成库,否则修改状态
+     * 在后台批量导入一个种子文件,一行一个种子,支持gzip压缩。导入进度保存在工作目录中,爬虫重启之后继续导入
      *
-     * @param seed 曾经处理过的种子
+     * @param seedFile 种子文件
+     * @return 导入的种子数目
      */
-    public void finish(Seed seed) {
+    public ListenableFuture<Long> bulkImport(File seedFile) {
         if (isClosed) {
-            log.info("db已经关闭,拒绝归还任务");
-            return;
+            return Futures.immediateFuture(0L);
         }
-        String seedKey = seedKeyResolver.resolveSeedKey(seed);
-        runningSeeds.remove(seed.getSegmentKey() + seedKey);
-
-        DatabaseEntry key = new DatabaseEntry(seedKey.getBytes());
-        DatabaseEntry value = new DatabaseEntry(VSCrawlerCommonUtil.transferSeedToString(seed).getBytes());
+        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+        Charset charset;
         try {
-            if (isClosed) {
-                log.info("db已经关闭,拒绝归还任务");
-                return;
+            charset = Charset.forName(
+                    properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BULK_IMPORT_CHARSET, "UTF-8"));
+        } catch (IllegalArgumentException e) {
+            log.warn("种子文件编码配置错误,使用UTF-8", e);
+            charset = Charsets.UTF_8;
+        }
+        final BulkSeedImporter bulkSeedImporter = new BulkSeedImporter(this, seedFile,
+                new File(vsCrawlerContext.getWorkPath(), BULK_IMPORT_DIRECTORY), charset,
+                NumberUtils.toInt(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_BULK_IMPORT_THREADS),
+                        Runtime.getRuntime().availableProcessors()));
+        bulkImporters.add(bulkSeedImporter);
+        ListenableFuture<Long> future = bulkSeedImporter.start();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                bulkImporters.remove(bulkSeedImporter);
             }
-            lockDBOperate();
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
 
-            if (seed.needEnd()) {
-                Database finishedSeedDatabase = createOrGetDataBase(FINISHED_SEGMENT_PREFIX + seed.getSegmentKey());
-                finishedSeedDatabase.put(null, key, value);
+    public boolean isClosed() {
+        return isClosed;
+    }
 
-                Database runningSeedDatabase = createOrGetDataBase(RUNNING_SEGMENT_PREFIX + seed.getSegmentKey());
-                runningSeedDatabase.removeSequence(null, key);
-            } else {
-                Database runningSeedDatabase = createOrGetDataBase(RUNNING_SEGMENT_PREFIX + seed.getSegmentKey());
-                runningSeedDatabase.put(null, key, value);
+    /**
+     * @return 最近一个重试种子到期的等待时间, 单位毫秒。没有等待重试的种子返回-1
+     */
+    public long millisUntilNextRetry() {
+        return retryScheduler.millisUntilNextReady();
+    }
+
+    public ListenableFuture<Boolean> finish(Seed seed) {
+        return finish(seed, null);
+    }
+
+    /**
+     * 更新种子,如果种子已经处理完成,那么移动到完成库,否则修改状态。<br>
+     * 需要重试的种子按照重试策略暂存在延时队列中,其他的写操作由组提交线程批量完成,返回的future在数据落盘之后完成
+     *
+     * @param seed  曾经处理过的种子
+     * @param cause 处理失败的异常,用于选择重试策略,可以为空
+     * @return 写入确认, db已经关闭或者种子处理期间种子库被清空的情况下为false
+     */
+    public ListenableFuture<Boolean> finish(Seed seed, Throwable cause) {
+        if (isClosed) {
+            log.info("db已经关闭,拒绝归还任务");
+            return Futures.immediateFuture(false);
+        }
+        SeedShard shard = shardOf(seed);
+        byte[] seedKey = storeKey(seed);
+        long leaseId;
+        int clearEpoch;
+        clearLock.readLock().lock();
+        try {
+            if (!runningSeeds.remove(seed.getSegmentKey(), seedKeyResolver.resolveSeedKey(seed), seed)) {
+                // 种子库在种子处理期间被清空,租约随之丢弃,处理结果不能再写回种子库
+                log.info("种子库已经被清空,丢弃种子处理结果:{}", seed.getData());
+                return Futures.immediateFuture(false);
+            }
+            clearEpoch = runningSeeds.clearEpoch();
+            if (seed.getStatus() == Seed.STATUS_RETRY && !seed.needEnd()) {
+                // 和内存缓存一样,暂存的种子仍然持有租约,续约之后重试次数在重启之后也不会丢失
+                try {
+                    shard.leaseLog.renew(seed.getSegmentKey(), seedKey, SeedCodec.encode(seed));
+                } catch (IOException ioe) {
+                    log.warn("种子续约失败", ioe);
+                }
+                retryScheduler.schedule(seed, cause);
+                return Futures.immediateFuture(true);
+            }
+            // 种子还没有写回运行库,不会被重新加载,这个时候的租约就是本次处理的租约
+            leaseId = shard.leaseLog.leaseId(seed.getSegmentKey(), seedKey);
+        } finally {
+            clearLock.readLock().unlock();
+        }
+        // 序列化在worker线程完成,减轻写线程的压力。完成的种子只记录指纹,不需要序列化
+        byte[] seedData = seed.needEnd() ? null : SeedCodec.encode(seed);
+        // 写入队列满的时候提交会阻塞,不能持有清空锁,写入的时候再根据清空版本判断种子库是否被清空过
+        return Futures.transform(
+                shard.seedWriter.submit(
+                        SeedGroupCommitWriter.WriteOperation.finish(seed, seedData, seedKey, leaseId, clearEpoch)),
+                new Function<Integer, Boolean>() {
+                    @Override
+                    public Boolean apply(Integer input) {
+                        return input != null && input > 0;
+                    }
+                });
+    }
+
+    /**
+     * 执行一批写操作,然后刷一次日志。只在分片的组提交线程调用,整个批次登记为一次db操作,关闭种子库的时候等待批次结束
+     *
+     * @param shard 写操作所在的分片
+     * @param batch 写操作
+     * @return 每个写操作的结果, finish为1, 新种子为实际入库的数目
+     */
+    List<Integer> applyBatch(SeedShard shard, List<SeedGroupCommitWriter.WriteOperation> batch) {
+        List<Integer> results = Lists.newArrayListWithCapacity(batch.size());
+        clearLock.readLock().lock();
+        lockDBOperate();
+        statistics.beginWrite();
+        try {
+            for (SeedGroupCommitWriter.WriteOperation writeOperation : batch) {
+                if (writeOperation.finishedSeed != null) {
+                    if (isClearedSince(writeOperation)) {
+                        log.info("种子库已经被清空,丢弃种子处理结果:{}", writeOperation.finishedSeed.getData());
+                        results.add(0);
+                        continue;
+                    }
+                    applyFinish(shard, writeOperation.finishedSeed, writeOperation.finishedSeedKey,
+                            writeOperation.finishedSeedData);
+                    results.add(1);
+                } else {
+                    results.add(applyNewSeeds(shard, writeOperation.newSeeds));
+                }
             }
+            shard.flushLog(groupCommitFsync);
+            flushFinishedIndexes(groupCommitFsync);
+            // 处理结果落盘之后才能结束租约,完成记录丢失只会导致重启之后种子被重复恢复,恢复的时候会消重
+            completeLeases(shard, batch);
         } finally {
+            statistics.endWrite();
             unlockDBOperate();
+            clearLock.readLock().unlock();
+        }
+        return results;
+    }
+
+    private boolean isClearedSince(SeedGroupCommitWriter.WriteOperation writeOperation) {
+        return writeOperation.clearEpoch != runningSeeds.clearEpoch();
+    }
+
+    private void completeLeases(SeedShard shard, List<SeedGroupCommitWriter.WriteOperation> batch) {
+        try {
+            for (SeedGroupCommitWriter.WriteOperation writeOperation : batch) {
+                if (writeOperation.finishedSeed != null && writeOperation.leaseId > 0
+                        && !isClearedSince(writeOperation)) {
+                    shard.leaseLog.complete(writeOperation.finishedSeed.getSegmentKey(),
+                            writeOperation.finishedSeedKey, writeOperation.leaseId);
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn("种子租约日志写入失败,分片:{}", shard.getIndex(), ioe);
+        }
+    }
+
+    private void applyFinish(SeedShard shard, Seed seed, byte[] seedKey, byte[] seedData) {
+        DatabaseEntry key = new DatabaseEntry(seedKey);
+        DatabaseEntry value = new DatabaseEntry(seedData);
+        String runningDatabaseName = runningDatabaseName(runningSegmentOf(shard, seed), seed.getPriority());
+        if (seed.needEnd()) {
+            markFinished(seed, String.valueOf(seed.getSegmentKey()));
+            statistics.onEnd(seed.getSegmentKey(), seed);
+
+            Database runningSeedDatabase = shard.createOrGetDataBase(runningDatabaseName);
+            runningSeedDatabase.removeSequence(null, key);
+        } else {
+            Database runningSeedDatabase = shard.createOrGetDataBase(runningDatabaseName);
+            runningSeedDatabase.put(null, key, value);
+            onRunningSeedWrite(shard, seed.getPriority());
+            statistics.onStore(seed.getSegmentKey(), seed);
         }
+    }
 
+    /**
+     * 打开各个分片的租约日志,上次退出的时候还没有完成的种子重新写回运行库,然后清空租约
+     */
+    private void recoverLeasedSeeds() {
+        for (SeedShard shard : shards) {
+            File leaseLogDirectory = new File(shard.getEnv().getHome(), LEASE_LOG_DIRECTORY);
+            try {
+                shard.leaseLog = SeedLeaseLog.open(leaseLogDirectory);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("打开种子租约日志失败:" + leaseLogDirectory.getAbsolutePath(), ioe);
+            }
+            List<byte[]> leasedSeeds = shard.leaseLog.leasedSeeds();
+            if (leasedSeeds.isEmpty()) {
+                continue;
+            }
+            List<Seed> seeds = Lists.newArrayListWithCapacity(leasedSeeds.size());
+            for (byte[] seedData : leasedSeeds) {
+                seeds.add(SeedCodec.decode(seedData));
+            }
+            int requeued = requeue(shard, seeds);
+            // 种子写回运行库并且落盘之后才能清空租约
+            shard.flushLog(true);
+            flushFinishedIndexes(true);
+            try {
+                shard.leaseLog.reset();
+            } catch (IOException ioe) {
+                throw new IllegalStateException("清空种子租约日志失败:" + leaseLogDirectory.getAbsolutePath(), ioe);
+            }
+            log.info("恢复上次没有完成的种子,分片:{} 租约数量:{} 重新入库数量:{}", shard.getIndex(), seeds.size(), requeued);
+        }
     }
 
-    private void reSaveCache() {
-        LinkedList<Seed> allSeed = Lists.newLinkedList();
-        allSeed.addAll(ramCache);
-        allSeed.addAll(runningSeeds.values());
+    /**
+     * 租约中的种子重新写回运行库。完成记录没有落盘的种子可能已经在完成索引或者运行库中,这些种子不再写入,所以重复恢复没有影响
+     *
+     * @return 实际写回的种子数目
+     */
+    private int requeue(SeedShard shard, Collection<Seed> allSeed) {
         // 转化为各自的段
         Multimap<String, Seed> segmentSeeds = HashMultimap.create();
         for (Seed seed : allSeed) {
-            segmentSeeds.put(seed.getSegmentKey(), seed);
+            segmentSeeds.put(runningSegmentOf(shard, seed), seed);
         }
 
+        int requeued = 0;
         // 处理各自的段
         for (Map.Entry<String, Collection<Seed>> entry : segmentSeeds.asMap().entrySet()) {
-            Database runningSeedDatabase = null;
+            lockDBOperate();
+            statistics.beginWrite();
             try {
-                lockDBOperate();
-                runningSeedDatabase = env.openDatabase(null, RUNNING_SEGMENT_PREFIX + entry.getKey(), databaseConfig);
                 for (Seed seed : entry.getValue()) {
-                    DatabaseEntry key = new DatabaseEntry(seedKeyResolver.resolveSeedKey(seed).getBytes());
-                    DatabaseEntry value = new DatabaseEntry(VSCrawlerCommonUtil.transferSeedToString(seed).getBytes());
-                    runningSeedDatabase.put(null, key, value);
+                    String segment = seed.getSegmentKey() == null ? entry.getKey() : seed.getSegmentKey();
+                    if (finishedIndex(segment).contains(
+                            SeedKeyEncoder.fingerprint128(seedKeyResolver.resolveSeedKey(seed)))) {
+                        continue;
+                    }
+                    Database runningSeedDatabase = shard.createOrGetDataBase(
+                            runningDatabaseName(entry.getKey(), seed.getPriority()));
+                    DatabaseEntry key = new DatabaseEntry(storeKey(seed));
+                    DatabaseEntry value = new DatabaseEntry(SeedCodec.encode(seed));
+                    if (runningSeedDatabase.putNoOverwrite(null, key, value) != OperationStatus.SUCCESS) {
+                        continue;
+                    }
+                    onRunningSeedWrite(shard, seed.getPriority());
+                    statistics.onStore(segment, seed);
+                    requeued++;
                 }
 
             } finally {
+                statistics.endWrite();
                 unlockDBOperate();
-                IOUtils.closeQuietly(runningSeedDatabase);
             }
 
         }
+        return requeued;
+    }
+
+    /**
+     * 租约日志写入操作系统,需要的时候写检查点
+     */
+    private void flushLeaseLogs() {
+        for (SeedShard shard : shards) {
+            try {
+                shard.leaseLog.flush(groupCommitFsync);
+                if (shard.leaseLog.needCheckpoint()) {
+                    shard.leaseLog.checkpoint();
+                }
+            } catch (IOException ioe) {
+                log.warn("种子租约日志刷盘失败,分片:{}", shard.getIndex(), ioe);
+            }
+        }
+    }
+
+    private void closeLeaseLogs() {
+        for (SeedShard shard : shards) {
+            try {
+                shard.leaseLog.close();
+            } catch (IOException ioe) {
+                log.warn("关闭种子租约日志失败,分片:{}", shard.getIndex(), ioe);
+            }
+        }
     }
 
     private void saveSegment() {
         Database iteratorDatabases = null;
         try {
             lockDBOperate();
-            iteratorDatabases = createOrGetDataBase(SEGMENT);// env.openDatabase(null, SEGMENT, databaseConfig);
+            iteratorDatabases = metaShard().createOrGetDataBase(SEGMENT);// env.openDatabase(null, SEGMENT, databaseConfig);
             for (Long segment : allSegments) {
                 DatabaseEntry key = new DatabaseEntry(segment.toString().getBytes());
                 DatabaseEntry value = new DatabaseEntry(segment.toString().getBytes());
@@ -438,6 +1434,9 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
         }
     }
 
+    /**
+     * 登记一个正在进行的db操作,不是互斥锁,多个线程可以同时持有。crawlerEnd等待计数归零之后才关闭数据库环境
+     */
     private void lockDBOperate() {
         dbLock.lock();
         dbOperator++;
@@ -452,16 +1451,44 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
     }
 
     /**
-     * 新产生的种子,如果入库,那么会消重。后加入的种子被reject
+     * 新产生的种子,如果入库,那么会消重。后加入的种子被reject。<br>
+     * 写操作由组提交线程批量完成,返回的future在数据落盘之后完成
      *
      * @param seeds 种子
+     * @return 实际入库的种子数目
      */
-    public void addNewSeeds(Collection<Seed> seeds) {
+    public ListenableFuture<Integer> addNewSeeds(Collection<Seed> seeds) {
         if (isClosed) {
             log.warn("db已经关闭,拒绝添加新种子");
-            return;
+            return Futures.immediateFuture(0);
+        }
+        if (shards.length == 1) {
+            return shards[0].seedWriter
+                    .submit(SeedGroupCommitWriter.WriteOperation.newSeeds(Lists.newArrayList(seeds)));
+        }
+        // 按照分片拆分之后提交给各个分片的写线程,所有分片写入之后汇总入库数目
+        ListMultimap<SeedShard, Seed> shardSeeds = ArrayListMultimap.create();
+        for (Seed seed : seeds) {
+            shardSeeds.put(shardOf(seed), seed);
+        }
+        List<ListenableFuture<Integer>> acks = Lists.newArrayListWithCapacity(shardSeeds.keySet().size());
+        for (Map.Entry<SeedShard, Collection<Seed>> entry : shardSeeds.asMap().entrySet()) {
+            acks.add(entry.getKey().seedWriter
+                    .submit(SeedGroupCommitWriter.WriteOperation.newSeeds(Lists.newArrayList(entry.getValue()))));
         }
+        return Futures.transform(Futures.allAsList(acks), new Function<List<Integer>, Integer>() {
+            @Override
+            public Integer apply(List<Integer> input) {
+                int ret = 0;
+                for (Integer added : input) {
+                    ret += added;
+                }
+                return ret;
+            }
+        });
+    }
 
+    private int applyNewSeeds(SeedShard shard, Collection<Seed> seeds) {
         // 转化为各自的段
         Multimap<String, Seed> segmentSeeds = HashMultimap.create();
         for (Seed seed : seeds) {
@@ -475,101 +1502,144 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
         int realAddSeedNumber = 0;
         // 处理各自的段
         for (Map.Entry<String, Collection<Seed>> entry : segmentSeeds.asMap().entrySet()) {
-            BloomFilter<Seed> bloomFilter = getOrCreate(entry.getKey());
-            try {
-                lockDBOperate();
-                Database runningSeedDatabase = createOrGetDataBase(RUNNING_SEGMENT_PREFIX + entry.getKey());// env.openDatabase(null, RUNNING_SEGMENT_PREFIX + entry.getKey(), databaseConfig);
-                Database finishedSeedDatabase = createOrGetDataBase(FINISHED_SEGMENT_PREFIX + entry.getKey());// env.openDatabase(null, FINISHED_SEGMENT_PREFIX + entry.getKey(), databaseConfig);
-                for (Seed seed : entry.getValue()) {
-                    if (bloomFilter.mightContain(seed)) {
-                        continue;
-                    }
+            PersistentBloomFilter<Seed> bloomFilter = getOrCreate(entry.getKey());
+            FinishedSeedIndex finishedSeedIndex = finishedIndex(entry.getKey());
+            for (Seed seed : entry.getValue()) {
+                if (mightContain(bloomFilter, seed)) {
+                    continue;
+                }
 
-                    /**
-                     * 处理新增加的段
-                     */
-                    if (!StringUtils.equals(entry.getKey(), defaultSegment)
-                            && !allSegments.contains(Long.parseLong(entry.getKey()))) {
-                        allSegments.add(Long.parseLong(entry.getKey()));
-                        runningSegments.add(Long.parseLong(entry.getKey()));
-                    }
+                /**
+                 * 处理新增加的段
+                 */
+                if (!StringUtils.equals(entry.getKey(), defaultSegment)
+                        && !allSegments.contains(Long.parseLong(entry.getKey()))) {
+                    // 段只用于消重,种子本身存储在时间轮中,不再创建段的运行库
+                    allSegments.add(Long.parseLong(entry.getKey()));
+                }
 
-                    DatabaseEntry key = new DatabaseEntry(seedKeyResolver.resolveSeedKey(seed).getBytes());
-                    DatabaseEntry valueEntry = new DatabaseEntry();
-                    // db层面消重
-                    if (runningSeedDatabase.get(null, key, valueEntry, LockMode.DEFAULT) == OperationStatus.SUCCESS ||
-                            finishedSeedDatabase.get(null, key, valueEntry, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                String seedKey = seedKeyResolver.resolveSeedKey(seed);
+                if (finishedSeedIndex.contains(SeedKeyEncoder.fingerprint128(seedKey))) {
+                    continue;
+                }
+                byte[] keyData = seedKeyEncoder.encode(seedKey, false);
+                // db层面消重,同一个种子可能以不同的优先级存在
+                byte[] storedSeed = findStoredSeed(shard, entry.getKey(), keyData);
+                if (storedSeed != null) {
+                    if (!seedKeyEncoder.isFingerprint()
+                            || StringUtils.equals(seedKey, seedKeyResolver.resolveSeedKey(SeedCodec.decode(storedSeed)))) {
+                        continue;
+                    }
+                    // 指纹冲突,改用溢出主键之后再消重一次
+                    seed.setKeyOverflow(true);
+                    keyData = seedKeyEncoder.encode(seedKey, true);
+                    if (findStoredSeed(shard, entry.getKey(), keyData) != null) {
                         continue;
                     }
+                    log.warn("种子指纹冲突,使用溢出主键存储:{}", seedKey);
+                }
+                DatabaseEntry key = new DatabaseEntry(keyData);
 
-                    DatabaseEntry value = new DatabaseEntry(VSCrawlerCommonUtil.transferSeedToString(seed).getBytes());
-                    runningSeedDatabase.putNoOverwrite(null, key, value);
+                if (seed.getActiveTimeStamp() != null) {
+                    // 未来生效的种子放入时间轮,到期之后由时间轮线程转移到运行库,同时发送种子到达消息
+                    seed.setSegmentKey(entry.getKey());
+                    shard.timingWheel.add(seed.getActiveTimeStamp(), key.getData(),
+                            SeedCodec.encode(seed));
                     realAddSeedNumber++;
-                    // runningSeedDatabase.put(null, key, value);
-                    bloomFilter.put(seed);
-                    if (isSeedEmpty.compareAndSet(true, false)) {
-                        if (seed.getActiveTimeStamp() == null) {
-                            vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(FirstSeedPushEvent.class)
-                                    .firstSeed(vsCrawlerContext, seed);
-                        } else {
-                            // 如果这种子是在未来执行,那么发送未来的延时消息
-                            vsCrawlerContext.getAutoEventRegistry().createDelayEventSender(FirstSeedPushEvent.class)
-                                    .sendDelay(seed.getActiveTimeStamp() - System.currentTimeMillis() + 10L).delegate()
-                                    .firstSeed(vsCrawlerContext, seed);
-                        }
-                    }
+                    put(bloomFilter, seed);
+                    statistics.onStore(entry.getKey(), seed);
+                    continue;
                 }
-                log.info("实际导入种子数量:{}", realAddSeedNumber);
-            } finally {
-                unlockDBOperate();
+
+                DatabaseEntry value = new DatabaseEntry(SeedCodec.encode(seed));
+                Database runningSeedDatabase = shard.createOrGetDataBase(
+                        runningDatabaseName(entry.getKey(), seed.getPriority()));
+                runningSeedDatabase.putNoOverwrite(null, key, value);
+                onRunningSeedWrite(shard, seed.getPriority());
+                statistics.onStore(entry.getKey(), seed);
+                realAddSeedNumber++;
+                // runningSeedDatabase.put(null, key, value);
+                put(bloomFilter, seed);
+                if (isSeedEmpty.compareAndSet(true, false)) {
+                    vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(FirstSeedPushEvent.class)
+                            .firstSeed(vsCrawlerContext, seed);
+                }
+            }
+            log.info("实际导入种子数量:{}", realAddSeedNumber);
+        }
+        return realAddSeedNumber;
+    }
+
+    /**
+     * 在运行库和时间轮中查找主键对应的种子
+     *
+     * @return 已经存在的种子数据, 不存在返回null
+     */
+    private byte[] findStoredSeed(SeedShard shard, String segment, byte[] keyData) {
+        DatabaseEntry key = new DatabaseEntry(keyData);
+        DatabaseEntry valueEntry = new DatabaseEntry();
+        if (!StringUtils.equals(segment, defaultSegment)) {
+            // 时间段的种子存储在时间轮中
+            byte[] wheelSeed = shard.timingWheel.get(keyData);
+            if (wheelSeed != null) {
+                return wheelSeed;
+            }
+            // 没有运行库的段,避免创建空库
+            if (!shard.runningSegments.contains(NumberUtils.toLong(segment))) {
+                return null;
             }
         }
+        for (Integer priority : usedPriorities) {
+            if (shard.createOrGetDataBase(runningDatabaseName(segment, priority)).get(null, key, valueEntry,
+                    LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                return valueEntry.getData();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 布隆过滤器不是线程安全的,多个分片的写线程共享同一个段的布隆过滤器
+     */
+    private static boolean mightContain(PersistentBloomFilter<Seed> bloomFilter, Seed seed) {
+        synchronized (bloomFilter) {
+            return bloomFilter.mightContain(seed);
+        }
+    }
 
+    private static void put(PersistentBloomFilter<Seed> bloomFilter, Seed seed) {
+        synchronized (bloomFilter) {
+            bloomFilter.put(seed);
+        }
     }
 
-    private BloomFilter<Seed> getOrCreate(String segment) {
-        BloomFilter<Seed> seedBloomFilter = bloomFilters.get(segment);
+    private PersistentBloomFilter<Seed> getOrCreate(String segment) {
+        PersistentBloomFilter<Seed> seedBloomFilter = bloomFilters.get(segment);
         if (seedBloomFilter != null) {
             return seedBloomFilter;
         }
-        synchronized (segment.intern()) {
+        Lock lock = bloomFilterLocks.get(segment);
+        lock.lock();
+        try {
             seedBloomFilter = bloomFilters.get(segment);
             if (seedBloomFilter != null) {
                 return seedBloomFilter;
             }
 
-            long expectedNumber = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
-                    .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_EXPECTED_SEED_NUMBER), 1000000L);
-
             // any way, build a filter instance if not exist
-            seedBloomFilter = BloomFilter.create(new Funnel<Seed>() {
-                @Override
-                public void funnel(Seed from, PrimitiveSink into) {
-                    into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
-                }
-            }, expectedNumber);
+            seedBloomFilter = newBloomFilter(segment);
 
             bloomFilters.put(segment, seedBloomFilter);
+        } finally {
+            lock.unlock();
         }
         return seedBloomFilter;
     }
 
-    private void resolveDBFile() {
-        // 配置数据库文件地址
-        File dbFile = new File(vsCrawlerContext.getWorkPath(), "berkeleyDB");
-        if (!dbFile.exists()) {
-            if (!dbFile.mkdirs()) {
-                throw new IllegalStateException(dbFile.getAbsolutePath() + "文件夹创建失败");
-            }
-        } else if (!dbFile.isDirectory()) {
-            throw new IllegalStateException(dbFile.getAbsolutePath() + "不是一个文件夹");
-        }
-        dbFilePath = dbFile.getAbsolutePath();
-    }
-
     @Override
     public void configChange(VSCrawlerContext vsCrawlerContext, Properties newProperties) {
-
+        retryScheduler.config(newProperties);
+        watermark.config(newProperties, cacheSize);
     }
 
     @Override
@@ -585,103 +1655,154 @@ public class BerkeleyDBSeedManager implements CrawlerConfigChangeEvent, NewSeedA
         isClosed = true;
         log.info("收到爬虫结束消息,开始关闭资源");
         log.info("拒绝抓取结果入库...");
-        log.info("缓存中未分发数据重新入库,正在执行的爬虫任务,不等待结果,重新入库...");
-        reSaveCache();
+        for (BulkSeedImporter bulkSeedImporter : bulkImporters) {
+            bulkSeedImporter.stop();
+        }
+        // 不能中断正在执行的时间轮推进,JE的写操作被中断会导致环境失效
+        timingWheelTicker.shutdown();
+        try {
+            timingWheelTicker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("停止种子缓存加载线程...");
+        for (SeedShard shard : shards) {
+            shard.seedLoader.shutdown();
+        }
+        for (SeedShard shard : shards) {
+            try {
+                shard.seedLoader.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("等待写入队列中的种子落盘...");
+        for (SeedShard shard : shards) {
+            shard.seedWriter.stopAndDrain();
+        }
+        log.info("关闭种子租约日志,缓存中和正在执行的种子在下次启动的时候重新入库...");
+        closeLeaseLogs();
         log.info("写入段表信息");
         saveSegment();
+        log.info("写入种子统计数据");
+        statistics.checkpoint(true);
         log.info("关闭数据库环境...");
         while (true) {
             dbLock.lock();
             if (dbOperator <= 0) {
-                closeAllDatabase();
-                IOUtils.closeQuietly(env);
+                closeShards();
                 dbLock.unlock();
                 break;
             }
             try {
                 dbRelease.await();
             } catch (InterruptedException e) {
-                closeAllDatabase();
-                IOUtils.closeQuietly(env);
+                closeShards();
                 throw new IllegalStateException("can not close db ,db operate await Interrupted");
             }
             dbLock.unlock();
         }
+        log.info("关闭完成种子索引...");
+        closeFinishedIndexes();
         log.info("存储bloomFilter的数据:{}", saveBloomFilterInfo());
     }
 
+    private void closeShards() {
+        for (SeedShard shard : shards) {
+            shard.close();
+        }
+    }
+
     public void clear() {
-        List<String> databaseNames = env.getDatabaseNames();
-        long expectedNumber = NumberUtils.toLong(VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties()
-                .getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_EXPECTED_SEED_NUMBER), 1000000L);
-        synchronized (this) {
-            closeAllDatabase();
-            for (Long segment : allSegments) {
-                String segmentName = RUNNING_SEGMENT_PREFIX + segment;
-                if (databaseNames.contains(segmentName)) {
-                    env.removeDatabase(null, segmentName);
-                }
+        clearLock.writeLock().lock();
+        try {
+            doClear();
+        } finally {
+            clearLock.writeLock().unlock();
+        }
+    }
 
-                segmentName = FINISHED_SEGMENT_PREFIX + segment;
-                if (databaseNames.contains(segmentName)) {
-                    env.removeDatabase(null, segmentName);
+    private void doClear() {
+        // 内存中的种子和租约一起丢弃,否则重启之后租约中的种子会重新入库。
+        // 正在处理的种子随之失去租约,处理结束之后finish会丢弃处理结果
+        int discarded = retryScheduler.drainAll().size() + runningSeeds.size();
+        runningSeeds.clear();
+        for (SeedShard shard : shards) {
+            synchronized (shard) {
+                discarded += shard.ramCache.size();
+                shard.ramCache.clear();
+                try {
+                    shard.leaseLog.reset();
+                } catch (IOException ioe) {
+                    log.warn("清空种子租约日志失败,分片:{}", shard.getIndex(), ioe);
                 }
-
-                bloomFilters.put(String.valueOf(segment), BloomFilter.create(new Funnel<Seed>() {
-                    @Override
-                    public void funnel(Seed from, PrimitiveSink into) {
-                        into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
+                shard.timingWheel.clear();
+                // 所有段和优先级的运行库
+                for (String databaseName : shard.databaseNames()) {
+                    if (databaseName.startsWith(RUNNING_SEGMENT_PREFIX)) {
+                        shard.removeDatabase(databaseName);
                     }
-                }, expectedNumber));
+                }
             }
-
-            // default segment
-            String segmentName = RUNNING_SEGMENT_PREFIX + defaultSegment;
-            if (databaseNames.contains(segmentName)) {
-                env.removeDatabase(null, segmentName);
+        }
+        synchronized (this) {
+            for (Long segment : allSegments) {
+                clearFinishedIndex(String.valueOf(segment));
+                clearBloomFilter(String.valueOf(segment));
             }
 
-            segmentName = FINISHED_SEGMENT_PREFIX + defaultSegment;
-            if (databaseNames.contains(segmentName)) {
-                env.removeDatabase(null, segmentName);
-            }
+            // default segment
+            clearFinishedIndex(defaultSegment);
+            FileUtils.deleteQuietly(new File(vsCrawlerContext.getWorkPath(), BULK_IMPORT_DIRECTORY));
+            statistics.reset();
+            statistics.checkpoint(true);
+        }
+        clearBloomFilter(defaultSegment);
+        log.info("清空种子库,丢弃内存中的种子:{}", discarded);
+    }
 
+    private void clearFinishedIndex(String segment) {
+        try {
+            finishedIndex(segment).clear();
+        } catch (IOException ioe) {
+            log.warn("清空完成种子索引失败,段:{}", segment, ioe);
         }
-        bloomFilters.put(defaultSegment, BloomFilter.create(new Funnel<Seed>() {
-            @Override
-            public void funnel(Seed from, PrimitiveSink into) {
-                into.putString(seedKeyResolver.resolveSeedKey(from), Charset.defaultCharset());
-            }
-        }, expectedNumber));
     }
 
+    /**
+     * @return 成功和失败的种子数目
+     */
     public long finishedSeed() {
         if (isClosed) {
             return 0;
         }
-        long recordSize = 0;
-        // default segment
-        String segmentName = FINISHED_SEGMENT_PREFIX + defaultSegment;
-        recordSize += createOrGetDataBase(segmentName).count();
-        for (Long segment : allSegments) {
-            segmentName = FINISHED_SEGMENT_PREFIX + segment;
-            recordSize += createOrGetDataBase(segmentName).count();
-        }
-        return recordSize;
+        return statistics.finished() + statistics.failed();
     }
 
+    /**
+     * @return 所有的种子数目, 包括种子库中的, 内存中的和已经结束的
+     */
     public long totalSeed() {
         if (isClosed) {
             return 0;
         }
-        long recordSize = 0;
-        for (Long segment : allSegments) {
-            String segmentName = RUNNING_SEGMENT_PREFIX + segment;
-            recordSize += createOrGetDataBase(segmentName).count();
+        return statistics.pending() + inMemorySeed() + finishedSeed();
+    }
+
+    /**
+     * @return 按照段和host统计的种子数目
+     */
+    public FrontierStatus frontierStatus() {
+        FrontierStatus frontierStatus = statistics.snapshot();
+        frontierStatus.setInMemory(inMemorySeed());
+        return frontierStatus;
+    }
+
+    private long inMemorySeed() {
+        long ret = runningSeeds.size() + retryScheduler.size();
+        for (SeedShard shard : shards) {
+            ret += shard.ramCache.size();
         }
-        // default segment
-        String segmentName = RUNNING_SEGMENT_PREFIX + defaultSegment;
-        recordSize += createOrGetDataBase(segmentName).count();
-        return recordSize + finishedSeed();
+        return ret;
     }
 }
@@ -0,0 +1,49 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.hash.Funnel;
+
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/13.<br>
+ * 布隆过滤器的参数,堆内实现和文件映射实现共用
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+class BloomFilterConfig<T> {
+    private final Funnel<T> funnel;
+    private final long initialCapacity;
+    private final double targetFpp;
+    private final double growthFactor;
+    private final double tighteningRatio;
+
+    BloomFilterConfig(Funnel<T> funnel, long initialCapacity, double targetFpp, double growthFactor,
+            double tighteningRatio) {
+        this.funnel = funnel;
+        this.initialCapacity = Math.max(initialCapacity, 1);
+        this.targetFpp = targetFpp > 0 && targetFpp < 1 ? targetFpp : 0.03;
+        this.growthFactor = growthFactor < 1 ? 2 : growthFactor;
+        this.tighteningRatio = tighteningRatio > 0 && tighteningRatio < 1 ? tighteningRatio : 0.85;
+    }
+
+    /**
+     * 第index个子过滤器的误判率,所有子过滤器误判率之和收敛于targetFpp
+     */
+    double subFilterFpp(int index) {
+        return targetFpp * (1 - tighteningRatio) * Math.pow(tighteningRatio, index);
+    }
+
+    ScalableBloomFilter<T> newScalable() {
+        return new ScalableBloomFilter<>(funnel, initialCapacity, targetFpp, growthFactor, tighteningRatio);
+    }
+
+    ScalableBloomFilter<T> readScalable(InputStream inputStream) throws IOException {
+        return ScalableBloomFilter.readFrom(inputStream, funnel, initialCapacity, targetFpp, growthFactor,
+                tighteningRatio);
+    }
+}
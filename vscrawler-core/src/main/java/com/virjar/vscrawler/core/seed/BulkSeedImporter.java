@@ -0,0 +1,449 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.virjar.dungproxy.client.ningclient.concurrent.NamedThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/19.<br>
+ * 大文件种子的批量导入,一行一个种子,支持gzip压缩的文件。<br>
+ * 读取线程使用大缓冲区顺序读取文件,按照换行切分为数MB的块;解析线程池并行的把块解码为种子并在块内消重,
+ * 然后每个块作为一个批次写入种子库,写入由组提交线程完成,种子库本身的布隆过滤器和完成索引负责全局消重。<br>
+ * 每个块记录结束位置(解压之后的字节偏移),连续写入完成的最大偏移定期写入进度文件,重启之后从这个偏移继续导入,
+ * 普通文件直接定位,gzip文件需要解压跳过前面的数据。文件导入完成之后不会重复导入,除非文件大小或者修改时间发生变化
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class BulkSeedImporter {
+    private static final int CHUNK_SIZE = 4 << 20;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final long PROGRESS_REPORT_INTERVAL_MILLIS = 10000;
+    private static final long PROGRESS_SAVE_INTERVAL_MILLIS = 1000;
+
+    private static final String PROGRESS_PATH = "path";
+    private static final String PROGRESS_LENGTH = "length";
+    private static final String PROGRESS_LAST_MODIFIED = "lastModified";
+    private static final String PROGRESS_OFFSET = "offset";
+    private static final String PROGRESS_FINISHED = "finished";
+
+    private final BerkeleyDBSeedManager seedManager;
+    private final File seedFile;
+    private final File progressFile;
+    private final Charset charset;
+    private final int threads;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong linesRead = new AtomicLong(0);
+    private final AtomicLong seedsImported = new AtomicLong(0);
+    private volatile CountingInputStream rawInput;
+    /**
+     * 普通文件断点续传的时候直接定位,计数从这个位置开始
+     */
+    private volatile long rawInputBase = 0;
+
+    /**
+     * 按照块的顺序推进已经落盘的偏移
+     */
+    private final Map<Long, Long> completedChunks = Maps.newHashMap();
+    private long nextCommitSequence = 0;
+    private volatile long committedOffset = 0;
+    private long lastSaveTimeStamp = 0;
+
+    public BulkSeedImporter(BerkeleyDBSeedManager seedManager, File seedFile, File progressDirectory, Charset charset,
+            int threads) {
+        this.seedManager = seedManager;
+        this.seedFile = seedFile;
+        this.progressFile = new File(progressDirectory, seedFile.getName() + "."
+                + Hashing.murmur3_32().hashString(seedFile.getAbsolutePath(), Charsets.UTF_8) + ".progress");
+        this.charset = charset;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * 在后台线程中导入
+     *
+     * @return 导入的种子数目
+     */
+    public ListenableFuture<Long> start() {
+        final SettableFuture<Long> ret = SettableFuture.create();
+        Thread thread = new Thread("VSCrawlerSeedImport-" + seedFile.getName()) {
+            @Override
+            public void run() {
+                try {
+                    ret.set(importFile());
+                } catch (Throwable throwable) {
+                    log.error("种子文件导入失败:{}", seedFile.getAbsolutePath(), throwable);
+                    ret.setException(throwable);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return ret;
+    }
+
+    /**
+     * 停止导入,已经读取的块写入完成之后返回,进度保留
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    public long getSeedsImported() {
+        return seedsImported.get();
+    }
+
+    /**
+     * @return 读取进度, [0,1]
+     */
+    public double progress() {
+        CountingInputStream countingInputStream = rawInput;
+        if (countingInputStream == null || seedFile.length() == 0) {
+            return 0;
+        }
+        return Math.min((rawInputBase + countingInputStream.getCount()) / (double) seedFile.length(), 1D);
+    }
+
+    private long importFile() throws IOException {
+        Properties progress = loadProgress();
+        if (BooleanUtils.toBoolean(progress.getProperty(PROGRESS_FINISHED))) {
+            log.info("种子文件已经导入过:{}", seedFile.getAbsolutePath());
+            return 0;
+        }
+        long startOffset = NumberUtils.toLong(progress.getProperty(PROGRESS_OFFSET), 0);
+        committedOffset = startOffset;
+        if (startOffset > 0) {
+            log.info("种子文件:{} 从偏移:{} 继续导入", seedFile.getAbsolutePath(), startOffset);
+        }
+
+        InputStream inputStream = openStream(startOffset);
+        final BlockingQueue<Chunk> chunkQueue = new ArrayBlockingQueue<>(threads * 2);
+        ExecutorService parsers = Executors.newFixedThreadPool(threads,
+                new NamedThreadFactory("VSCrawlerSeedImportParser", true));
+        final Chunk end = new Chunk(-1, null, 0, 0);
+        final AtomicLong failed = new AtomicLong(0);
+        for (int i = 0; i < threads; i++) {
+            parsers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        Chunk chunk;
+                        try {
+                            chunk = chunkQueue.take();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (chunk == end) {
+                            return;
+                        }
+                        try {
+                            importChunk(chunk);
+                        } catch (Exception e) {
+                            log.error("种子块导入失败,偏移:{}", chunk.endOffset, e);
+                            failed.incrementAndGet();
+                            running = false;
+                        }
+                    }
+                }
+            });
+        }
+
+        long startTimeStamp = System.currentTimeMillis();
+        try {
+            long sequence = 0;
+            long offset = startOffset;
+            long lastReportTimeStamp = startTimeStamp;
+            byte[] carry = new byte[0];
+            int carryLength = 0;
+            boolean eof = false;
+            while (running && !eof) {
+                byte[] buffer = new byte[Math.max(CHUNK_SIZE, carryLength * 2)];
+                System.arraycopy(carry, 0, buffer, 0, carryLength);
+                int length = carryLength;
+                int lastNewLine = -1;
+                while (true) {
+                    int read = inputStream.read(buffer, length, buffer.length - length);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += read;
+                    if (length == buffer.length) {
+                        lastNewLine = lastIndexOf(buffer, length);
+                        if (lastNewLine >= 0) {
+                            break;
+                        }
+                        // 单行超过了块大小,扩大缓冲区
+                        byte[] larger = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, larger, 0, length);
+                        buffer = larger;
+                    }
+                }
+                int chunkLength = eof ? length : lastNewLine + 1;
+                carryLength = length - chunkLength;
+                carry = new byte[carryLength];
+                System.arraycopy(buffer, chunkLength, carry, 0, carryLength);
+                if (chunkLength > 0) {
+                    offset += chunkLength;
+                    putQueue(chunkQueue, new Chunk(sequence++, buffer, chunkLength, offset));
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastReportTimeStamp > PROGRESS_REPORT_INTERVAL_MILLIS) {
+                    lastReportTimeStamp = now;
+                    reportProgress(startTimeStamp);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+            for (int i = 0; i < threads; i++) {
+                putQueue(chunkQueue, end);
+            }
+            parsers.shutdown();
+            try {
+                parsers.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean finished = running && failed.get() == 0;
+        saveProgress(finished);
+        reportProgress(startTimeStamp);
+        log.info("种子文件:{} {},导入种子数目:{}", seedFile.getAbsolutePath(), finished ? "导入完成" : "导入中断",
+                seedsImported.get());
+        return seedsImported.get();
+    }
+
+    private void importChunk(Chunk chunk) {
+        // 块内消重,保持文件中的顺序
+        Set<String> lines = Sets.newLinkedHashSet();
+        byte[] data = chunk.data;
+        int lineStart = 0;
+        long lineCount = 0;
+        for (int i = 0; i <= chunk.length; i++) {
+            if (i < chunk.length && data[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart || i < chunk.length) {
+                lineCount++;
+            }
+            if (lineEnd > lineStart) {
+                String line = new String(data, lineStart, lineEnd - lineStart, charset).trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            lineStart = i + 1;
+        }
+        linesRead.addAndGet(lineCount);
+        List<Seed> seeds = Lists.newArrayListWithCapacity(lines.size());
+        for (String line : lines) {
+            seeds.add(new Seed(line));
+        }
+        if (!seeds.isEmpty()) {
+            // 等待落盘之后才能推进偏移,同时限制了写入队列中积压的数据
+            Integer imported = Futures.getUnchecked(seedManager.addNewSeeds(seeds));
+            if (seedManager.isClosed()) {
+                // 种子库关闭的时候拒绝写入,不能推进偏移
+                throw new IllegalStateException("seed manager closed");
+            }
+            if (imported != null) {
+                seedsImported.addAndGet(imported);
+            }
+        }
+        onChunkCommitted(chunk);
+    }
+
+    private synchronized void onChunkCommitted(Chunk chunk) {
+        completedChunks.put(chunk.sequence, chunk.endOffset);
+        while (completedChunks.containsKey(nextCommitSequence)) {
+            committedOffset = completedChunks.remove(nextCommitSequence);
+            nextCommitSequence++;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSaveTimeStamp > PROGRESS_SAVE_INTERVAL_MILLIS) {
+            lastSaveTimeStamp = now;
+            saveProgress(false);
+        }
+    }
+
+    private void reportProgress(long startTimeStamp) {
+        long cost = Math.max(System.currentTimeMillis() - startTimeStamp, 1);
+        log.info("种子文件导入进度:{}% 读取行数:{} 导入种子数:{} 速度:{}行/秒", String.format("%.2f", progress() * 100),
+                linesRead.get(), seedsImported.get(), linesRead.get() * 1000 / cost);
+    }
+
+    private InputStream openStream(long offset) throws IOException {
+        boolean gzip = isGzip();
+        FileInputStream fileInputStream = new FileInputStream(seedFile);
+        try {
+            if (!gzip && offset > 0) {
+                fileInputStream.getChannel().position(offset);
+                rawInputBase = offset;
+            }
+            CountingInputStream countingInputStream = new CountingInputStream(
+                    new BufferedInputStream(fileInputStream, READ_BUFFER_SIZE));
+            rawInput = countingInputStream;
+            if (!gzip) {
+                return countingInputStream;
+            }
+            InputStream gzipInputStream = new BufferedInputStream(
+                    new GZIPInputStream(countingInputStream, READ_BUFFER_SIZE), READ_BUFFER_SIZE);
+            long remain = offset;
+            while (remain > 0) {
+                long skipped = gzipInputStream.skip(remain);
+                if (skipped <= 0) {
+                    throw new IOException("seed file is shorter than import offset:" + offset);
+                }
+                remain -= skipped;
+            }
+            return gzipInputStream;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(fileInputStream);
+            throw e;
+        }
+    }
+
+    private boolean isGzip() throws IOException {
+        if (seedFile.getName().endsWith(".gz")) {
+            return true;
+        }
+        InputStream inputStream = new FileInputStream(seedFile);
+        try {
+            return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private Properties loadProgress() {
+        Properties properties = new Properties();
+        if (!progressFile.exists()) {
+            return properties;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(progressFile);
+            properties.load(inputStream);
+        } catch (IOException e) {
+            log.warn("读取种子导入进度失败:{}", progressFile.getAbsolutePath(), e);
+            return new Properties();
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        // 文件发生了变化,重新导入
+        if (!seedFile.getAbsolutePath().equals(properties.getProperty(PROGRESS_PATH))
+                || seedFile.length() != NumberUtils.toLong(properties.getProperty(PROGRESS_LENGTH), -1)
+                || seedFile.lastModified() != NumberUtils.toLong(properties.getProperty(PROGRESS_LAST_MODIFIED), -1)) {
+            return new Properties();
+        }
+        return properties;
+    }
+
+    private synchronized void saveProgress(boolean finished) {
+        Properties properties = new Properties();
+        properties.setProperty(PROGRESS_PATH, seedFile.getAbsolutePath());
+        properties.setProperty(PROGRESS_LENGTH, String.valueOf(seedFile.length()));
+        properties.setProperty(PROGRESS_LAST_MODIFIED, String.valueOf(seedFile.lastModified()));
+        properties.setProperty(PROGRESS_OFFSET, String.valueOf(committedOffset));
+        properties.setProperty(PROGRESS_FINISHED, String.valueOf(finished));
+        File parent = progressFile.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            log.warn("不能创建种子导入进度目录:{}", parent.getAbsolutePath());
+            return;
+        }
+        File tmp = new File(parent, progressFile.getName() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tmp);
+            properties.store(outputStream, "vsCrawler seed import progress");
+            outputStream.close();
+            if (!tmp.renameTo(progressFile) && (!progressFile.delete() || !tmp.renameTo(progressFile))) {
+                log.warn("写入种子导入进度失败:{}", progressFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            log.warn("写入种子导入进度失败:{}", progressFile.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    private static int lastIndexOf(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void putQueue(BlockingQueue<Chunk> queue, Chunk chunk) {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Chunk {
+        private final long sequence;
+        private final byte[] data;
+        private final int length;
+        /**
+         * 块结束的位置,解压之后的字节偏移
+         */
+        private final long endOffset;
+
+        Chunk(long sequence, byte[] data, int length, long endOffset) {
+            this.sequence = sequence;
+            this.data = data;
+            this.length = length;
+            this.endOffset = endOffset;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+
+/**
+ * Created by virjar on 2018/3/15.<br>
+ * 种子内存缓存的高低水位。缓存低于低水位的时候后台开始加载,一直加载到高水位。<br>
+ * 开启自适应之后,根据观察到的消费速度和单次加载耗时调整水位:低水位至少要能覆盖两次加载的耗时,
+ * 保证加载完成之前缓存不会被消费完;高水位至少是低水位的两倍,减少加载次数。自适应的水位不低于配置值,不超过配置高水位的4倍
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class CacheWatermark {
+    private static final int MAX_HIGH_WATER_FACTOR = 4;
+    /**
+     * 指数加权平均的平滑系数
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private volatile int configLowWater;
+    private volatile int configHighWater;
+    private volatile boolean adaptive = true;
+
+    private volatile int lowWater;
+    private volatile int highWater;
+
+    private AtomicLong polledCount = new AtomicLong(0);
+    private long lastPolledCount = 0;
+    private long lastSampleTimeStamp = System.currentTimeMillis();
+    /**
+     * 消费速度,单位:种子/毫秒
+     */
+    private double consumeRate = 0;
+    private double loadCostMillis = 0;
+
+    CacheWatermark(int cacheSize) {
+        configLowWater = Math.max(cacheSize / 2, 1);
+        configHighWater = Math.max(cacheSize, configLowWater + 1);
+        lowWater = configLowWater;
+        highWater = configHighWater;
+    }
+
+    void config(Properties properties, int cacheSize) {
+        int newHighWater = NumberUtils.toInt(
+                properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_CACHE_HIGH_WATER_MARK), cacheSize);
+        int newLowWater = NumberUtils.toInt(
+                properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_CACHE_LOW_WATER_MARK),
+                newHighWater / 2);
+        configHighWater = Math.max(newHighWater, 2);
+        configLowWater = Math.min(Math.max(newLowWater, 1), configHighWater - 1);
+        adaptive = BooleanUtils.toBooleanDefaultIfNull(BooleanUtils.toBooleanObject(
+                properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_CACHE_ADAPTIVE_WATER_MARK)), true);
+        adjust();
+    }
+
+    void onPoll() {
+        polledCount.incrementAndGet();
+    }
+
+    /**
+     * 一次加载完成之后调用,多个分片的加载线程可能同时调用
+     *
+     * @param costMillis 加载耗时
+     */
+    synchronized void onLoad(long costMillis) {
+        long now = System.currentTimeMillis();
+        long polled = polledCount.get();
+        long duration = now - lastSampleTimeStamp;
+        if (duration > 0) {
+            double rate = (polled - lastPolledCount) / (double) duration;
+            consumeRate = consumeRate == 0 ? rate : consumeRate * (1 - SMOOTHING) + rate * SMOOTHING;
+        }
+        loadCostMillis = loadCostMillis == 0 ? costMillis : loadCostMillis * (1 - SMOOTHING) + costMillis * SMOOTHING;
+        lastPolledCount = polled;
+        lastSampleTimeStamp = now;
+        adjust();
+    }
+
+    private void adjust() {
+        if (!adaptive) {
+            lowWater = configLowWater;
+            highWater = configHighWater;
+            return;
+        }
+        int maxHighWater = configHighWater * MAX_HIGH_WATER_FACTOR;
+        long expectedConsume = (long) Math.ceil(consumeRate * loadCostMillis * 2);
+        int newLowWater = (int) Math.min(Math.max(configLowWater, expectedConsume), maxHighWater / 2);
+        int newHighWater = Math.min(Math.max(configHighWater, newLowWater * 2), maxHighWater);
+        highWater = newHighWater;
+        lowWater = newLowWater;
+    }
+
+    int lowWater() {
+        return lowWater;
+    }
+
+    int highWater() {
+        return highWater;
+    }
+}
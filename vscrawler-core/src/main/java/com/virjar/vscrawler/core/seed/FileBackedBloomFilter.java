@@ -0,0 +1,83 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/13.<br>
+ * 堆内的可扩容布隆过滤器,启动的时候从&lt;segment&gt;.bloom文件整体读入,爬虫关闭的时候整体写出
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class FileBackedBloomFilter<T> implements PersistentBloomFilter<T> {
+    private final File bloomData;
+    private final BloomFilterConfig<T> config;
+    private volatile ScalableBloomFilter<T> bloomFilter;
+
+    private FileBackedBloomFilter(File bloomData, BloomFilterConfig<T> config, ScalableBloomFilter<T> bloomFilter) {
+        this.bloomData = bloomData;
+        this.config = config;
+        this.bloomFilter = bloomFilter;
+    }
+
+    static <T> FileBackedBloomFilter<T> load(File bloomData, BloomFilterConfig<T> config) {
+        if (bloomData.exists()) {
+            InputStream inputStream = null;
+            try {
+                inputStream = new BufferedInputStream(new FileInputStream(bloomData));
+                return new FileBackedBloomFilter<>(bloomData, config, config.readScalable(inputStream));
+            } catch (IOException ioe) {
+                log.warn("不能读取BloomFilter数据,消重逻辑可能转移到数据库,性能可能受到影响", ioe);
+                if (!bloomData.delete()) {
+                    log.warn("delete bloom failed:{}", bloomData.getAbsoluteFile());
+                }
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+        // any way, build a filter instance if not exist
+        return new FileBackedBloomFilter<>(bloomData, config, config.newScalable());
+    }
+
+    @Override
+    public boolean mightContain(T object) {
+        return bloomFilter.mightContain(object);
+    }
+
+    @Override
+    public boolean put(T object) {
+        return bloomFilter.put(object);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void clear() {
+        bloomFilter = config.newScalable();
+    }
+
+    @Override
+    public void close() throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(bloomData));
+        try {
+            bloomFilter.writeTo(outputStream);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+}
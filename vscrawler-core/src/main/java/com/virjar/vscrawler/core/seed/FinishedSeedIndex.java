@@ -0,0 +1,627 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/17.<br>
+ * 完成种子的消重索引,替代原来在完成库中保存完整种子数据的方式,每个完成的种子只占用16字节的指纹。<br>
+ * 指纹为{@link SeedKeyEncoder#fingerprint128(String)},和种子库指纹主键使用同一个哈希,64位主键模式下主键就是指纹的高64位。
+ * 完成索引里没有完整的种子key,无法像种子库一样通过溢出主键处理冲突,所以总是保存128位指纹:
+ * 两个种子的64位主键冲突的时候低64位仍然不同,新种子不会因为和完成的种子主键冲突而被丢弃。<br>
+ * 结构类似LSM:新完成的种子指纹先追加到日志文件 &lt;segment&gt;.fp.log 并放入内存表,内存表满了之后排序写成一个只读的有序文件
+ * &lt;segment&gt;.&lt;id&gt;.run,文件映射到内存,每隔{@link #SPARSE_INTERVAL}个指纹在堆内保留一个稀疏索引,
+ * 查询时先二分稀疏索引定位块,再在块内二分。有序文件数目超过{@link #MAX_RUNS}的时候合并为一个。<br>
+ * 老版本的索引只有64位指纹,启动的时候旧日志写成一个64位的有序文件,64位的有序文件只按照高64位比较并且不参与合并。所有方法都是同步的
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class FinishedSeedIndex {
+    /**
+     * 64位指纹的有序文件
+     */
+    private static final int MAGIC_64 = 0x46534931;
+    /**
+     * 128位指纹的有序文件
+     */
+    private static final int MAGIC_128 = 0x46534932;
+    /**
+     * [magic 4byte][指纹数目 8byte][合并的最大文件id 8byte][每个指纹的long数目 4byte]
+     */
+    private static final int HEADER_SIZE = 24;
+    private static final int SPARSE_INTERVAL = 256;
+    private static final int MEM_TABLE_LIMIT = 1 << 16;
+    private static final int MAX_RUNS = 8;
+    /**
+     * 单次映射不能超过2G
+     */
+    private static final long MAX_RUN_ENTRIES = (Integer.MAX_VALUE - HEADER_SIZE) / 16;
+
+    private static final String RUN_SUFFIX = ".run";
+    private static final String LOG_SUFFIX = ".fp.log";
+    /**
+     * 老版本的64位指纹日志
+     */
+    private static final String LEGACY_LOG_SUFFIX = ".log";
+
+    private final File directory;
+    private final String segment;
+
+    private Set<Fingerprint> memTable = Sets.newHashSet();
+    private DataOutputStream logOutput;
+    private FileOutputStream logFile;
+    private boolean dirty = false;
+
+    private List<Run> runs = Lists.newArrayList();
+    /**
+     * 老版本的64位有序文件,不参与合并
+     */
+    private List<Run> legacyRuns = Lists.newArrayList();
+    private long nextRunId = 0;
+    private long count = 0;
+
+    private FinishedSeedIndex(File directory, String segment) {
+        this.directory = directory;
+        this.segment = segment;
+    }
+
+    static FinishedSeedIndex open(File directory, String segment) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(directory.getAbsolutePath() + "文件夹创建失败");
+        }
+        FinishedSeedIndex index = new FinishedSeedIndex(directory, segment);
+        index.loadRuns();
+        index.convertLegacyLog();
+        index.replayLog();
+        return index;
+    }
+
+    /**
+     * @param high 指纹的高64位
+     * @param low  指纹的低64位
+     */
+    synchronized boolean contains(long high, long low) {
+        if (memTable.contains(new Fingerprint(high, low))) {
+            return true;
+        }
+        for (Run run : runs) {
+            if (run.contains(high, low)) {
+                return true;
+            }
+        }
+        for (Run run : legacyRuns) {
+            if (run.contains(high, low)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean contains(long[] fingerprint) {
+        return contains(fingerprint[0], fingerprint[1]);
+    }
+
+    /**
+     * @param fingerprint {@link SeedKeyEncoder#fingerprint128(String)}
+     * @return 指纹之前不存在, 新增成功
+     */
+    synchronized boolean add(long[] fingerprint) throws IOException {
+        long high = fingerprint[0];
+        long low = fingerprint[1];
+        if (contains(high, low)) {
+            return false;
+        }
+        logOutput.writeLong(high);
+        logOutput.writeLong(low);
+        memTable.add(new Fingerprint(high, low));
+        count++;
+        dirty = true;
+        if (memTable.size() >= MEM_TABLE_LIMIT) {
+            flushMemTable();
+        }
+        return true;
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    /**
+     * 日志写入操作系统,fsync为true的时候强制落盘
+     */
+    synchronized void flush(boolean fsync) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        logOutput.flush();
+        if (fsync) {
+            logFile.getFD().sync();
+        }
+        dirty = false;
+    }
+
+    synchronized void clear() throws IOException {
+        IOUtils.closeQuietly(logOutput);
+        for (Run run : Iterables.concat(runs, legacyRuns)) {
+            run.close();
+            deleteFile(run.file);
+        }
+        runs.clear();
+        legacyRuns.clear();
+        memTable.clear();
+        count = 0;
+        openLog(false);
+    }
+
+    /**
+     * 内存表写成有序文件,然后关闭
+     */
+    synchronized void close() throws IOException {
+        if (!memTable.isEmpty()) {
+            flushMemTable();
+        }
+        IOUtils.closeQuietly(logOutput);
+        for (Run run : Iterables.concat(runs, legacyRuns)) {
+            run.close();
+        }
+        runs.clear();
+        legacyRuns.clear();
+    }
+
+    private void loadRuns() throws IOException {
+        File[] files = directory.listFiles();
+        List<Run> loaded = Lists.newArrayList();
+        // 64位和128位的有序文件分别合并,合并覆盖的范围只对同一种文件有效
+        long[] coveredRunId = new long[] { -1, -1, -1 };
+        if (files != null) {
+            for (File file : files) {
+                long id = runId(file);
+                if (id < 0) {
+                    continue;
+                }
+                Run run = Run.open(file, id);
+                loaded.add(run);
+                coveredRunId[run.width] = Math.max(coveredRunId[run.width], run.coveredRunId);
+                nextRunId = Math.max(nextRunId, id + 1);
+            }
+        }
+        for (Run run : loaded) {
+            // 合并之后没有删除成功的旧文件
+            if (run.id <= coveredRunId[run.width]) {
+                run.close();
+                deleteFile(run.file);
+                continue;
+            }
+            if (run.width == 1) {
+                legacyRuns.add(run);
+            } else {
+                runs.add(run);
+            }
+            count += run.size;
+        }
+    }
+
+    /**
+     * 老版本的64位日志写成一个64位有序文件
+     */
+    private void convertLegacyLog() throws IOException {
+        File legacyLog = new File(directory, segment + LEGACY_LOG_SUFFIX);
+        if (!legacyLog.exists()) {
+            return;
+        }
+        Set<Long> fingerprints = Sets.newHashSet();
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(legacyLog)));
+        try {
+            while (true) {
+                long fingerprint = inputStream.readLong();
+                if (!containsLegacy(fingerprint)) {
+                    fingerprints.add(fingerprint);
+                }
+            }
+        } catch (EOFException e) {
+            // 日志末尾可能有不完整的记录,直接丢弃
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        if (!fingerprints.isEmpty()) {
+            long[] sorted = Longs.toArray(fingerprints);
+            Arrays.sort(sorted);
+            long id = nextRunId++;
+            File file = runFile(id);
+            writeRun(file, new EntryIterator(sorted, 1), 1, -1);
+            legacyRuns.add(Run.open(file, id));
+            count += sorted.length;
+        }
+        deleteFile(legacyLog);
+    }
+
+    private boolean containsLegacy(long high) {
+        for (Run run : legacyRuns) {
+            if (run.contains(high, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void replayLog() throws IOException {
+        File log = new File(directory, segment + LOG_SUFFIX);
+        if (log.exists()) {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            try {
+                while (true) {
+                    long high = inputStream.readLong();
+                    long low = inputStream.readLong();
+                    if (!contains(high, low) && memTable.add(new Fingerprint(high, low))) {
+                        count++;
+                    }
+                }
+            } catch (EOFException e) {
+                // 日志末尾可能有不完整的记录,直接丢弃
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+        // 重新写入日志,去掉不完整的记录
+        openLog(false);
+        for (Fingerprint fingerprint : memTable) {
+            logOutput.writeLong(fingerprint.high);
+            logOutput.writeLong(fingerprint.low);
+        }
+        logOutput.flush();
+    }
+
+    private void openLog(boolean append) throws IOException {
+        logFile = new FileOutputStream(new File(directory, segment + LOG_SUFFIX), append);
+        logOutput = new DataOutputStream(new BufferedOutputStream(logFile, 8192));
+    }
+
+    private void flushMemTable() throws IOException {
+        Fingerprint[] fingerprints = memTable.toArray(new Fingerprint[memTable.size()]);
+        Arrays.sort(fingerprints);
+        long[] entries = new long[fingerprints.length * 2];
+        for (int i = 0; i < fingerprints.length; i++) {
+            entries[i * 2] = fingerprints[i].high;
+            entries[i * 2 + 1] = fingerprints[i].low;
+        }
+        long id = nextRunId++;
+        File file = runFile(id);
+        writeRun(file, new EntryIterator(entries, 2), 2, -1);
+        runs.add(Run.open(file, id));
+        memTable.clear();
+        // 数据已经在有序文件中,日志可以清空
+        IOUtils.closeQuietly(logOutput);
+        openLog(false);
+        dirty = false;
+        if (runs.size() > MAX_RUNS) {
+            compact();
+        }
+    }
+
+    /**
+     * 所有128位有序文件多路归并为一个,不同文件之间的指纹没有重复
+     */
+    private void compact() throws IOException {
+        long total = 0;
+        for (Run run : runs) {
+            total += run.size;
+        }
+        if (total > MAX_RUN_ENTRIES) {
+            log.warn("完成种子索引过大,不再合并,段:{} 指纹数目:{}", segment, total);
+            return;
+        }
+        long id = nextRunId++;
+        File file = runFile(id);
+        writeRun(file, new MergeIterator(runs), 2, id - 1);
+        List<Run> merged = runs;
+        runs = Lists.newArrayList();
+        runs.add(Run.open(file, id));
+        for (Run run : merged) {
+            run.close();
+            deleteFile(run.file);
+        }
+        log.info("合并完成种子索引,段:{} 文件数目:{} 指纹数目:{}", segment, merged.size(), total);
+    }
+
+    private File runFile(long id) {
+        return new File(directory, segment + "." + id + RUN_SUFFIX);
+    }
+
+    private long runId(File file) {
+        String name = file.getName();
+        String prefix = segment + ".";
+        if (!name.startsWith(prefix) || !name.endsWith(RUN_SUFFIX)) {
+            return -1;
+        }
+        return NumberUtils.toLong(name.substring(prefix.length(), name.length() - RUN_SUFFIX.length()), -1);
+    }
+
+    /**
+     * 先写临时文件再改名,进程中途退出不会留下不完整的有序文件
+     */
+    private static void writeRun(File file, EntryIterator iterator, int width, long coveredRunId)
+            throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(tmp);
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 1 << 16));
+        try {
+            outputStream.writeInt(width == 1 ? MAGIC_64 : MAGIC_128);
+            outputStream.writeLong(iterator.size());
+            outputStream.writeLong(coveredRunId);
+            outputStream.writeInt(width == 1 ? 0 : width);
+            while (iterator.hasNext()) {
+                outputStream.writeLong(iterator.next());
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not rename " + tmp.getAbsolutePath() + " to " + file.getAbsolutePath());
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete()) {
+            log.warn("删除完成种子索引文件失败:{}", file.getAbsolutePath());
+            file.deleteOnExit();
+        }
+    }
+
+    private static class Fingerprint implements Comparable<Fingerprint> {
+        private final long high;
+        private final long low;
+
+        Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int compareTo(Fingerprint o) {
+            if (high != o.high) {
+                return high < o.high ? -1 : 1;
+            }
+            return low < o.low ? -1 : (low == o.low ? 0 : 1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32) ^ low);
+        }
+    }
+
+    private static class Run {
+        private final File file;
+        private final long id;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private final int size;
+        private final long coveredRunId;
+        /**
+         * 每个指纹的long数目,老版本的有序文件为1
+         */
+        private final int width;
+        private final long[] sparseIndex;
+
+        private Run(File file, long id, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int size,
+                long coveredRunId, int width) {
+            this.file = file;
+            this.id = id;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+            this.size = size;
+            this.coveredRunId = coveredRunId;
+            this.width = width;
+            this.sparseIndex = new long[(size + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL];
+            for (int i = 0; i < sparseIndex.length; i++) {
+                sparseIndex[i] = high(i * SPARSE_INTERVAL);
+            }
+        }
+
+        static Run open(File file, long id) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                long length = randomAccessFile.length();
+                if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new IOException("illegal finished seed index file:" + file.getAbsolutePath());
+                }
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                int width;
+                if (buffer.getInt(0) == MAGIC_64) {
+                    width = 1;
+                } else if (buffer.getInt(0) == MAGIC_128 && buffer.getInt(20) == 2) {
+                    width = 2;
+                } else {
+                    throw new IOException("illegal finished seed index file:" + file.getAbsolutePath());
+                }
+                long size = buffer.getLong(4);
+                if (HEADER_SIZE + size * 8 * width != length) {
+                    throw new IOException("finished seed index file truncated:" + file.getAbsolutePath());
+                }
+                return new Run(file, id, randomAccessFile, buffer, (int) size, buffer.getLong(12), width);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(randomAccessFile);
+                throw e;
+            }
+        }
+
+        long high(int index) {
+            return buffer.getLong(HEADER_SIZE + index * 8 * width);
+        }
+
+        long low(int index) {
+            return buffer.getLong(HEADER_SIZE + index * 8 * width + 8);
+        }
+
+        /**
+         * 64位的有序文件只比较高64位
+         */
+        boolean contains(long high, long low) {
+            // 最后一个稀疏索引小于high的块,高64位等于high的指纹不会出现在这个块之前
+            int block = Arrays.binarySearch(sparseIndex, high);
+            if (block >= 0) {
+                // 相同的高64位可能跨越多个块
+                while (block > 0 && sparseIndex[block - 1] == high) {
+                    block--;
+                }
+                block = Math.max(block - 1, 0);
+            } else {
+                block = Math.max(-block - 2, 0);
+            }
+            // 在块内找到第一个高64位不小于high的位置
+            int from = block * SPARSE_INTERVAL;
+            int to = Math.min(from + SPARSE_INTERVAL, size);
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (high(middle) < high) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            for (int i = from; i < size && high(i) == high; i++) {
+                if (width == 1 || low(i) == low) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            IOUtils.closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * 按照顺序输出有序文件中的long
+     */
+    private static class EntryIterator {
+        private final long[] data;
+        private final int width;
+        private int position = 0;
+
+        EntryIterator(long[] data, int width) {
+            this.data = data;
+            this.width = width;
+        }
+
+        long size() {
+            return data.length / width;
+        }
+
+        boolean hasNext() {
+            return position < data.length;
+        }
+
+        long next() {
+            return data[position++];
+        }
+    }
+
+    private static class MergeIterator extends EntryIterator {
+        private final List<Run> runs;
+        private final int[] positions;
+        private final long size;
+        /**
+         * 当前指纹的低64位还没有输出的run
+         */
+        private int pendingLow = -1;
+
+        MergeIterator(List<Run> runs) {
+            super(new long[0], 2);
+            this.runs = runs;
+            this.positions = new int[runs.size()];
+            long total = 0;
+            for (Run run : runs) {
+                total += run.size;
+            }
+            this.size = total;
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+
+        @Override
+        boolean hasNext() {
+            if (pendingLow >= 0) {
+                return true;
+            }
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] < runs.get(i).size) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        long next() {
+            if (pendingLow >= 0) {
+                Run run = runs.get(pendingLow);
+                long low = run.low(positions[pendingLow]++);
+                pendingLow = -1;
+                return low;
+            }
+            int minRun = -1;
+            for (int i = 0; i < positions.length; i++) {
+                if (positions[i] >= runs.get(i).size) {
+                    continue;
+                }
+                if (minRun < 0 || compare(runs.get(i), positions[i], runs.get(minRun), positions[minRun]) < 0) {
+                    minRun = i;
+                }
+            }
+            pendingLow = minRun;
+            return runs.get(minRun).high(positions[minRun]);
+        }
+
+        private static int compare(Run run1, int index1, Run run2, int index2) {
+            long high1 = run1.high(index1);
+            long high2 = run2.high(index2);
+            if (high1 != high2) {
+                return high1 < high2 ? -1 : 1;
+            }
+            long low1 = run1.low(index1);
+            long low2 = run2.low(index2);
+            return low1 < low2 ? -1 : (low1 == low2 ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.sleepycat.je.*;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/17.<br>
+ * 把老版本保存完整种子数据的完成库(FINISHED_SEGMENT_PREFIX_*)迁移到{@link FinishedSeedIndex},迁移完成之后删除完成库。<br>
+ * 指纹直接从主键计算,只有64位指纹主键模式需要从种子数据中取出种子key计算128位指纹。迁移可以重复执行,中途退出之后再次执行会从头导入没有删除的完成库。<br>
+ * 种子管理器启动的时候会自动迁移,也可以在爬虫停止的时候离线执行:
+ * <pre>
+ * java -cp vscrawler-core.jar com.virjar.vscrawler.core.seed.FinishedSeedIndexMigrator &lt;爬虫工作目录&gt;
+ * </pre>
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class FinishedSeedIndexMigrator {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: FinishedSeedIndexMigrator <crawler work path>");
+            System.exit(1);
+        }
+        File workPath = new File(args[0]);
+        EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        environmentConfig.setAllowCreate(false);
+        Environment env = new Environment(new File(workPath, BerkeleyDBSeedManager.DB_DIRECTORY), environmentConfig);
+        try {
+            long migrated = migrate(env, new File(workPath, BerkeleyDBSeedManager.FINISHED_INDEX_DIRECTORY),
+                    new DefaultSeedKeyResolver());
+            System.out.println("migrated finished seeds:" + migrated);
+        } finally {
+            IOUtils.closeQuietly(env);
+        }
+    }
+
+    /**
+     * 按照种子库记录的主键模式迁移
+     *
+     * @param env            种子库环境
+     * @param indexDirectory 完成种子索引目录
+     * @param seedKeyResolver 种子key的计算方式,需要和爬虫使用的一致
+     * @return 迁移的种子数目
+     */
+    public static long migrate(Environment env, File indexDirectory, SeedKeyResolver seedKeyResolver)
+            throws IOException {
+        return migrate(env, indexDirectory, new SeedKeyEncoder(storedKeyMode(env)), seedKeyResolver);
+    }
+
+    static long migrate(Environment env, File indexDirectory, SeedKeyEncoder seedKeyEncoder,
+            SeedKeyResolver seedKeyResolver) throws IOException {
+        long migrated = 0;
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(false);
+        for (String databaseName : env.getDatabaseNames()) {
+            if (!databaseName.startsWith(BerkeleyDBSeedManager.FINISHED_SEGMENT_PREFIX)) {
+                continue;
+            }
+            String segment = databaseName.substring(BerkeleyDBSeedManager.FINISHED_SEGMENT_PREFIX.length());
+            long segmentMigrated = 0;
+            FinishedSeedIndex finishedSeedIndex = FinishedSeedIndex.open(indexDirectory, segment);
+            Database database = env.openDatabase(null, databaseName, databaseConfig);
+            Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+            try {
+                DatabaseEntry key = new DatabaseEntry();
+                DatabaseEntry value = new DatabaseEntry();
+                if (seedKeyEncoder.getMode() != SeedKeyEncoder.MODE_FINGERPRINT_64) {
+                    // 只需要主键
+                    value.setPartial(0, 0, true);
+                }
+                while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                    if (finishedSeedIndex
+                            .add(seedKeyEncoder.fingerprint128(key.getData(), value.getData(), seedKeyResolver))) {
+                        segmentMigrated++;
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(cursor);
+                IOUtils.closeQuietly(database);
+                finishedSeedIndex.close();
+            }
+            // 索引已经落盘,才能删除完成库
+            env.removeDatabase(null, databaseName);
+            log.info("完成库:{} 迁移到完成种子索引,种子数目:{}", databaseName, segmentMigrated);
+            migrated += segmentMigrated;
+        }
+        return migrated;
+    }
+
+    private static int storedKeyMode(Environment env) {
+        if (!env.getDatabaseNames().contains(BerkeleyDBSeedManager.STORE_META)) {
+            return SeedKeyEncoder.MODE_STRING;
+        }
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(false);
+        Database metaDatabase = env.openDatabase(null, BerkeleyDBSeedManager.STORE_META, databaseConfig);
+        try {
+            DatabaseEntry value = new DatabaseEntry();
+            if (metaDatabase.get(null, new DatabaseEntry(BerkeleyDBSeedManager.META_KEY_MODE.getBytes()), value,
+                    LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+                return SeedKeyEncoder.MODE_STRING;
+            }
+            return NumberUtils.toInt(new String(value.getData()), SeedKeyEncoder.MODE_STRING);
+        } finally {
+            IOUtils.closeQuietly(metaDatabase);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.virjar.vscrawler.core.politeness.HostPolitenessScheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/18.<br>
+ * 种子库的计数器,按照全局,段,host三个维度统计等待派发,完成和失败的种子数目,查询不需要访问db。<br>
+ * 计数器和种子写入在同一个写区间内更新,检查点的时候整体写入元数据表。为了判断检查点之后是否有过写入,
+ * 检查点之后的第一次写入之前会先写入一个脏标记,检查点的时候删除。JE的日志是顺序的,恢复出来的任何一次写入都排在脏标记之后,
+ * 所以启动的时候没有脏标记,说明检查点的计数和db中的数据一致;存在脏标记说明上次异常退出,需要扫描db重建计数。<br>
+ * host的数目没有上限,每个host的计数器单独存储,检查点只写入有变化的host,长时间没有变化的host从内存中淘汰,
+ * 再次写入的时候从元数据表还原。<br>
+ * 元数据表存储在第0个分片中
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class FrontierStatistics {
+    private static final byte[] SNAPSHOT_KEY = "frontierStatistics".getBytes();
+    private static final byte[] DIRTY_KEY = "frontierStatistics.dirty".getBytes();
+    private static final byte[] HOST_KEY_PREFIX = "frontierStatistics.host.".getBytes(Charsets.UTF_8);
+    private static final int MAGIC = 0x46535432;
+    /**
+     * 旧版本的检查点,所有host的计数和全局计数写在同一条记录中
+     */
+    private static final int LEGACY_MAGIC = 0x46535431;
+
+    /**
+     * snapshot最多返回的host数目
+     */
+    static final int MAX_HOST_STATUS = 100;
+    /**
+     * 内存中最多保留的host计数器数目
+     */
+    private static final int MAX_RESIDENT_HOSTS = 10000;
+    /**
+     * host计数器超过这个时间没有变化,在检查点的时候从内存中淘汰
+     */
+    private static final long HOST_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Database metaDatabase;
+
+    private final Counter total = new Counter();
+    private final ConcurrentMap<String, Counter> segments = Maps.newConcurrentMap();
+    /**
+     * 最近有变化的host,其他host的计数只存在于元数据表
+     */
+    private final ConcurrentMap<String, Counter> hosts = Maps.newConcurrentMap();
+
+    /**
+     * 写区间持有读锁,检查点持有写锁,检查点的快照不会包含写了一半的数据
+     */
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private volatile boolean dirty = false;
+
+    FrontierStatistics(Database metaDatabase) {
+        this.metaDatabase = metaDatabase;
+    }
+
+    /**
+     * 从检查点还原计数器
+     *
+     * @return 检查点和db中的数据一致, 返回false的时候需要调用方重建计数
+     */
+    boolean load() {
+        DatabaseEntry value = new DatabaseEntry();
+        if (metaDatabase.get(null, new DatabaseEntry(DIRTY_KEY), value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+            dirty = true;
+            return false;
+        }
+        if (metaDatabase.get(null, new DatabaseEntry(SNAPSHOT_KEY), value,
+                LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+            return false;
+        }
+        try {
+            decode(value.getData());
+            return true;
+        } catch (IOException e) {
+            log.warn("种子统计数据损坏", e);
+            reset();
+            return false;
+        }
+    }
+
+    /**
+     * 进入写区间,所有会改变计数器的db写入都需要在写区间内完成
+     */
+    void beginWrite() {
+        checkpointLock.readLock().lock();
+        if (!dirty) {
+            markDirty();
+        }
+    }
+
+    void endWrite() {
+        checkpointLock.readLock().unlock();
+    }
+
+    private synchronized void markDirty() {
+        if (dirty) {
+            return;
+        }
+        metaDatabase.put(null, new DatabaseEntry(DIRTY_KEY), new DatabaseEntry(new byte[] { 1 }));
+        // 种子库分片之后,其他分片的写入不在元数据表所在的日志中,脏标记需要先于它们写出
+        metaDatabase.getEnvironment().flushLog(false);
+        dirty = true;
+    }
+
+    /**
+     * 种子写入运行库或者时间轮
+     */
+    void onStore(String segment, Seed seed) {
+        update(segment, seed, 1, 0, 0);
+    }
+
+    /**
+     * 种子从运行库加载到内存
+     */
+    void onLoad(String segment, Seed seed) {
+        update(segment, seed, -1, 0, 0);
+    }
+
+    /**
+     * 种子处理结束
+     */
+    void onEnd(String segment, Seed seed) {
+        if (seed.isIgnore() || seed.getStatus() == Seed.STATUS_SUCCESS) {
+            update(segment, seed, 0, 1, 0);
+        } else {
+            update(segment, seed, 0, 0, 1);
+        }
+    }
+
+    /**
+     * 重建的时候使用,完成索引中只有指纹,无法区分成功和失败,也无法区分host
+     */
+    void addFinished(String segment, long finished) {
+        total.finished.addAndGet(finished);
+        counter(segments, segment).finished.addAndGet(finished);
+    }
+
+    private void update(String segment, Seed seed, long pending, long finished, long failed) {
+        total.add(pending, finished, failed);
+        counter(segments, String.valueOf(segment)).add(pending, finished, failed);
+        hostCounter(HostPolitenessScheduler.resolveHost(seed.getData())).add(pending, finished, failed);
+    }
+
+    /**
+     * 在写区间内调用,检查点不会同时淘汰计数器
+     */
+    private Counter hostCounter(String host) {
+        Counter counter = hosts.get(host);
+        if (counter != null) {
+            return counter;
+        }
+        counter = new Counter();
+        // 已经被淘汰的host从元数据表还原
+        DatabaseEntry value = new DatabaseEntry();
+        if (metaDatabase.get(null, new DatabaseEntry(hostKey(host)), value,
+                LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+            try {
+                counter.readFrom(new DataInputStream(new ByteArrayInputStream(value.getData())));
+            } catch (IOException e) {
+                log.warn("host:{} 的种子统计数据损坏", host, e);
+            }
+        }
+        Counter old = hosts.putIfAbsent(host, counter);
+        return old == null ? counter : old;
+    }
+
+    private static Counter counter(ConcurrentMap<String, Counter> counters, String key) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            Counter old = counters.putIfAbsent(key, counter);
+            if (old != null) {
+                counter = old;
+            }
+        }
+        return counter;
+    }
+
+    void reset() {
+        checkpointLock.writeLock().lock();
+        try {
+            total.pending.set(0);
+            total.finished.set(0);
+            total.failed.set(0);
+            segments.clear();
+            hosts.clear();
+            removeHostRecords();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入检查点并清除脏标记,上一个检查点之后没有写入的时候什么都不做
+     *
+     * @param force 即使没有写入也写检查点
+     */
+    void checkpoint(boolean force) {
+        checkpointLock.writeLock().lock();
+        try {
+            if (!dirty && !force) {
+                return;
+            }
+            metaDatabase.put(null, new DatabaseEntry(SNAPSHOT_KEY), new DatabaseEntry(encode()));
+            checkpointHosts();
+            metaDatabase.delete(null, new DatabaseEntry(DIRTY_KEY));
+            dirty = false;
+        } catch (IOException e) {
+            // 内存流不会抛出异常
+            throw new IllegalStateException(e);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入有变化的host计数器,然后淘汰空闲的host
+     */
+    private void checkpointHosts() throws IOException {
+        long idleTimeStamp = System.currentTimeMillis() - HOST_IDLE_MILLIS;
+        Iterator<Map.Entry<String, Counter>> iterator = hosts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Counter> entry = iterator.next();
+            Counter counter = entry.getValue();
+            if (counter.dirty) {
+                metaDatabase.put(null, new DatabaseEntry(hostKey(entry.getKey())),
+                        new DatabaseEntry(counter.encode()));
+                counter.dirty = false;
+            }
+            if (counter.lastUpdate < idleTimeStamp) {
+                iterator.remove();
+            }
+        }
+        if (hosts.size() <= MAX_RESIDENT_HOSTS) {
+            return;
+        }
+        // host太多的时候,只保留最近有变化的部分
+        List<Map.Entry<String, Counter>> residents = Lists.newArrayList(hosts.entrySet());
+        Collections.sort(residents, new Comparator<Map.Entry<String, Counter>>() {
+            @Override
+            public int compare(Map.Entry<String, Counter> o1, Map.Entry<String, Counter> o2) {
+                return Long.compare(o1.getValue().lastUpdate, o2.getValue().lastUpdate);
+            }
+        });
+        for (Map.Entry<String, Counter> entry : residents.subList(0, residents.size() - MAX_RESIDENT_HOSTS)) {
+            hosts.remove(entry.getKey());
+        }
+    }
+
+    private void removeHostRecords() {
+        Cursor cursor = metaDatabase.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry(HOST_KEY_PREFIX);
+            DatabaseEntry value = new DatabaseEntry();
+            value.setPartial(0, 0, true);
+            OperationStatus status = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT);
+            while (status == OperationStatus.SUCCESS && isHostKey(key.getData())) {
+                cursor.delete();
+                status = cursor.getNext(key, value, LockMode.DEFAULT);
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+    }
+
+    private static byte[] hostKey(String host) {
+        byte[] hostData = String.valueOf(host).getBytes(Charsets.UTF_8);
+        byte[] key = Arrays.copyOf(HOST_KEY_PREFIX, HOST_KEY_PREFIX.length + hostData.length);
+        System.arraycopy(hostData, 0, key, HOST_KEY_PREFIX.length, hostData.length);
+        return key;
+    }
+
+    private static boolean isHostKey(byte[] key) {
+        if (key.length < HOST_KEY_PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < HOST_KEY_PREFIX.length; i++) {
+            if (key[i] != HOST_KEY_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long pending() {
+        return total.pending.get();
+    }
+
+    long finished() {
+        return total.finished.get();
+    }
+
+    long failed() {
+        return total.failed.get();
+    }
+
+    FrontierStatus snapshot() {
+        FrontierStatus frontierStatus = new FrontierStatus();
+        frontierStatus.setTotal(total.snapshot());
+        frontierStatus.setSegments(snapshot(segments));
+        frontierStatus.setHosts(hostSnapshot());
+        return frontierStatus;
+    }
+
+    /**
+     * @return 内存中等待派发的种子最多的host, 最多返回MAX_HOST_STATUS个
+     */
+    private Map<String, SeedCounter> hostSnapshot() {
+        List<Map.Entry<String, SeedCounter>> ret = Lists.newArrayListWithExpectedSize(hosts.size());
+        for (Map.Entry<String, Counter> entry : hosts.entrySet()) {
+            ret.add(Maps.immutableEntry(entry.getKey(), entry.getValue().snapshot()));
+        }
+        if (ret.size() > MAX_HOST_STATUS) {
+            Collections.sort(ret, new Comparator<Map.Entry<String, SeedCounter>>() {
+                @Override
+                public int compare(Map.Entry<String, SeedCounter> o1, Map.Entry<String, SeedCounter> o2) {
+                    return Long.compare(o2.getValue().getPending(), o1.getValue().getPending());
+                }
+            });
+            ret = ret.subList(0, MAX_HOST_STATUS);
+        }
+        Map<String, SeedCounter> hostCounters = Maps.newTreeMap();
+        for (Map.Entry<String, SeedCounter> entry : ret) {
+            hostCounters.put(entry.getKey(), entry.getValue());
+        }
+        return hostCounters;
+    }
+
+    private static Map<String, SeedCounter> snapshot(Map<String, Counter> counters) {
+        Map<String, SeedCounter> ret = Maps.newTreeMap();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return ret;
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+        DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+        outputStream.writeInt(MAGIC);
+        total.writeTo(outputStream);
+        writeCounters(outputStream, segments);
+        outputStream.flush();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static void writeCounters(DataOutputStream outputStream, Map<String, Counter> counters)
+            throws IOException {
+        Map<String, Counter> copy = Maps.newHashMap(counters);
+        outputStream.writeInt(copy.size());
+        for (Map.Entry<String, Counter> entry : copy.entrySet()) {
+            outputStream.writeUTF(entry.getKey());
+            entry.getValue().writeTo(outputStream);
+        }
+    }
+
+    private void decode(byte[] data) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+        int magic = inputStream.readInt();
+        if (magic != MAGIC && magic != LEGACY_MAGIC) {
+            throw new IOException("illegal frontier statistics data");
+        }
+        total.readFrom(inputStream);
+        readCounters(inputStream, segments);
+        if (magic == LEGACY_MAGIC) {
+            // 旧版本的host计数在下一个检查点拆分为单独的记录
+            readCounters(inputStream, hosts);
+            for (Counter counter : hosts.values()) {
+                counter.dirty = true;
+            }
+        }
+    }
+
+    private static void readCounters(DataInputStream inputStream, Map<String, Counter> counters) throws IOException {
+        int size = inputStream.readInt();
+        for (int i = 0; i < size; i++) {
+            Counter counter = new Counter();
+            String key = inputStream.readUTF();
+            counter.readFrom(inputStream);
+            counters.put(key, counter);
+        }
+    }
+
+    private static class Counter {
+        private final AtomicLong pending = new AtomicLong(0);
+        private final AtomicLong finished = new AtomicLong(0);
+        private final AtomicLong failed = new AtomicLong(0);
+        /**
+         * 上一个检查点之后是否有变化,只对host计数器有意义
+         */
+        private volatile boolean dirty = false;
+        private volatile long lastUpdate = 0;
+
+        void add(long pendingDelta, long finishedDelta, long failedDelta) {
+            dirty = true;
+            lastUpdate = System.currentTimeMillis();
+            if (pendingDelta != 0) {
+                pending.addAndGet(pendingDelta);
+            }
+            if (finishedDelta != 0) {
+                finished.addAndGet(finishedDelta);
+            }
+            if (failedDelta != 0) {
+                failed.addAndGet(failedDelta);
+            }
+        }
+
+        SeedCounter snapshot() {
+            return new SeedCounter(pending.get(), finished.get(), failed.get());
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(24);
+            DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+            writeTo(outputStream);
+            outputStream.flush();
+            return byteArrayOutputStream.toByteArray();
+        }
+
+        void writeTo(DataOutputStream outputStream) throws IOException {
+            outputStream.writeLong(pending.get());
+            outputStream.writeLong(finished.get());
+            outputStream.writeLong(failed.get());
+        }
+
+        void readFrom(DataInputStream inputStream) throws IOException {
+            pending.set(inputStream.readLong());
+            finished.set(inputStream.readLong());
+            failed.set(inputStream.readLong());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * Created by virjar on 2018/3/18.<br>
+ * 种子库的统计信息,用于监控展示
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Data
+public class FrontierStatus {
+    private SeedCounter total;
+    /**
+     * 内存缓存,正在处理和等待重试的种子数目
+     */
+    private long inMemory;
+    private Map<String, SeedCounter> segments;
+    private Map<String, SeedCounter> hosts;
+}
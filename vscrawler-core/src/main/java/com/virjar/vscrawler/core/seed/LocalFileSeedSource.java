@@ -76,24 +76,14 @@ public class LocalFileSeedSource implements InitSeedSource, LoadNextBatchSeedEve
 
     @Override
     public Collection<Seed> initSeeds(VSCrawlerContext vsCrawlerContext) {
-        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
-        String seedFilePath = PathResolver.resolveAbsolutePath(properties.getProperty(String.format(VSCrawlerConstant.VSCRAWLER_INIT_SEED_FILE, vsCrawlerContext.getCrawlerName())));
-        if (StringUtils.isBlank(seedFilePath) || !new File(seedFilePath).exists()) {
-            if (StringUtils.isNotBlank(seedFilePath)) {
-                log.warn("can not find file:{}", seedFilePath);
-            }
-            seedFilePath = PathResolver.resolveAbsolutePath(filePath);
-        }
-        if (StringUtils.isEmpty(seedFilePath) || !new File(seedFilePath).exists()) {
-            if (StringUtils.isNotBlank(seedFilePath)) {
-                log.warn("can not find file:{}", seedFilePath);
-            }
+        File seedFile = resolveSeedFile(vsCrawlerContext);
+        if (seedFile == null) {
             return Collections.emptyList();
         }
         vsCrawlerContext.getAutoEventRegistry().registerEvent(LoadNextBatchSeedEvent.class);
         Collection<Seed> seeds = null;
         try {
-            fileReader = new FileReader(new File(PathResolver.resolveAbsolutePath(seedFilePath)));
+            fileReader = new FileReader(seedFile);
             lineReader = new LineReader(fileReader);
             seeds = readBatch();
             return seeds;
@@ -105,6 +95,29 @@ public class LocalFileSeedSource implements InitSeedSource, LoadNextBatchSeedEve
         }
     }
 
+    /**
+     * 种子管理器使用{@link BulkSeedImporter}导入这个文件,不再经过事件循环分批投递
+     *
+     * @return 种子文件, 不存在返回null
+     */
+    File resolveSeedFile(VSCrawlerContext vsCrawlerContext) {
+        Properties properties = VSCrawlerContext.vsCrawlerConfigFileWatcher.loadedProperties();
+        String seedFilePath = PathResolver.resolveAbsolutePath(properties.getProperty(String.format(VSCrawlerConstant.VSCRAWLER_INIT_SEED_FILE, vsCrawlerContext.getCrawlerName())));
+        if (StringUtils.isBlank(seedFilePath) || !new File(seedFilePath).exists()) {
+            if (StringUtils.isNotBlank(seedFilePath)) {
+                log.warn("can not find file:{}", seedFilePath);
+            }
+            seedFilePath = PathResolver.resolveAbsolutePath(filePath);
+        }
+        if (StringUtils.isEmpty(seedFilePath) || !new File(seedFilePath).exists()) {
+            if (StringUtils.isNotBlank(seedFilePath)) {
+                log.warn("can not find file:{}", seedFilePath);
+            }
+            return null;
+        }
+        return new File(PathResolver.resolveAbsolutePath(seedFilePath));
+    }
+
     private void closeOrReadNextBatch(Collection<Seed> seeds, VSCrawlerContext vsCrawlerContext) {
         if (seeds != null && seeds.size() > 0) {
             vsCrawlerContext.getAutoEventRegistry().findEventDeclaring(LoadNextBatchSeedEvent.class).nextBatch(vsCrawlerContext);
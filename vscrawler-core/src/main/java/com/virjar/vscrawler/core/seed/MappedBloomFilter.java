@@ -0,0 +1,352 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/13.<br>
+ * 基于内存映射文件的可扩容布隆过滤器。每个子过滤器是工作目录下的一个文件 &lt;name&gt;.&lt;index&gt;.mmap,
+ * 位数组直接映射到文件上原地修改,数据不占用java堆,启动的时候只需要映射文件,不需要读取整个文件。<br>
+ * 写入的数据由操作系统异步刷盘,flush会调用force强制落盘,进程被kill -9的时候最多丢失最近一个刷盘周期的数据。<br>
+ * 哈希方式和guava BloomFilter默认的MURMUR128_MITZ_64策略一致,位数组布局也相同,所以可以把旧的.bloom文件按位导入。<br>
+ * 和堆内实现一样,put需要外部保证单线程,mightContain可以并发调用,种子库通过synchronized (bloomFilter)保证
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class MappedBloomFilter<T> implements PersistentBloomFilter<T> {
+    private static final String FILE_SUFFIX = ".mmap";
+
+    /**
+     * guava MURMUR128_MITZ_64策略的序号
+     */
+    private static final int GUAVA_MITZ_64_ORDINAL = 1;
+
+    /**
+     * 单个子过滤器文件大小上限,超过之后不再按倍数扩容,避免超出单次映射的上限
+     */
+    private static final long MAX_FILE_SIZE = 1L << 30;
+
+    private final File directory;
+    private final String name;
+    private final BloomFilterConfig<T> config;
+    private final List<MappedSubFilter> filters = new CopyOnWriteArrayList<>();
+
+    private MappedBloomFilter(File directory, String name, BloomFilterConfig<T> config) {
+        this.directory = directory;
+        this.name = name;
+        this.config = config;
+    }
+
+    /**
+     * 打开已经存在的映射文件,如果没有映射文件但是存在旧的.bloom文件,则把旧文件导入为映射文件
+     *
+     * @param directory  工作目录
+     * @param name       文件名前缀
+     * @param legacyFile 旧的堆内过滤器数据
+     * @param config     过滤器参数
+     */
+    static <T> MappedBloomFilter<T> open(File directory, String name, File legacyFile, BloomFilterConfig<T> config)
+            throws IOException {
+        MappedBloomFilter<T> ret = new MappedBloomFilter<>(directory, name, config);
+        for (int i = 0;; i++) {
+            File file = ret.subFilterFile(i);
+            if (!file.exists()) {
+                break;
+            }
+            ret.filters.add(MappedSubFilter.open(file));
+        }
+        if (ret.filters.isEmpty() && legacyFile != null && legacyFile.exists()) {
+            ret.importLegacy(legacyFile);
+        }
+        return ret;
+    }
+
+    private File subFilterFile(int index) {
+        return new File(directory, name + "." + index + FILE_SUFFIX);
+    }
+
+    /**
+     * 旧文件通过堆内实现读取,统一转换为链式格式之后按位写入映射文件,只在第一次切换的时候执行
+     */
+    private void importLegacy(File legacyFile) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(legacyFile));
+        try {
+            config.readScalable(inputStream).writeTo(byteArrayOutputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        DataInputStream dataInputStream = new DataInputStream(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        // 链式格式: [magic][version][子过滤器个数 int]{[容量 long][元素数 long][误判率 double][guava序列化数据]}
+        dataInputStream.readByte();
+        dataInputStream.readByte();
+        int filterNumber = dataInputStream.readInt();
+        for (int i = 0; i < filterNumber; i++) {
+            long capacity = dataInputStream.readLong();
+            long count = dataInputStream.readLong();
+            double fpp = dataInputStream.readDouble();
+            int strategy = dataInputStream.readByte();
+            int numHashFunctions = dataInputStream.readUnsignedByte();
+            int numLongs = dataInputStream.readInt();
+            if (strategy != GUAVA_MITZ_64_ORDINAL) {
+                clearFiles();
+                throw new IOException("unsupported bloom filter strategy:" + strategy);
+            }
+            MappedSubFilter subFilter = MappedSubFilter.create(subFilterFile(i), numHashFunctions, numLongs,
+                    capacity, fpp);
+            for (int j = 0; j < numLongs; j++) {
+                subFilter.setWord(j, dataInputStream.readLong());
+            }
+            subFilter.setCount(count);
+            filters.add(subFilter);
+        }
+        flush();
+        log.info("布隆过滤器数据:{} 导入到映射文件,子过滤器个数:{}", legacyFile.getAbsolutePath(), filterNumber);
+    }
+
+    @Override
+    public boolean mightContain(T object) {
+        byte[] hash = Hashing.murmur3_128().hashObject(object, config.getFunnel()).asBytes();
+        long hash1 = lowerEight(hash);
+        long hash2 = upperEight(hash);
+        for (MappedSubFilter filter : filters) {
+            if (filter.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean put(T object) {
+        byte[] hash = Hashing.murmur3_128().hashObject(object, config.getFunnel()).asBytes();
+        long hash1 = lowerEight(hash);
+        long hash2 = upperEight(hash);
+        for (MappedSubFilter filter : filters) {
+            if (filter.mightContain(hash1, hash2)) {
+                return false;
+            }
+        }
+        MappedSubFilter current = currentFilter();
+        if (current.put(hash1, hash2)) {
+            current.setCount(current.count + 1);
+        }
+        return true;
+    }
+
+    private MappedSubFilter currentFilter() {
+        MappedSubFilter current = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+        if (current != null && current.count < current.capacity) {
+            return current;
+        }
+        int index = filters.size();
+        long capacity = current == null ? config.getInitialCapacity()
+                : (long) Math.min(current.capacity * config.getGrowthFactor(), Long.MAX_VALUE / 2);
+        double fpp = config.subFilterFpp(index);
+        long numBits = (long) (-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        long numLongs = Math.max((numBits + 63) / 64, 1);
+        if (numLongs * 8 + MappedSubFilter.HEADER_SIZE > MAX_FILE_SIZE) {
+            // 文件大小封顶,按照封顶的位数组重新计算能够满足误判率的容量
+            numLongs = (MAX_FILE_SIZE - MappedSubFilter.HEADER_SIZE) / 8;
+            numBits = numLongs * 64;
+            capacity = (long) (-numBits * (Math.log(2) * Math.log(2)) / Math.log(fpp));
+        }
+        int numHashFunctions = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+        MappedSubFilter newFilter;
+        try {
+            newFilter = MappedSubFilter.create(subFilterFile(index), numHashFunctions, (int) numLongs, capacity,
+                    fpp);
+        } catch (IOException e) {
+            throw new IllegalStateException("can not create bloom filter file:" + subFilterFile(index), e);
+        }
+        filters.add(newFilter);
+        return newFilter;
+    }
+
+    @Override
+    public void flush() {
+        for (MappedSubFilter filter : filters) {
+            filter.buffer.force();
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        clearFiles();
+    }
+
+    private void clearFiles() throws IOException {
+        for (MappedSubFilter filter : filters) {
+            filter.close();
+        }
+        filters.clear();
+        for (int i = 0;; i++) {
+            File file = subFilterFile(i);
+            if (!file.exists()) {
+                break;
+            }
+            if (!file.delete()) {
+                throw new IOException("can not delete bloom filter file:" + file.getAbsolutePath());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedSubFilter filter : filters) {
+            filter.buffer.force();
+            filter.close();
+        }
+    }
+
+    private static long lowerEight(byte[] bytes) {
+        return Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2], bytes[1], bytes[0]);
+    }
+
+    private static long upperEight(byte[] bytes) {
+        return Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11], bytes[10], bytes[9], bytes[8]);
+    }
+
+    /**
+     * 文件格式: [magic int][version int][哈希函数个数 int][long数组长度 int][容量 long][元素数 long][误判率 double],
+     * 头部补齐到64字节,之后是位数组
+     */
+    private static class MappedSubFilter {
+        static final int HEADER_SIZE = 64;
+        private static final int MAGIC = 0x56534246;
+        private static final int VERSION_1 = 1;
+        private static final int COUNT_OFFSET = 24;
+
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private final int numHashFunctions;
+        private final long bitSize;
+        private final long capacity;
+        private volatile long count;
+
+        private MappedSubFilter(RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+            this.numHashFunctions = buffer.getInt(8);
+            this.bitSize = buffer.getInt(12) * 64L;
+            this.capacity = buffer.getLong(16);
+            this.count = buffer.getLong(COUNT_OFFSET);
+        }
+
+        static MappedSubFilter create(File file, int numHashFunctions, int numLongs, long capacity, double fpp)
+                throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                long size = HEADER_SIZE + numLongs * 8L;
+                randomAccessFile.setLength(size);
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION_1);
+                buffer.putInt(8, numHashFunctions);
+                buffer.putInt(12, numLongs);
+                buffer.putLong(16, capacity);
+                buffer.putLong(COUNT_OFFSET, 0);
+                buffer.putDouble(32, fpp);
+                return new MappedSubFilter(randomAccessFile, buffer);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(randomAccessFile);
+                throw e;
+            }
+        }
+
+        static MappedSubFilter open(File file) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                long size = randomAccessFile.length();
+                if (size < HEADER_SIZE) {
+                    throw new IOException("bloom filter file truncated:" + file.getAbsolutePath());
+                }
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION_1) {
+                    throw new IOException("not a bloom filter file:" + file.getAbsolutePath());
+                }
+                if (HEADER_SIZE + buffer.getInt(12) * 8L != size) {
+                    throw new IOException("bloom filter file size mismatch:" + file.getAbsolutePath());
+                }
+                return new MappedSubFilter(randomAccessFile, buffer);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(randomAccessFile);
+                throw e;
+            }
+        }
+
+        boolean mightContain(long hash1, long hash2) {
+            long combinedHash = hash1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                if (!getBit((combinedHash & Long.MAX_VALUE) % bitSize)) {
+                    return false;
+                }
+                combinedHash += hash2;
+            }
+            return true;
+        }
+
+        boolean put(long hash1, long hash2) {
+            boolean changed = false;
+            long combinedHash = hash1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                changed |= setBit((combinedHash & Long.MAX_VALUE) % bitSize);
+                combinedHash += hash2;
+            }
+            return changed;
+        }
+
+        private boolean getBit(long index) {
+            return (buffer.getLong(wordOffset(index)) & (1L << index)) != 0;
+        }
+
+        private boolean setBit(long index) {
+            int offset = wordOffset(index);
+            long word = buffer.getLong(offset);
+            long mask = 1L << index;
+            if ((word & mask) != 0) {
+                return false;
+            }
+            buffer.putLong(offset, word | mask);
+            return true;
+        }
+
+        void setWord(int wordIndex, long word) {
+            buffer.putLong(HEADER_SIZE + wordIndex * 8, word);
+        }
+
+        void setCount(long count) {
+            this.count = count;
+            buffer.putLong(COUNT_OFFSET, count);
+        }
+
+        private static int wordOffset(long bitIndex) {
+            return HEADER_SIZE + (int) (bitIndex >>> 6) * 8;
+        }
+
+        void close() {
+            IOUtils.closeQuietly(randomAccessFile);
+        }
+    }
+}
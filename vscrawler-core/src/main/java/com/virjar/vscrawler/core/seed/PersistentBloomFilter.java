@@ -0,0 +1,31 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.IOException;
+
+/**
+ * Created by virjar on 2018/3/13.<br>
+ * 种子消重使用的可持久化布隆过滤器
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public interface PersistentBloomFilter<T> {
+    boolean mightContain(T object);
+
+    /**
+     * @return 是否是新的元素
+     */
+    boolean put(T object);
+
+    /**
+     * 定期调用的持久化点,堆内实现只在关闭的时候整体写出,这里什么也不做
+     */
+    void flush() throws IOException;
+
+    /**
+     * 清空过滤器,包括已经持久化的数据
+     */
+    void clear() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,67 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Created by virjar on 2018/3/7.<br>
+ * 按照优先级分桶的种子内存缓存,每个优先级一个无锁队列,出队的时候优先取高优先级的种子,同优先级内保持入队顺序
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class PrioritySeedCache {
+    private final List<ConcurrentLinkedQueue<Seed>> buckets = Lists.newArrayListWithCapacity(Seed.MAX_PRIORITY + 1);
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    PrioritySeedCache() {
+        for (int i = 0; i <= Seed.MAX_PRIORITY; i++) {
+            buckets.add(new ConcurrentLinkedQueue<Seed>());
+        }
+    }
+
+    void offer(Seed seed) {
+        buckets.get(Seed.normalizePriority(seed.getPriority())).offer(seed);
+        size.incrementAndGet();
+    }
+
+    Seed poll() {
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            Seed seed = buckets.get(i).poll();
+            if (seed != null) {
+                size.decrementAndGet();
+                return seed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 缓存中最高的优先级, 缓存为空返回-1
+     */
+    int highestPriority() {
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            if (!buckets.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * 丢弃缓存中所有的种子
+     */
+    void clear() {
+        while (poll() != null) {
+            // 逐个取出,保证计数和队列一致
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/8.<br>
+ * 种子重试策略,第n次重试的等待时间为 baseDelay * multiplier^(n-1),不超过maxDelay,并且叠加随机抖动,
+ * 避免同一批失败的种子在同一时刻重新打到目标站点
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+public class RetryPolicy {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(1000, 10 * 60 * 1000, 2, 0.5, -1);
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    /**
+     * 抖动比例,取值[0,1],实际等待时间在 [delay*(1-jitter), delay] 之间随机
+     */
+    private final double jitter;
+    /**
+     * 覆盖种子的最大重试次数,小于0代表使用种子本身的配置
+     */
+    private final int maxRetry;
+
+    public RetryPolicy(long baseDelayMillis, long maxDelayMillis, double multiplier, double jitter, int maxRetry) {
+        this.baseDelayMillis = Math.max(baseDelayMillis, 0);
+        this.maxDelayMillis = Math.max(maxDelayMillis, this.baseDelayMillis);
+        this.multiplier = multiplier < 1 ? 1 : multiplier;
+        this.jitter = Math.min(Math.max(jitter, 0), 1);
+        this.maxRetry = maxRetry;
+    }
+
+    /**
+     * @param retry 已经重试的次数,从1开始
+     * @return 本次重试需要等待的时间, 单位毫秒
+     */
+    public long backoffMillis(int retry) {
+        double delay = baseDelayMillis * Math.pow(multiplier, Math.max(retry - 1, 0));
+        if (delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        if (jitter > 0) {
+            delay = delay * (1 - jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return (long) delay;
+    }
+
+    /**
+     * 在种子调用retry之前调用,让错误类型对应的最大重试次数生效
+     *
+     * @param seed 种子
+     */
+    public void applyMaxRetry(Seed seed) {
+        if (maxRetry >= 0) {
+            seed.setMaxRetry(maxRetry);
+        }
+    }
+}
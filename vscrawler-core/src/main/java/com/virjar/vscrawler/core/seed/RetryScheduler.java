@@ -0,0 +1,212 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.virjar.vscrawler.core.util.VSCrawlerConstant;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/8.<br>
+ * 重试种子的延时调度。处理失败的种子不再立即写回运行库,而是按照重试策略计算退避时间,暂存在延时队列中,
+ * 到期之后才能重新被派发。<br>
+ * 重试策略可以按照异常类型单独配置,异常类型沿着继承关系和cause链匹配,都没有匹配上的使用默认策略
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+public class RetryScheduler {
+    private static final String BASE_DELAY_MILLIS = "baseDelayMillis";
+    private static final String MAX_DELAY_MILLIS = "maxDelayMillis";
+    private static final String MULTIPLIER = "multiplier";
+    private static final String JITTER = "jitter";
+    private static final String MAX_RETRY = "maxRetry";
+
+    private DelayQueue<DelayedSeed> delayQueue = new DelayQueue<>();
+
+    private volatile RetryPolicy defaultPolicy = RetryPolicy.DEFAULT;
+
+    /**
+     * 配置文件中的异常策略,配置变更的时候整体替换
+     */
+    private volatile Map<Class<?>, RetryPolicy> configPolicies = Collections.emptyMap();
+
+    /**
+     * 通过代码注册的异常策略,优先于配置文件
+     */
+    private Map<Class<?>, RetryPolicy> registeredPolicies = Maps.newConcurrentMap();
+
+    public void registerPolicy(Class<? extends Throwable> errorClass, RetryPolicy retryPolicy) {
+        registeredPolicies.put(errorClass, retryPolicy);
+    }
+
+    /**
+     * 查找异常对应的重试策略
+     *
+     * @param throwable 处理种子时候发生的异常,可以为空
+     * @return 重试策略
+     */
+    public RetryPolicy policyFor(Throwable throwable) {
+        int depth = 0;
+        while (throwable != null && depth++ < 10) {
+            Class<?> clazz = throwable.getClass();
+            while (clazz != null && clazz != Object.class) {
+                RetryPolicy retryPolicy = registeredPolicies.get(clazz);
+                if (retryPolicy == null) {
+                    retryPolicy = configPolicies.get(clazz);
+                }
+                if (retryPolicy != null) {
+                    return retryPolicy;
+                }
+                clazz = clazz.getSuperclass();
+            }
+            throwable = throwable.getCause();
+        }
+        return defaultPolicy;
+    }
+
+    /**
+     * 暂存一个需要重试的种子,种子必须已经调用过retry
+     *
+     * @param seed  种子
+     * @param cause 失败原因,可以为空
+     */
+    public void schedule(Seed seed, Throwable cause) {
+        long backoffMillis = policyFor(cause).backoffMillis(seed.getRetry());
+        log.info("种子:{} 第{}次重试,{}毫秒之后重新调度", seed.getData(), seed.getRetry(), backoffMillis);
+        delayQueue.offer(new DelayedSeed(seed, System.currentTimeMillis() + backoffMillis));
+    }
+
+    /**
+     * @return 所有已经到期的种子
+     */
+    public List<Seed> drainReady() {
+        List<DelayedSeed> ready = Lists.newLinkedList();
+        delayQueue.drainTo(ready);
+        if (ready.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Seed> ret = Lists.newArrayListWithCapacity(ready.size());
+        for (DelayedSeed delayedSeed : ready) {
+            ret.add(delayedSeed.seed);
+        }
+        return ret;
+    }
+
+    /**
+     * 取出所有暂存的种子,不管是否到期,用于清空种子库
+     */
+    public List<Seed> drainAll() {
+        List<Seed> ret = Lists.newArrayListWithCapacity(delayQueue.size());
+        for (DelayedSeed delayedSeed : delayQueue) {
+            ret.add(delayedSeed.seed);
+        }
+        delayQueue.clear();
+        return ret;
+    }
+
+    /**
+     * @return 最近一个种子到期的等待时间, 单位毫秒。没有暂存的种子返回-1
+     */
+    public long millisUntilNextReady() {
+        DelayedSeed head = delayQueue.peek();
+        if (head == null) {
+            return -1;
+        }
+        return Math.max(head.getDelay(TimeUnit.MILLISECONDS), 0);
+    }
+
+    public int size() {
+        return delayQueue.size();
+    }
+
+    public void config(Properties properties) {
+        RetryPolicy newDefaultPolicy = new RetryPolicy(
+                NumberUtils.toLong(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_RETRY_PREFIX
+                        + BASE_DELAY_MILLIS), RetryPolicy.DEFAULT.getBaseDelayMillis()),
+                NumberUtils.toLong(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_RETRY_PREFIX
+                        + MAX_DELAY_MILLIS), RetryPolicy.DEFAULT.getMaxDelayMillis()),
+                NumberUtils.toDouble(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_RETRY_PREFIX
+                        + MULTIPLIER), RetryPolicy.DEFAULT.getMultiplier()),
+                NumberUtils.toDouble(properties.getProperty(VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_RETRY_PREFIX
+                        + JITTER), RetryPolicy.DEFAULT.getJitter()),
+                -1);
+
+        // seedManager.retry.policy.<exceptionClass>.<baseDelayMillis|maxDelayMillis|multiplier|jitter|maxRetry>
+        String policyPrefix = VSCrawlerConstant.VSCRAWLER_SEED_MANAGER_RETRY_POLICY_PREFIX;
+        Map<String, Map<String, String>> policyItems = Maps.newHashMap();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(policyPrefix)) {
+                continue;
+            }
+            String classAndItem = key.substring(policyPrefix.length());
+            int index = classAndItem.lastIndexOf('.');
+            if (index <= 0) {
+                continue;
+            }
+            String className = classAndItem.substring(0, index);
+            Map<String, String> items = policyItems.get(className);
+            if (items == null) {
+                items = Maps.newHashMap();
+                policyItems.put(className, items);
+            }
+            items.put(classAndItem.substring(index + 1), properties.getProperty(key));
+        }
+
+        Map<Class<?>, RetryPolicy> newConfigPolicies = Maps.newHashMap();
+        for (Map.Entry<String, Map<String, String>> entry : policyItems.entrySet()) {
+            Class<?> errorClass;
+            try {
+                errorClass = Class.forName(entry.getKey());
+            } catch (ClassNotFoundException e) {
+                log.warn("重试策略配置的异常类型不存在:{}", entry.getKey());
+                continue;
+            }
+            Map<String, String> items = entry.getValue();
+            newConfigPolicies.put(errorClass, new RetryPolicy(
+                    NumberUtils.toLong(items.get(BASE_DELAY_MILLIS), newDefaultPolicy.getBaseDelayMillis()),
+                    NumberUtils.toLong(items.get(MAX_DELAY_MILLIS), newDefaultPolicy.getMaxDelayMillis()),
+                    NumberUtils.toDouble(items.get(MULTIPLIER), newDefaultPolicy.getMultiplier()),
+                    NumberUtils.toDouble(items.get(JITTER), newDefaultPolicy.getJitter()),
+                    NumberUtils.toInt(items.get(MAX_RETRY), -1)));
+        }
+        defaultPolicy = newDefaultPolicy;
+        configPolicies = newConfigPolicies;
+    }
+
+    private static class DelayedSeed implements Delayed {
+        private final Seed seed;
+        private final long readyTimeStamp;
+
+        DelayedSeed(Seed seed, long readyTimeStamp) {
+            this.seed = seed;
+            this.readyTimeStamp = readyTimeStamp;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyTimeStamp - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if (o instanceof DelayedSeed) {
+                long other = ((DelayedSeed) o).readyTimeStamp;
+                return readyTimeStamp < other ? -1 : (readyTimeStamp == other ? 0 : 1);
+            }
+            long diff = getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS);
+            return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Created by virjar on 2018/3/16.<br>
+ * 正在处理的种子表,以{@link SeedKeyEncoder#runningKey(String, String)}计算的long为key,开放寻址线性探测,
+ * 不需要为每个种子拼接字符串和创建map节点。<br>
+ * 两个不同的种子计算出同一个long的时候,后放入的种子存储在以字符串为key的溢出表中,溢出表通常为空。<br>
+ * 正在处理的种子由租约日志保证重启之后重新入库,这里只用于统计内存中的种子
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class RunningSeedTable {
+    private static final long EMPTY = 0L;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Seed[] values = new Seed[INITIAL_CAPACITY];
+    private int size = 0;
+    /**
+     * 每次清空加一,种子库清空之前开始处理的种子,处理结果不能再写回种子库
+     */
+    private int clearEpoch = 0;
+
+    /**
+     * 64位key冲突的种子
+     */
+    private Map<String, Seed> overflow = Maps.newHashMap();
+
+    synchronized void put(String segmentKey, String seedKey, Seed seed) {
+        long key = runningKey(segmentKey, seedKey);
+        int index = indexOf(key);
+        if (index >= 0) {
+            Seed exist = values[index];
+            // 同一个种子重复派发的时候覆盖,否则是64位key冲突
+            if (exist == seed || (StringUtils.equals(exist.getData(), seed.getData())
+                    && StringUtils.equals(exist.getSegmentKey(), seed.getSegmentKey()))) {
+                values[index] = seed;
+            } else {
+                overflow.put(segmentKey + seedKey, seed);
+            }
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        insert(key, seed);
+        size++;
+    }
+
+    /**
+     * @return 种子是否正在处理, 种子库清空之后, 清空之前取出的种子不再处于处理状态
+     */
+    synchronized boolean remove(String segmentKey, String seedKey, Seed seed) {
+        long key = runningKey(segmentKey, seedKey);
+        int index = indexOf(key);
+        if (!overflow.isEmpty()) {
+            String overflowKey = segmentKey + seedKey;
+            Seed overflowSeed = overflow.get(overflowKey);
+            if (overflowSeed != null && (overflowSeed == seed || index < 0 || values[index] != seed)) {
+                overflow.remove(overflowKey);
+                return true;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+        deleteAt(index);
+        size--;
+        return true;
+    }
+
+    synchronized void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Seed[INITIAL_CAPACITY];
+        size = 0;
+        overflow.clear();
+        clearEpoch++;
+    }
+
+    synchronized int clearEpoch() {
+        return clearEpoch;
+    }
+
+    synchronized int size() {
+        return size + overflow.size();
+    }
+
+    private static long runningKey(String segmentKey, String seedKey) {
+        long key = SeedKeyEncoder.runningKey(segmentKey, seedKey);
+        // 0作为空槽位标记
+        return key == EMPTY ? 1 : key;
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & (keys.length - 1);
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long key, Seed seed) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = seed;
+    }
+
+    /**
+     * 线性探测的删除,把后面同一个探测链上的元素向前移动,不使用墓碑标记
+     */
+    private void deleteAt(int index) {
+        int mask = keys.length - 1;
+        int hole = index;
+        int i = (index + 1) & mask;
+        while (keys[i] != EMPTY) {
+            int home = slot(keys[i]);
+            // home不在(hole, i]区间内,说明这个元素可以移动到空洞
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Seed[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new Seed[newCapacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+
+/**
+ * Created by virjar on 2018/3/12.<br>
+ * 可扩容的布隆过滤器(scalable bloom filter)。由一串子过滤器组成,当前子过滤器插满之后追加一个新的子过滤器,
+ * 新过滤器的容量按照growthFactor倍增,误判率按照tighteningRatio收紧,使得整体误判率收敛在目标值之内:<br>
+ * fpp(i) = targetFpp * (1 - tighteningRatio) * tighteningRatio^i<br>
+ * 这样初始容量不需要按照最大规模预估,小任务不浪费内存,大任务也不会因为过滤器过载而误杀新的URL。<br>
+ * 序列化格式以magic开头,读取的时候兼容旧版本直接使用guava BloomFilter写入的.bloom文件,旧文件作为第一个子过滤器继续使用。<br>
+ * put需要外部保证单线程,mightContain可以并发调用。种子库对同一个过滤器的读写都在synchronized (bloomFilter)内,
+ * 多个分片的写线程之间由这个监视器互斥
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public class ScalableBloomFilter<T> {
+    /**
+     * guava BloomFilter序列化的第一个字节是哈希策略的序号,不会和magic冲突
+     */
+    private static final int MAGIC = 0x5B;
+    private static final int VERSION_1 = 1;
+
+    private static final double LN2_SQUARE = Math.log(2) * Math.log(2);
+
+    private final Funnel<T> funnel;
+    private final long initialCapacity;
+    private final double targetFpp;
+    private final double growthFactor;
+    private final double tighteningRatio;
+
+    private final List<SubFilter<T>> filters = new CopyOnWriteArrayList<>();
+
+    public ScalableBloomFilter(Funnel<T> funnel, long initialCapacity, double targetFpp,
+            double growthFactor, double tighteningRatio) {
+        this.funnel = funnel;
+        this.initialCapacity = Math.max(initialCapacity, 1);
+        this.targetFpp = targetFpp > 0 && targetFpp < 1 ? targetFpp : 0.03;
+        this.growthFactor = growthFactor < 1 ? 2 : growthFactor;
+        this.tighteningRatio = tighteningRatio > 0 && tighteningRatio < 1 ? tighteningRatio : 0.85;
+    }
+
+    public boolean mightContain(T object) {
+        for (SubFilter<T> filter : filters) {
+            if (filter.bloomFilter.mightContain(object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 是否是新的元素
+     */
+    public boolean put(T object) {
+        if (mightContain(object)) {
+            return false;
+        }
+        SubFilter<T> current = currentFilter();
+        if (current.bloomFilter.put(object)) {
+            current.count++;
+        }
+        return true;
+    }
+
+    private SubFilter<T> currentFilter() {
+        SubFilter<T> current = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+        if (current != null && current.count < current.capacity) {
+            return current;
+        }
+        int index = filters.size();
+        long capacity = current == null ? initialCapacity
+                : (long) Math.min(current.capacity * growthFactor, Long.MAX_VALUE / 2);
+        double fpp = targetFpp * (1 - tighteningRatio) * Math.pow(tighteningRatio, index);
+        SubFilter<T> newFilter = new SubFilter<>(BloomFilter.create(funnel, capacity, fpp), capacity, 0, fpp);
+        filters.add(newFilter);
+        return newFilter;
+    }
+
+    /**
+     * @return 子过滤器数目
+     */
+    public int filterNumber() {
+        return filters.size();
+    }
+
+    /**
+     * @return 已经插入的元素数目, 旧格式文件中的元素数目是估算值
+     */
+    public long approximateElementCount() {
+        long ret = 0;
+        for (SubFilter<T> filter : filters) {
+            ret += filter.count;
+        }
+        return ret;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeByte(MAGIC);
+        dataOutputStream.writeByte(VERSION_1);
+        List<SubFilter<T>> snapshot = Lists.newArrayList(filters);
+        dataOutputStream.writeInt(snapshot.size());
+        for (SubFilter<T> filter : snapshot) {
+            dataOutputStream.writeLong(filter.capacity);
+            dataOutputStream.writeLong(filter.count);
+            dataOutputStream.writeDouble(filter.fpp);
+            filter.bloomFilter.writeTo(dataOutputStream);
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * 读取序列化的过滤器,同时兼容guava BloomFilter直接序列化的数据
+     */
+    public static <T> ScalableBloomFilter<T> readFrom(InputStream inputStream, Funnel<T> funnel,
+            long initialCapacity, double targetFpp, double growthFactor, double tighteningRatio) throws IOException {
+        ScalableBloomFilter<T> ret = new ScalableBloomFilter<>(funnel, initialCapacity, targetFpp, growthFactor,
+                tighteningRatio);
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 1);
+        int first = pushbackInputStream.read();
+        if (first < 0) {
+            throw new IOException("empty bloom filter data");
+        }
+        pushbackInputStream.unread(first);
+        if (first != MAGIC) {
+            ret.filters.add(readLegacy(pushbackInputStream, funnel, ret.targetFpp * (1 - ret.tighteningRatio)));
+            return ret;
+        }
+
+        DataInputStream dataInputStream = new DataInputStream(pushbackInputStream);
+        dataInputStream.readByte();
+        int version = dataInputStream.readByte();
+        if (version != VERSION_1) {
+            throw new IOException("unknown bloom filter version:" + version);
+        }
+        int filterNumber = dataInputStream.readInt();
+        for (int i = 0; i < filterNumber; i++) {
+            long capacity = dataInputStream.readLong();
+            long count = dataInputStream.readLong();
+            double fpp = dataInputStream.readDouble();
+            ret.filters.add(new SubFilter<>(BloomFilter.readFrom(dataInputStream, funnel), capacity, count, fpp));
+        }
+        return ret;
+    }
+
+    /**
+     * 旧文件没有记录容量和元素数目,根据位数组大小和当前的误判率反推:<br>
+     * 容量 n = -m * ln2^2 / ln(fpp)<br>
+     * 元素数目 n = -m / k * ln(1 - currentFpp^(1/k))
+     */
+    private static <T> SubFilter<T> readLegacy(InputStream inputStream, Funnel<T> funnel, double fpp)
+            throws IOException {
+        byte[] data = IOUtils.toByteArray(inputStream);
+        if (data.length < 6) {
+            throw new IOException("bloom filter data truncated");
+        }
+        BloomFilter<T> bloomFilter = BloomFilter.readFrom(new ByteArrayInputStream(data), funnel);
+        // guava序列化格式: [策略 1byte][哈希函数个数 1byte][long数组长度 int][long数组]
+        int numHashFunctions = data[1] & 0xFF;
+        long bitSize = ByteBuffer.wrap(data, 2, 4).getInt() * 64L;
+        long capacity = Math.max((long) (-bitSize * LN2_SQUARE / Math.log(fpp)), 1);
+        double currentFpp = bloomFilter.expectedFpp();
+        long count;
+        if (currentFpp <= 0) {
+            count = 0;
+        } else {
+            count = (long) (-bitSize / (double) numHashFunctions
+                    * Math.log(1 - Math.pow(currentFpp, 1.0 / numHashFunctions)));
+        }
+        return new SubFilter<>(bloomFilter, capacity, Math.min(Math.max(count, 0), capacity), fpp);
+    }
+
+    private static class SubFilter<T> {
+        private final BloomFilter<T> bloomFilter;
+        private final long capacity;
+        private volatile long count;
+        private final double fpp;
+
+        SubFilter(BloomFilter<T> bloomFilter, long capacity, long count, double fpp) {
+            this.bloomFilter = bloomFilter;
+            this.capacity = capacity;
+            this.count = count;
+            this.fpp = fpp;
+        }
+    }
+}
@@ -11,7 +11,7 @@ import lombok.*;
 
 /**
  * Created by virjar on 17/5/15.<br/>
- * 种子描述,vsCrawler定义中,种子没有优先级概念
+ * 种子描述,种子优先级取值范围为[0,9],值越大越优先被调度,默认为0
  */
 @RequiredArgsConstructor
 @AllArgsConstructor
@@ -22,6 +22,9 @@ public class Seed implements Serializable {
     public static int STATUS_FAILED = 2;
     public static int STATUS_RETRY = 3;
     public static int STATUS_RUNNING = 4;
+
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final int MAX_PRIORITY = 9;
     // 真正的种子信息,因为需要序列化,所以直接设计为字符串
     @Getter
     @Setter
@@ -45,6 +48,12 @@ public class Seed implements Serializable {
     @Setter
     private boolean ignore = false;
 
+    /**
+     * 优先级,值越大越优先。比如详情页可以设置比列表页更高的优先级,让结果尽快产出,超出范围的值会被截断
+     */
+    @Getter
+    private int priority = DEFAULT_PRIORITY;
+
     @Getter
     // 如果设置这个值,那么他放到未来的某个时间点执行,而且消重机制将会略过此类URL(在当天)
     private Long activeTimeStamp = null;
@@ -56,6 +65,13 @@ public class Seed implements Serializable {
      */
     private String segmentKey;
 
+    @Getter
+    @Setter
+    /**
+     * 种子库使用指纹主键,并且这个种子的指纹和其他种子冲突,存储的时候使用溢出主键。供VSCrawler使用
+     */
+    private boolean keyOverflow = false;
+
     @Getter
     @Setter
     private Map<String, String> ext = Maps.newHashMap();
@@ -78,17 +94,32 @@ public class Seed implements Serializable {
         }
     }
 
+    public void setPriority(int priority) {
+        this.priority = normalizePriority(priority);
+    }
+
+    public static int normalizePriority(int priority) {
+        if (priority < DEFAULT_PRIORITY) {
+            return DEFAULT_PRIORITY;
+        }
+        if (priority > MAX_PRIORITY) {
+            return MAX_PRIORITY;
+        }
+        return priority;
+    }
+
     public boolean needEnd() {
         return ignore || status == STATUS_SUCCESS || retry >= maxRetry;
     }
 
     /**
-     * 只copy种子数据和扩展数据,其他的属于状态描述,不复制
+     * 只copy种子数据,优先级和扩展数据,其他的属于状态描述,不复制
      * 
      * @return newSeed
      */
     public Seed copy() {
         Seed seed = new Seed(data);
+        seed.priority = priority;
         seed.ext = Maps.newHashMap(ext);
         return seed;
     }
@@ -0,0 +1,182 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
+
+/**
+ * Created by virjar on 2018/3/11.<br>
+ * 种子的二进制编码,用于种子库的读写,替代原来的json序列化。<br>
+ * 格式: [magic 1byte][版本 1byte][标记位 1byte][retry][status][maxRetry][priority][data][activeTimeStamp?][segmentKey?][ext]<br>
+ * 整数使用zigzag变长编码,字符串为变长长度前缀加UTF-8内容,可以为空的字符串长度前缀加一,0代表null。<br>
+ * json记录总是以'{'开头,不会和magic冲突,所以解码的时候可以兼容旧版本写入的json数据
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+public final class SeedCodec {
+    private static final byte MAGIC = (byte) 0xB5;
+    private static final byte VERSION_1 = 1;
+
+    private static final int FLAG_IGNORE = 1;
+    private static final int FLAG_ACTIVE_TIME_STAMP = 1 << 1;
+    private static final int FLAG_SEGMENT_KEY = 1 << 2;
+    private static final int FLAG_KEY_OVERFLOW = 1 << 3;
+
+    /**
+     * 旧版本的json数据使用的是平台默认编码
+     */
+    private static final Charset LEGACY_CHARSET = Charset.defaultCharset();
+
+    private SeedCodec() {
+    }
+
+    public static byte[] encode(Seed seed) {
+        Output output = new Output(64 + (seed.getData() == null ? 0 : seed.getData().length() * 2));
+        output.write(MAGIC);
+        output.write(VERSION_1);
+        int flag = 0;
+        if (seed.isIgnore()) {
+            flag |= FLAG_IGNORE;
+        }
+        if (seed.getActiveTimeStamp() != null) {
+            flag |= FLAG_ACTIVE_TIME_STAMP;
+        }
+        if (seed.getSegmentKey() != null) {
+            flag |= FLAG_SEGMENT_KEY;
+        }
+        if (seed.isKeyOverflow()) {
+            flag |= FLAG_KEY_OVERFLOW;
+        }
+        output.write(flag);
+        output.writeVarLong(seed.getRetry());
+        output.writeVarLong(seed.getStatus());
+        output.writeVarLong(seed.getMaxRetry());
+        output.writeVarLong(seed.getPriority());
+        output.writeNullableString(seed.getData());
+        if (seed.getActiveTimeStamp() != null) {
+            output.writeVarLong(seed.getActiveTimeStamp());
+        }
+        if (seed.getSegmentKey() != null) {
+            output.writeNullableString(seed.getSegmentKey());
+        }
+        Map<String, String> ext = seed.getExt();
+        if (ext == null || ext.isEmpty()) {
+            output.writeVarLong(0);
+        } else {
+            output.writeVarLong(ext.size());
+            for (Map.Entry<String, String> entry : ext.entrySet()) {
+                output.writeNullableString(entry.getKey());
+                output.writeNullableString(entry.getValue());
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public static Seed decode(byte[] data) {
+        if (data.length < 2 || data[0] != MAGIC) {
+            return VSCrawlerCommonUtil.transferStringToSeed(new String(data, LEGACY_CHARSET));
+        }
+        if (data[1] != VERSION_1) {
+            throw new IllegalStateException("unknown seed codec version:" + data[1]);
+        }
+        Input input = new Input(data, 2);
+        int flag = input.read();
+        Seed seed = new Seed();
+        seed.setIgnore((flag & FLAG_IGNORE) != 0);
+        seed.setKeyOverflow((flag & FLAG_KEY_OVERFLOW) != 0);
+        seed.setRetry((int) input.readVarLong());
+        seed.setStatus((int) input.readVarLong());
+        seed.setMaxRetry((int) input.readVarLong());
+        seed.setPriority((int) input.readVarLong());
+        seed.setData(input.readNullableString());
+        if ((flag & FLAG_ACTIVE_TIME_STAMP) != 0) {
+            seed.setActiveTimeStamp(input.readVarLong());
+        }
+        if ((flag & FLAG_SEGMENT_KEY) != 0) {
+            seed.setSegmentKey(input.readNullableString());
+        }
+        int extSize = (int) input.readVarLong();
+        Map<String, String> ext = Maps.newHashMapWithExpectedSize(extSize);
+        for (int i = 0; i < extSize; i++) {
+            ext.put(input.readNullableString(), input.readNullableString());
+        }
+        seed.setExt(ext);
+        return seed;
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        void writeVarLong(long value) {
+            // zigzag,负数也能编码成较短的字节
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                write((int) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((int) zigzag);
+        }
+
+        void writeNullableString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int read() {
+            if (position >= data.length) {
+                throw new IllegalStateException("seed data truncated");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IllegalStateException("malformed varint in seed data");
+                }
+                b = read();
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readNullableString() {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > data.length) {
+                throw new IllegalStateException("seed data truncated");
+            }
+            String ret = new String(data, position, length, Charsets.UTF_8);
+            position += length;
+            return ret;
+        }
+    }
+}
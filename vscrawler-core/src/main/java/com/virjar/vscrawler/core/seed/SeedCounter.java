@@ -0,0 +1,28 @@
+package com.virjar.vscrawler.core.seed;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Created by virjar on 2018/3/18.<br>
+ * 一个维度(全局,段,host)的种子数目快照
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Getter
+@AllArgsConstructor
+public class SeedCounter {
+    /**
+     * 存储在种子库(运行库和时间轮)中等待派发的种子数目
+     */
+    private long pending;
+    /**
+     * 成功或者被忽略的种子数目
+     */
+    private long finished;
+    /**
+     * 重试次数用完的种子数目
+     */
+    private long failed;
+}
@@ -0,0 +1,180 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/6.<br>
+ * 种子写入的组提交(group commit)线程。worker线程的finish和addNewSeeds只是把写操作放入队列,
+ * 写线程批量取出,一次完成所有写入,然后刷一次日志,最后通知所有调用方写入结果。<br>
+ * 这样每个种子的刷日志成本摊薄为一个批次一次。同一个分片的写入只在这个线程进行,不需要额外的锁;
+ * 跨分片共享的布隆过滤器由synchronized (bloomFilter)保护
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class SeedGroupCommitWriter extends Thread {
+
+    private final BerkeleyDBSeedManager berkeleyDBSeedManager;
+
+    /**
+     * 每个分片一个写线程,分片之间的日志写入和刷盘并行进行
+     */
+    private final SeedShard shard;
+
+    private final LinkedBlockingQueue<WriteOperation> operationQueue;
+
+    private final int batchSize;
+
+    private final long maxDelayMillis;
+
+    private volatile boolean running = true;
+
+    /**
+     * 提交持有读锁,停止持有写锁,停止之后不会再有写操作进入队列,保证所有写操作的确认都会完成
+     */
+    private final ReentrantReadWriteLock submitLock = new ReentrantReadWriteLock();
+
+    SeedGroupCommitWriter(BerkeleyDBSeedManager berkeleyDBSeedManager, SeedShard shard, int batchSize,
+            long maxDelayMillis, int queueSize) {
+        super("VSCrawlerSeedWriter-" + shard.getIndex());
+        setDaemon(true);
+        this.berkeleyDBSeedManager = berkeleyDBSeedManager;
+        this.shard = shard;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxDelayMillis = Math.max(maxDelayMillis, 1);
+        this.operationQueue = new LinkedBlockingQueue<>(Math.max(queueSize, this.batchSize));
+    }
+
+    /**
+     * 提交写操作,队列满的时候阻塞调用线程,起到背压的作用
+     *
+     * @param writeOperation 写操作
+     * @return 写入确认, 写入并刷日志之后完成
+     */
+    ListenableFuture<Integer> submit(WriteOperation writeOperation) {
+        submitLock.readLock().lock();
+        try {
+            if (!running) {
+                writeOperation.ack.set(0);
+                return writeOperation.ack;
+            }
+            operationQueue.put(writeOperation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeOperation.ack.setException(e);
+        } finally {
+            submitLock.readLock().unlock();
+        }
+        return writeOperation.ack;
+    }
+
+    @Override
+    public void run() {
+        List<WriteOperation> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (running) {
+            try {
+                WriteOperation first = operationQueue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                operationQueue.drainTo(batch, batchSize - 1);
+                commit(batch);
+            } catch (InterruptedException e) {
+                // 剩余的操作由stopAndDrain处理
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 停止写线程,并且在调用线程中把队列中剩余的写操作全部落盘。<br>
+     * 不能中断写线程,JE的写操作被中断会导致环境失效,写线程在当前批次完成并且poll超时之后自己退出
+     */
+    void stopAndDrain() {
+        // 等待阻塞在队列上的提交完成,写线程仍然在消费队列,所以不会死锁
+        submitLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            submitLock.writeLock().unlock();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<WriteOperation> remain = Lists.newArrayList();
+        operationQueue.drainTo(remain);
+        if (!remain.isEmpty()) {
+            log.info("写入队列中剩余的种子操作:{}", remain.size());
+            commit(remain);
+        }
+    }
+
+    private void commit(List<WriteOperation> batch) {
+        try {
+            List<Integer> results = berkeleyDBSeedManager.applyBatch(shard, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).ack.set(results.get(i));
+            }
+        } catch (Exception e) {
+            log.error("种子批量写入失败,批次大小:{}", batch.size(), e);
+            for (WriteOperation writeOperation : batch) {
+                writeOperation.ack.setException(e);
+            }
+        }
+    }
+
+    static class WriteOperation {
+        /**
+         * 处理完成的种子,以及在调用线程中序列化好的数据
+         */
+        Seed finishedSeed;
+        byte[] finishedSeedData;
+        /**
+         * 种子的主键,以及处理开始的时候种子的租约id,落盘之后结束这个租约
+         */
+        byte[] finishedSeedKey;
+        long leaseId = -1;
+        /**
+         * 处理开始的时候种子库的清空版本,写入之前种子库被清空过的时候丢弃
+         */
+        int clearEpoch;
+        /**
+         * 新产生的种子
+         */
+        Collection<Seed> newSeeds;
+
+        final SettableFuture<Integer> ack = SettableFuture.create();
+
+        static WriteOperation finish(Seed seed, byte[] seedData, byte[] seedKey, long leaseId, int clearEpoch) {
+            WriteOperation writeOperation = new WriteOperation();
+            writeOperation.finishedSeed = seed;
+            writeOperation.finishedSeedData = seedData;
+            writeOperation.finishedSeedKey = seedKey;
+            writeOperation.leaseId = leaseId;
+            writeOperation.clearEpoch = clearEpoch;
+            return writeOperation;
+        }
+
+        static WriteOperation newSeeds(Collection<Seed> seeds) {
+            WriteOperation writeOperation = new WriteOperation();
+            writeOperation.newSeeds = seeds;
+            return writeOperation;
+        }
+    }
+}
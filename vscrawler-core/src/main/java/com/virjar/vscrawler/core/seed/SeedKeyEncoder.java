@@ -0,0 +1,137 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.nio.charset.Charset;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * Created by virjar on 2018/3/16.<br>
+ * 种子库主键的编码。默认直接使用种子key的字节作为主键,和老版本的数据兼容;
+ * 开启指纹模式之后,主键为种子key的64位或者128位murmur3指纹,完整的种子key只存在于value中,主键长度固定,B树更加紧凑。<br>
+ * 不同种子的指纹相同的时候,后写入的种子使用溢出主键:[指纹][种子key],溢出主键比指纹长,不会和任何指纹主键冲突
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class SeedKeyEncoder {
+    static final int MODE_STRING = 0;
+    static final int MODE_FINGERPRINT_64 = 64;
+    static final int MODE_FINGERPRINT_128 = 128;
+
+    /**
+     * 字符串模式沿用老版本的平台默认编码
+     */
+    private static final Charset LEGACY_CHARSET = Charset.defaultCharset();
+
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private static final HashFunction RUNNING_KEY = Hashing.murmur3_128(0x5EED);
+
+    private final int mode;
+
+    SeedKeyEncoder(int mode) {
+        this.mode = mode;
+    }
+
+    int getMode() {
+        return mode;
+    }
+
+    boolean isFingerprint() {
+        return mode != MODE_STRING;
+    }
+
+    /**
+     * @param seedKey  种子key
+     * @param overflow 种子的指纹和其他种子冲突,使用溢出主键
+     * @return 种子库主键
+     */
+    byte[] encode(String seedKey, boolean overflow) {
+        if (mode == MODE_STRING) {
+            return seedKey.getBytes(LEGACY_CHARSET);
+        }
+        byte[] hash = FINGERPRINT.hashString(seedKey, Charsets.UTF_8).asBytes();
+        int fingerprintLength = mode / 8;
+        if (!overflow) {
+            if (hash.length == fingerprintLength) {
+                return hash;
+            }
+            byte[] ret = new byte[fingerprintLength];
+            System.arraycopy(hash, 0, ret, 0, fingerprintLength);
+            return ret;
+        }
+        byte[] keyBytes = seedKey.getBytes(Charsets.UTF_8);
+        byte[] ret = new byte[fingerprintLength + keyBytes.length];
+        System.arraycopy(hash, 0, ret, 0, fingerprintLength);
+        System.arraycopy(keyBytes, 0, ret, fingerprintLength, keyBytes.length);
+        return ret;
+    }
+
+    /**
+     * 根据种子库主键还原种子的128位指纹,用于把完成库迁移到{@link FinishedSeedIndex}
+     *
+     * @param storeKey  种子库主键
+     * @param seedValue 种子数据,64位指纹主键无法还原出128位指纹的时候从种子数据中取出种子key
+     * @param seedKeyResolver 种子key的计算方式
+     * @return 和{@link #fingerprint128(String)}相同的指纹
+     */
+    long[] fingerprint128(byte[] storeKey, byte[] seedValue, SeedKeyResolver seedKeyResolver) {
+        if (mode == MODE_STRING) {
+            return fingerprint128(new String(storeKey, LEGACY_CHARSET));
+        }
+        int fingerprintLength = mode / 8;
+        if (storeKey.length > fingerprintLength) {
+            // 溢出主键的后半部分就是种子key
+            return fingerprint128(new String(storeKey, fingerprintLength, storeKey.length - fingerprintLength,
+                    Charsets.UTF_8));
+        }
+        if (mode == MODE_FINGERPRINT_128) {
+            return fingerprint128(HashCode.fromBytes(storeKey));
+        }
+        return fingerprint128(seedKeyResolver.resolveSeedKey(SeedCodec.decode(seedValue)));
+    }
+
+    /**
+     * 完成种子索引使用的指纹,和指纹主键使用同一个哈希,[0]为高64位,也就是64位指纹主键,[1]为低64位
+     *
+     * @return 种子key的128位指纹
+     */
+    static long[] fingerprint128(String seedKey) {
+        return fingerprint128(FINGERPRINT.hashString(seedKey, Charsets.UTF_8));
+    }
+
+    private static long[] fingerprint128(HashCode hashCode) {
+        byte[] bytes = hashCode.asBytes();
+        // HashCode.asLong使用小端序
+        return new long[] { hashCode.asLong(), Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11],
+                bytes[10], bytes[9], bytes[8]) };
+    }
+
+    /**
+     * 解析配置的主键模式
+     *
+     * @param config none|64|128
+     * @return 主键模式, 无法识别的配置使用字符串模式
+     */
+    static int parseMode(String config) {
+        if ("64".equals(config)) {
+            return MODE_FINGERPRINT_64;
+        }
+        if ("128".equals(config)) {
+            return MODE_FINGERPRINT_128;
+        }
+        return MODE_STRING;
+    }
+
+    /**
+     * 正在处理的种子在内存中的64位标识,由段和种子key共同计算,避免每次派发都拼接字符串
+     */
+    static long runningKey(String segmentKey, String seedKey) {
+        return RUNNING_KEY.newHasher().putString(String.valueOf(segmentKey), Charsets.UTF_8).putByte((byte) 0)
+                .putString(seedKey, Charsets.UTF_8).hash().asLong();
+    }
+}
@@ -0,0 +1,366 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/22.<br>
+ * 种子租约日志,记录已经从运行库取出但是还没有处理完成的种子。<br>
+ * 种子从运行库加载到内存之前先追加一条租约记录(带完整的种子数据),处理结束并且结果在种子库落盘之后追加一条完成记录,
+ * 失败等待重试的种子追加一条续约记录更新种子数据。启动的时候重放日志,剩下的租约就是上次退出时内存缓存,正在处理和等待重试的种子,
+ * 由种子库重新写回运行库,所以关闭的时候不再需要把内存中的种子重新入库。<br>
+ * 每个租约有一个递增的id,完成记录只结束对应id的租约,同一个种子完成之后被重新加载产生的新租约不会被旧的完成记录抵消。<br>
+ * 日志文件为 lease.&lt;generation&gt;.log,记录格式为[长度 4byte][内容][crc32 4byte],日志末尾不完整的记录在重放的时候丢弃。
+ * 追加的记录超过存活租约数目之后,检查点把存活的租约写入下一代日志并删除旧日志。所有方法都是同步的
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class SeedLeaseLog {
+    private static final byte LEASE = 1;
+    private static final byte COMPLETE = 2;
+
+    private static final String LOG_PREFIX = "lease.";
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * 日志中的记录数目超过存活租约数目和这个值之后才写检查点
+     */
+    private static final long MIN_CHECKPOINT_RECORDS = 4096;
+
+    private final File directory;
+
+    private final Map<LeaseKey, Lease> leases = Maps.newLinkedHashMap();
+
+    private long generation = 0;
+    private long nextLeaseId = 1;
+    /**
+     * 当前日志中的记录数目
+     */
+    private long records = 0;
+
+    private FileOutputStream logFile;
+    private DataOutputStream logOutput;
+    private boolean dirty = false;
+
+    private SeedLeaseLog(File directory) {
+        this.directory = directory;
+    }
+
+    static SeedLeaseLog open(File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(directory.getAbsolutePath() + "文件夹创建失败");
+        }
+        SeedLeaseLog leaseLog = new SeedLeaseLog(directory);
+        leaseLog.replay();
+        // 重新写入一代日志,去掉不完整的记录
+        leaseLog.checkpoint();
+        return leaseLog;
+    }
+
+    /**
+     * @return 没有完成的租约中的种子数据
+     */
+    synchronized List<byte[]> leasedSeeds() {
+        List<byte[]> ret = Lists.newArrayListWithCapacity(leases.size());
+        for (Lease lease : leases.values()) {
+            ret.add(lease.seedData);
+        }
+        return ret;
+    }
+
+    synchronized int size() {
+        return leases.size();
+    }
+
+    /**
+     * 种子从运行库取出,需要在运行库删除种子之前调用并且刷盘
+     *
+     * @return 租约id
+     */
+    synchronized long lease(String segment, byte[] key, byte[] seedData) throws IOException {
+        long leaseId = nextLeaseId++;
+        LeaseKey leaseKey = new LeaseKey(segment, key);
+        append(LEASE, leaseKey, leaseId, seedData);
+        leases.put(leaseKey, new Lease(leaseId, seedData));
+        return leaseId;
+    }
+
+    /**
+     * @return 种子当前的租约id, 没有租约返回-1
+     */
+    synchronized long leaseId(String segment, byte[] key) {
+        Lease lease = leases.get(new LeaseKey(segment, key));
+        return lease == null ? -1 : lease.id;
+    }
+
+    /**
+     * 种子暂存在内存中等待重试,更新租约中的种子数据,租约id不变
+     */
+    synchronized void renew(String segment, byte[] key, byte[] seedData) throws IOException {
+        LeaseKey leaseKey = new LeaseKey(segment, key);
+        Lease lease = leases.get(leaseKey);
+        if (lease == null) {
+            return;
+        }
+        append(LEASE, leaseKey, lease.id, seedData);
+        lease.seedData = seedData;
+    }
+
+    /**
+     * 种子处理结果已经在种子库落盘,结束租约
+     *
+     * @param leaseId 处理开始的时候种子的租约id,租约已经被新的租约替代的时候什么都不做
+     */
+    synchronized void complete(String segment, byte[] key, long leaseId) throws IOException {
+        LeaseKey leaseKey = new LeaseKey(segment, key);
+        Lease lease = leases.get(leaseKey);
+        if (lease == null || lease.id != leaseId) {
+            return;
+        }
+        append(COMPLETE, leaseKey, leaseId, null);
+        leases.remove(leaseKey);
+    }
+
+    /**
+     * 日志写入操作系统,fsync为true的时候强制落盘
+     */
+    synchronized void flush(boolean fsync) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        logOutput.flush();
+        if (fsync) {
+            logFile.getFD().sync();
+        }
+        dirty = false;
+    }
+
+    synchronized boolean needCheckpoint() {
+        return records > leases.size() + MIN_CHECKPOINT_RECORDS;
+    }
+
+    /**
+     * 存活的租约写入下一代日志,然后删除旧日志。先写临时文件再改名,进程中途退出的时候旧日志仍然完整
+     */
+    synchronized void checkpoint() throws IOException {
+        long newGeneration = generation + 1;
+        File file = logFile(newGeneration);
+        File tmp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream newLogFile = new FileOutputStream(tmp);
+        DataOutputStream newLogOutput = new DataOutputStream(new BufferedOutputStream(newLogFile, 1 << 16));
+        try {
+            for (Map.Entry<LeaseKey, Lease> entry : leases.entrySet()) {
+                writeRecord(newLogOutput, LEASE, entry.getKey(), entry.getValue().id, entry.getValue().seedData);
+            }
+            newLogOutput.flush();
+            newLogFile.getFD().sync();
+        } finally {
+            IOUtils.closeQuietly(newLogOutput);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not rename " + tmp.getAbsolutePath() + " to " + file.getAbsolutePath());
+        }
+        IOUtils.closeQuietly(logOutput);
+        deleteFile(logFile(generation));
+        generation = newGeneration;
+        records = leases.size();
+        logFile = new FileOutputStream(file, true);
+        logOutput = new DataOutputStream(new BufferedOutputStream(logFile, 8192));
+        dirty = false;
+    }
+
+    /**
+     * 租约中的种子已经重新写回运行库,清空所有租约
+     */
+    synchronized void reset() throws IOException {
+        leases.clear();
+        checkpoint();
+    }
+
+    synchronized void close() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            IOUtils.closeQuietly(logOutput);
+        }
+    }
+
+    private void append(byte type, LeaseKey leaseKey, long leaseId, byte[] seedData) throws IOException {
+        writeRecord(logOutput, type, leaseKey, leaseId, seedData);
+        records++;
+        dirty = true;
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, byte type, LeaseKey leaseKey, long leaseId,
+            byte[] seedData) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(
+                32 + leaseKey.key.length + (seedData == null ? 0 : seedData.length));
+        DataOutputStream payload = new DataOutputStream(byteArrayOutputStream);
+        payload.writeByte(type);
+        payload.writeLong(leaseId);
+        payload.writeUTF(leaseKey.segment);
+        payload.writeInt(leaseKey.key.length);
+        payload.write(leaseKey.key);
+        if (type == LEASE) {
+            payload.writeInt(seedData.length);
+            payload.write(seedData);
+        }
+        payload.flush();
+        byte[] data = byteArrayOutputStream.toByteArray();
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        outputStream.writeInt(data.length);
+        outputStream.write(data);
+        outputStream.writeInt((int) crc32.getValue());
+    }
+
+    /**
+     * 找到最新一代的日志并重放,旧的日志和临时文件是检查点中途退出留下的,直接删除
+     */
+    private void replay() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                generation = Math.max(generation, generationOf(file));
+            }
+            for (File file : files) {
+                if (generationOf(file) != generation) {
+                    deleteFile(file);
+                }
+            }
+        }
+        File file = logFile(generation);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            while (true) {
+                int length = inputStream.readInt();
+                if (length <= 0 || length > file.length()) {
+                    log.warn("种子租约日志记录损坏,丢弃之后的记录:{}", file.getAbsolutePath());
+                    break;
+                }
+                byte[] data = new byte[length];
+                inputStream.readFully(data);
+                CRC32 crc32 = new CRC32();
+                crc32.update(data);
+                if (inputStream.readInt() != (int) crc32.getValue()) {
+                    log.warn("种子租约日志记录校验失败,丢弃之后的记录:{}", file.getAbsolutePath());
+                    break;
+                }
+                replayRecord(data);
+            }
+        } catch (EOFException e) {
+            // 日志末尾可能有不完整的记录,直接丢弃
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private void replayRecord(byte[] data) throws IOException {
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(data));
+        byte type = payload.readByte();
+        long leaseId = payload.readLong();
+        String segment = payload.readUTF();
+        byte[] key = new byte[payload.readInt()];
+        payload.readFully(key);
+        LeaseKey leaseKey = new LeaseKey(segment, key);
+        nextLeaseId = Math.max(nextLeaseId, leaseId + 1);
+        if (type == LEASE) {
+            byte[] seedData = new byte[payload.readInt()];
+            payload.readFully(seedData);
+            leases.put(leaseKey, new Lease(leaseId, seedData));
+        } else {
+            Lease lease = leases.get(leaseKey);
+            if (lease != null && lease.id == leaseId) {
+                leases.remove(leaseKey);
+            }
+        }
+    }
+
+    private File logFile(long generation) {
+        return new File(directory, LOG_PREFIX + generation + LOG_SUFFIX);
+    }
+
+    /**
+     * @return 日志的代数, 临时文件和其他文件返回-1
+     */
+    private static long generationOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX)) {
+            return -1;
+        }
+        return NumberUtils.toLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()), -1);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("删除种子租约日志失败:{}", file.getAbsolutePath());
+            file.deleteOnExit();
+        }
+    }
+
+    private static class LeaseKey {
+        private final String segment;
+        private final byte[] key;
+        private final int hash;
+
+        LeaseKey(String segment, byte[] key) {
+            this.segment = StringUtils.defaultString(segment);
+            this.key = key;
+            this.hash = this.segment.hashCode() * 31 + Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LeaseKey)) {
+                return false;
+            }
+            LeaseKey other = (LeaseKey) o;
+            return hash == other.hash && segment.equals(other.segment) && Arrays.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Lease {
+        private final long id;
+        private byte[] seedData;
+
+        Lease(long id, byte[] seedData) {
+            this.id = id;
+            this.seedData = seedData;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+import com.sleepycat.je.*;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Created by virjar on 2018/3/20.<br>
+ * 种子库的一个分片。每个分片是一个独立的JE环境,可以放在不同的磁盘上,拥有各自的日志写入和清理线程。<br>
+ * 种子按照host或者种子key哈希到固定的分片,同一个种子的入库,加载,完成都在同一个分片中进行,
+ * 所以运行库,时间轮,内存缓存,加载状态和组提交写线程都按照分片独立,分片之间互不阻塞
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+@Slf4j
+class SeedShard {
+    @Getter
+    private final int index;
+
+    @Getter
+    private final Environment env;
+
+    private final DatabaseConfig databaseConfig;
+
+    private final ConcurrentMap<String, Database> openedDataBase = Maps.newConcurrentMap();
+
+    private final Striped<Lock> databaseOpenLocks = Striped.lock(32);
+
+    /**
+     * 分片自己的时间轮,到期的种子转移到本分片的运行库
+     */
+    final TimingWheelSeedStore timingWheel;
+
+    /**
+     * 分片自己的内存缓存,pool在分片之间轮询
+     */
+    final PrioritySeedCache ramCache = new PrioritySeedCache();
+
+    /**
+     * 本分片中存在运行库的时间段
+     */
+    final ConcurrentSkipListSet<Long> runningSegments = new ConcurrentSkipListSet<>();
+
+    // 写入db但是还没有加载到内存的最高优先级,-1代表没有
+    final AtomicInteger pendingHighPriority = new AtomicInteger(-1);
+
+    final AtomicLong runningWriteVersion = new AtomicLong(0);
+    volatile long exhaustedVersion = -1;
+    volatile long exhaustedTimeStamp = 0;
+
+    final AtomicBoolean cacheLoading = new AtomicBoolean(false);
+
+    ExecutorService seedLoader;
+
+    SeedGroupCommitWriter seedWriter;
+
+    /**
+     * 分片的租约日志,记录从本分片运行库取出但是还没有完成的种子
+     */
+    SeedLeaseLog leaseLog;
+
+    private SeedShard(int index, Environment env) {
+        this.index = index;
+        this.env = env;
+        databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        timingWheel = new TimingWheelSeedStore(env, databaseConfig);
+    }
+
+    /**
+     * 打开分片的数据库环境,上次没有正常关闭留下的锁文件会被清理
+     *
+     * @param index     分片序号
+     * @param directory 数据库目录
+     * @return 分片
+     */
+    static SeedShard open(int index, File directory) {
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
+                throw new IllegalStateException(directory.getAbsolutePath() + "文件夹创建失败");
+            }
+        } else if (!directory.isDirectory()) {
+            throw new IllegalStateException(directory.getAbsolutePath() + "不是一个文件夹");
+        }
+        EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        environmentConfig.setAllowCreate(true);
+        Environment env;
+        try {
+            env = new Environment(directory, environmentConfig);
+        } catch (EnvironmentLockedException e) {
+            if (new File(directory, "je.lck").delete()) {
+                log.warn("上次未正常关闭爬虫,尝试修复");
+                env = new Environment(directory, environmentConfig);
+            } else {
+                log.error("存在多个爬虫操作同一份数据,请确认多个爬虫的工作空间是否相同", e);
+                throw e;
+            }
+        }
+        return new SeedShard(index, env);
+    }
+
+    Database createOrGetDataBase(String key) {
+        Database database = openedDataBase.get(key);
+        if (database != null) {
+            return database;
+        }
+        Lock lock = databaseOpenLocks.get(key);
+        lock.lock();
+        try {
+            database = openedDataBase.get(key);
+            if (database != null) {
+                return database;
+            }
+            database = env.openDatabase(null, key, databaseConfig);
+            openedDataBase.put(key, database);
+            return database;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    List<String> databaseNames() {
+        return env.getDatabaseNames();
+    }
+
+    /**
+     * 关闭并删除一个库
+     */
+    void removeDatabase(String key) {
+        IOUtils.closeQuietly(openedDataBase.remove(key));
+        if (env.getDatabaseNames().contains(key)) {
+            env.removeDatabase(null, key);
+        }
+    }
+
+    void flushLog(boolean fsync) {
+        env.flushLog(fsync);
+    }
+
+    void close() {
+        timingWheel.close();
+        for (String databaseName : openedDataBase.keySet()) {
+            IOUtils.closeQuietly(openedDataBase.remove(databaseName));
+        }
+        IOUtils.closeQuietly(env);
+    }
+
+    @Override
+    public String toString() {
+        return "SeedShard-" + index;
+    }
+}
@@ -0,0 +1,259 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Lists;
+import com.sleepycat.je.*;
+
+/**
+ * Created by virjar on 2018/3/9.<br>
+ * 持久化的分层时间轮,存储未来才生效的种子,精度为分钟。<br>
+ * 时间轮分为三层:分钟轮,小时轮,天轮。种子按照距离生效的时间放入对应层级的槽位,槽位到期的时候,
+ * 小时轮和天轮的种子向下一层级降级,分钟轮的种子到达生效时间之后出轮。所有槽位存储在同一个db中,key为 [层级][槽位起始时间][生效时间][种子key],
+ * 按照key有序,所以到期槽位总是位于每一层的最前面,推进时间轮只需要从每一层的开头向后扫描,代价只和到期的种子数目相关。<br>
+ * 由于槽位本身就是按时间排序持久化的,重启或者长时间停机之后,过期的槽位在下一次推进的时候统一处理,不需要持久化指针。<br>
+ * 槽位key中带有生效时间,无法按照种子key查找,所以另外维护一个 种子key-&gt;槽位key 的索引,用于入库消重。<br>
+ * 移动和出轮都是先写入目标位置再删除原来的槽位,JE的日志是顺序的,中途退出最多留下一份重复的数据,重新推进是幂等的,不会丢失种子。<br>
+ * add可以在任意线程调用,advance只能在单个线程调用
+ *
+ * @author virjar
+ * @since 0.3.0
+ */
+class TimingWheelSeedStore {
+    private static final String TIMING_WHEEL = "TIMING_WHEEL";
+
+    private static final String TIMING_WHEEL_INDEX = "TIMING_WHEEL_INDEX";
+
+    private static final byte LEVEL_MINUTE = 0;
+    private static final byte LEVEL_HOUR = 1;
+    private static final byte LEVEL_DAY = 2;
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final int SLOT_PREFIX_LENGTH = 9;
+
+    private final Database database;
+
+    /**
+     * 种子key到槽位key的索引
+     */
+    private final Database index;
+
+    TimingWheelSeedStore(Environment env, DatabaseConfig databaseConfig) {
+        database = env.openDatabase(null, TIMING_WHEEL, databaseConfig);
+        index = env.openDatabase(null, TIMING_WHEEL_INDEX, databaseConfig);
+        if (index.count() == 0 && database.count() > 0) {
+            // 老版本的时间轮没有索引
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * 放入一个未来生效的种子
+     *
+     * @param activeTimeStamp 生效时间
+     * @param seedKey         种子key
+     * @param seedData        种子序列化数据
+     */
+    void add(long activeTimeStamp, byte[] seedKey, byte[] seedData) {
+        byte[] slotKey = slotKey(activeTimeStamp, System.currentTimeMillis(), seedKey);
+        database.put(null, new DatabaseEntry(slotKey), new DatabaseEntry(seedData));
+        index.put(null, new DatabaseEntry(seedKey), new DatabaseEntry(slotKey));
+    }
+
+    /**
+     * 按照种子key查找时间轮中的种子
+     *
+     * @return 种子序列化数据, 不存在返回null
+     */
+    byte[] get(byte[] seedKey) {
+        DatabaseEntry slotKey = new DatabaseEntry();
+        if (index.get(null, new DatabaseEntry(seedKey), slotKey, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+            return null;
+        }
+        DatabaseEntry value = new DatabaseEntry();
+        if (database.get(null, slotKey, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+            return value.getData();
+        }
+        return null;
+    }
+
+    /**
+     * 推进时间轮,高层级到期的槽位降级到低层级,分钟轮到期的种子交给visitor处理之后再从时间轮中删除
+     *
+     * @param now     当前时间
+     * @param visitor 到期种子的处理,需要在返回之前把种子写入运行库
+     * @return 到期的种子数目
+     */
+    int advance(long now, SeedDataVisitor visitor) {
+        // 先降级高层级的槽位,降级之后可能直接落入已经到期的分钟槽位
+        cascade(LEVEL_DAY, now);
+        cascade(LEVEL_HOUR, now);
+        int due = 0;
+        Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry(levelStart(LEVEL_MINUTE));
+            DatabaseEntry value = new DatabaseEntry();
+            OperationStatus status = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT);
+            while (status == OperationStatus.SUCCESS) {
+                byte[] keyData = key.getData();
+                // 分钟轮内部按照生效时间排序,可以精确到毫秒
+                if (keyData[0] != LEVEL_MINUTE || activeTimeStamp(keyData) > now) {
+                    break;
+                }
+                visitor.visit(value.getData());
+                cursor.delete();
+                removeIndex(keyData);
+                due++;
+                status = cursor.getNext(key, value, LockMode.DEFAULT);
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+        return due;
+    }
+
+    private void cascade(byte level, long now) {
+        List<byte[][]> moved = Lists.newArrayList();
+        Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry(levelStart(level));
+            DatabaseEntry value = new DatabaseEntry();
+            OperationStatus status = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT);
+            while (status == OperationStatus.SUCCESS) {
+                byte[] keyData = key.getData();
+                if (keyData[0] != level || slotStart(keyData) > now) {
+                    break;
+                }
+                moved.add(new byte[][] { keyData, value.getData() });
+                status = cursor.getNext(key, value, LockMode.DEFAULT);
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+        for (byte[][] entry : moved) {
+            byte[] keyData = entry[0];
+            byte[] seedKey = seedKey(keyData);
+            byte[] newSlotKey = slotKey(activeTimeStamp(keyData), now, seedKey);
+            database.put(null, new DatabaseEntry(newSlotKey), new DatabaseEntry(entry[1]));
+            index.put(null, new DatabaseEntry(seedKey), new DatabaseEntry(newSlotKey));
+            database.delete(null, new DatabaseEntry(keyData));
+        }
+    }
+
+    /**
+     * 删除出轮种子的索引,索引已经指向其他槽位的时候保留
+     */
+    private void removeIndex(byte[] slotKey) {
+        DatabaseEntry indexKey = new DatabaseEntry(seedKey(slotKey));
+        DatabaseEntry indexValue = new DatabaseEntry();
+        if (index.get(null, indexKey, indexValue, LockMode.DEFAULT) == OperationStatus.SUCCESS
+                && Arrays.equals(indexValue.getData(), slotKey)) {
+            index.delete(null, indexKey);
+        }
+    }
+
+    private void rebuildIndex() {
+        Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                index.put(null, new DatabaseEntry(seedKey(key.getData())), new DatabaseEntry(key.getData()));
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * 遍历时间轮中所有的种子,只用于重建统计数据
+     */
+    void forEach(SeedDataVisitor visitor) {
+        Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                visitor.visit(value.getData());
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+    }
+
+    interface SeedDataVisitor {
+        void visit(byte[] seedData);
+    }
+
+    long count() {
+        return database.count();
+    }
+
+    void clear() {
+        clear(database);
+        clear(index);
+    }
+
+    private static void clear(Database database) {
+        Cursor cursor = database.openCursor(null, CursorConfig.DEFAULT);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            while (cursor.getNext(key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                cursor.delete();
+            }
+        } finally {
+            IOUtils.closeQuietly(cursor);
+        }
+    }
+
+    void close() {
+        IOUtils.closeQuietly(index);
+        IOUtils.closeQuietly(database);
+    }
+
+    /**
+     * key: [层级 1byte][槽位起始时间 8byte][生效时间 8byte][种子key],生效时间用于降级的时候重新计算槽位
+     */
+    private static byte[] slotKey(long activeTimeStamp, long now, byte[] seedKey) {
+        long delay = activeTimeStamp - now;
+        byte level;
+        long slotStart;
+        if (delay < HOUR) {
+            level = LEVEL_MINUTE;
+            slotStart = activeTimeStamp - activeTimeStamp % MINUTE;
+        } else if (delay < DAY) {
+            level = LEVEL_HOUR;
+            slotStart = activeTimeStamp - activeTimeStamp % HOUR;
+        } else {
+            level = LEVEL_DAY;
+            slotStart = activeTimeStamp - activeTimeStamp % DAY;
+        }
+        return ByteBuffer.allocate(SLOT_PREFIX_LENGTH + 8 + seedKey.length).put(level).putLong(slotStart)
+                .putLong(activeTimeStamp).put(seedKey).array();
+    }
+
+    private static byte[] levelStart(byte level) {
+        return ByteBuffer.allocate(SLOT_PREFIX_LENGTH).put(level).putLong(0).array();
+    }
+
+    private static byte[] seedKey(byte[] keyData) {
+        return Arrays.copyOfRange(keyData, SLOT_PREFIX_LENGTH + 8, keyData.length);
+    }
+
+    private static long slotStart(byte[] keyData) {
+        return ByteBuffer.wrap(keyData, 1, 8).getLong();
+    }
+
+    private static long activeTimeStamp(byte[] keyData) {
+        return ByteBuffer.wrap(keyData, SLOT_PREFIX_LENGTH, 8).getLong();
+    }
+}
@@ -18,6 +18,10 @@ public class VSCrawlerCommonUtil {
     private static InheritableThreadLocal<VSCrawlerContext> crawlerContextThreadLocal = new InheritableThreadLocal<>();
     private static InheritableThreadLocal<Long> grabStartTimeStampThreadLocal = new InheritableThreadLocal<>();
     private static InheritableThreadLocal<Long> grabTimeOut = new InheritableThreadLocal<>();
+    /**
+     * 当前线程最近一次http请求是否发生了网络异常,httpClient会吞掉网络异常返回null,自适应并发控制需要感知这类失败
+     */
+    private static ThreadLocal<Boolean> downloadFailedThreadLocal = new ThreadLocal<>();
 
     public static String transferSeedToString(Seed seed) {
         return JSONObject.toJSONString(seed);
@@ -39,6 +43,18 @@ public class VSCrawlerCommonUtil {
         crawlerSessionThreadLocal.remove();
     }
 
+    public static void setDownloadFailed(boolean downloadFailed) {
+        downloadFailedThreadLocal.set(downloadFailed);
+    }
+
+    public static boolean isDownloadFailed() {
+        return Boolean.TRUE.equals(downloadFailedThreadLocal.get());
+    }
+
+    public static void clearDownloadFailed() {
+        downloadFailedThreadLocal.remove();
+    }
+
     public static void setVSCrawlerContext(VSCrawlerContext vsCrawlerContext) {
         crawlerContextThreadLocal.set(vsCrawlerContext);
     }
@@ -55,6 +71,10 @@ public class VSCrawlerCommonUtil {
         VSCrawlerCommonUtil.grabStartTimeStampThreadLocal.set(grabStartTimeStampThreadLocal);
     }
 
+    public static Long getGrabTimeOut() {
+        return grabTimeOut.get();
+    }
+
     public static void setGrabTimeOut(Long grabTimeOut) {
         VSCrawlerCommonUtil.grabTimeOut.set(grabTimeOut);
     }
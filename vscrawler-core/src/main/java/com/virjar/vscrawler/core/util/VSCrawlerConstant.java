@@ -16,8 +16,28 @@ public interface VSCrawlerConstant {
 
     String SESSION_POOL_MONTOR_THREAD_NUMBER = "sessionPool.monitorThreadNumber";
 
+    String ASYNC_HTTP_CLIENT_MAX_CONNECTION = "asyncHttpClient.maxConnection";
+
+    String ASYNC_HTTP_CLIENT_IO_THREAD_NUMBER = "asyncHttpClient.ioThreadNumber";
+
+    String ASYNC_HTTP_CLIENT_TIME_OUT = "asyncHttpClient.timeOut";
+
     String VSCRAWLER_THREAD_NUMBER = "vsCrawler.%s.threadNumber";
 
+    String VSCRAWLER_MAX_CONCURRENT_SEED = "vsCrawler.%s.maxConcurrentSeed";
+
+    String VSCRAWLER_GRAB_THREAD_NUMBER = "vsCrawler.%s.grabThreadNumber";
+
+    String VSCRAWLER_GRAB_COALESCING = "vsCrawler.%s.grab.coalescing";
+
+    String VSCRAWLER_ADAPTIVE_CONCURRENCY_MIN_LIMIT = "vsCrawler.%s.adaptiveConcurrency.minLimit";
+
+    String VSCRAWLER_ADAPTIVE_CONCURRENCY_BACKOFF_RATIO = "vsCrawler.%s.adaptiveConcurrency.backoffRatio";
+
+    String VSCRAWLER_ADAPTIVE_CONCURRENCY_MIN_SUCCESS_RATE = "vsCrawler.%s.adaptiveConcurrency.minSuccessRate";
+
+    String VSCRAWLER_ADAPTIVE_CONCURRENCY_LATENCY_TOLERANCE = "vsCrawler.%s.adaptiveConcurrency.latencyTolerance";
+
     String USER_RESOURCE_USERINFO = "userResource.%s.userInfo";
 
     String VSCRAWLER_AVPROXY_KEY = "vsCrawler.avProxy.key";
@@ -30,5 +50,59 @@ public interface VSCrawlerConstant {
 
     String VSCRAWLER_SEED_MANAGER_EXPECTED_SEED_NUMBER = "seedManager.expectedSeedNumber";
 
+    String VSCRAWLER_SEED_MANAGER_BLOOM_FPP = "seedManager.bloomFilter.fpp";
+
+    String VSCRAWLER_SEED_MANAGER_BLOOM_GROWTH_FACTOR = "seedManager.bloomFilter.growthFactor";
+
+    String VSCRAWLER_SEED_MANAGER_CACHE_LOW_WATER_MARK = "seedManager.cache.lowWaterMark";
+
+    String VSCRAWLER_SEED_MANAGER_CACHE_HIGH_WATER_MARK = "seedManager.cache.highWaterMark";
+
+    String VSCRAWLER_SEED_MANAGER_CACHE_ADAPTIVE_WATER_MARK = "seedManager.cache.adaptiveWaterMark";
+
+    String VSCRAWLER_SEED_MANAGER_BLOOM_MMAP = "seedManager.bloomFilter.mmap";
+
+    String VSCRAWLER_SEED_MANAGER_BLOOM_FLUSH_INTERVAL_MILLIS = "seedManager.bloomFilter.flushIntervalMillis";
+
+    String VSCRAWLER_SEED_MANAGER_FINGERPRINT_KEY = "seedManager.fingerprintKey";
+
+    String VSCRAWLER_SEED_MANAGER_STATISTICS_CHECKPOINT_INTERVAL_MILLIS = "seedManager.statistics.checkpointIntervalMillis";
+
+    String VSCRAWLER_SEED_MANAGER_BULK_IMPORT_CHARSET = "seedManager.bulkImport.charset";
+
+    String VSCRAWLER_SEED_MANAGER_BULK_IMPORT_THREADS = "seedManager.bulkImport.threads";
+
+    String VSCRAWLER_SEED_MANAGER_SHARD_COUNT = "seedManager.shard.count";
+
+    String VSCRAWLER_SEED_MANAGER_SHARD_BY = "seedManager.shard.by";
+
+    String VSCRAWLER_SEED_MANAGER_SHARD_DIRECTORIES = "seedManager.shard.directories";
+
+    String VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_BATCH_SIZE = "seedManager.groupCommit.batchSize";
+
+    String VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_MAX_DELAY_MILLIS = "seedManager.groupCommit.maxDelayMillis";
+
+    String VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_QUEUE_SIZE = "seedManager.groupCommit.queueSize";
+
+    String VSCRAWLER_SEED_MANAGER_GROUP_COMMIT_FSYNC = "seedManager.groupCommit.fsync";
+
+    String VSCRAWLER_SEED_MANAGER_LEASE_LOG_FLUSH_INTERVAL_MILLIS = "seedManager.leaseLog.flushIntervalMillis";
+
+    String VSCRAWLER_SEED_MANAGER_RETRY_PREFIX = "seedManager.retry.";
+
+    String VSCRAWLER_SEED_MANAGER_RETRY_POLICY_PREFIX = "seedManager.retry.policy.";
+
+    String VSCRAWLER_POLITENESS_MAX_CONCURRENT_PER_HOST = "vsCrawler.%s.politeness.maxConcurrentPerHost";
+
+    String VSCRAWLER_POLITENESS_QPS_PER_HOST = "vsCrawler.%s.politeness.qpsPerHost";
+
+    String VSCRAWLER_POLITENESS_BURST_PER_HOST = "vsCrawler.%s.politeness.burstPerHost";
+
+    String VSCRAWLER_POLITENESS_MAX_DEFERRED_SEED = "vsCrawler.%s.politeness.maxDeferredSeed";
+
+    String VSCRAWLER_POLITENESS_MAX_DEFERRED_SEED_PER_HOST = "vsCrawler.%s.politeness.maxDeferredSeedPerHost";
+
+    String VSCRAWLER_POLITENESS_HOST_RULE_PREFIX = "vsCrawler.%s.politeness.host.";
+
     Long defaultSessionRequestTimeOut = 2000L;
 }
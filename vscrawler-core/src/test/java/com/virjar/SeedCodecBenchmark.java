@@ -0,0 +1,67 @@
+package com.virjar;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.virjar.vscrawler.core.seed.Seed;
+import com.virjar.vscrawler.core.seed.SeedCodec;
+import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
+
+/**
+ * Created by virjar on 2018/3/11.<br>
+ * 对比种子json序列化和二进制编码的吞吐和占用空间
+ */
+public class SeedCodecBenchmark {
+    private static final int SEED_NUMBER = 100000;
+    private static final int ROUND = 5;
+
+    public static void main(String[] args) {
+        List<Seed> seeds = Lists.newArrayListWithCapacity(SEED_NUMBER);
+        for (int i = 0; i < SEED_NUMBER; i++) {
+            Seed seed = new Seed("https://www.example.com/item/" + i + ".html?from=list&page=" + (i % 100));
+            seed.setPriority(i % 10);
+            seed.setSegmentKey("20180311");
+            seed.getExt().put("category", "book");
+            seed.getExt().put("listPage", String.valueOf(i / 20));
+            if (i % 5 == 0) {
+                seed.setActiveTimeStamp(System.currentTimeMillis() + i);
+            }
+            seeds.add(seed);
+        }
+
+        // 确认编码可以还原,并且可以读取旧的json数据
+        Seed sample = seeds.get(0);
+        Seed decoded = SeedCodec.decode(SeedCodec.encode(sample));
+        Seed legacy = SeedCodec.decode(VSCrawlerCommonUtil.transferSeedToString(sample).getBytes());
+        if (!sample.getData().equals(decoded.getData()) || !sample.getExt().equals(decoded.getExt())
+                || !sample.getActiveTimeStamp().equals(decoded.getActiveTimeStamp())
+                || !sample.getData().equals(legacy.getData()) || legacy.getPriority() != sample.getPriority()) {
+            throw new IllegalStateException("seed codec round trip failed");
+        }
+
+        for (int round = 0; round < ROUND; round++) {
+            long jsonBytes = 0;
+            long start = System.nanoTime();
+            for (Seed seed : seeds) {
+                byte[] data = VSCrawlerCommonUtil.transferSeedToString(seed).getBytes();
+                jsonBytes += data.length;
+                VSCrawlerCommonUtil.transferStringToSeed(new String(data));
+            }
+            long jsonCost = System.nanoTime() - start;
+
+            long binaryBytes = 0;
+            start = System.nanoTime();
+            for (Seed seed : seeds) {
+                byte[] data = SeedCodec.encode(seed);
+                binaryBytes += data.length;
+                SeedCodec.decode(data);
+            }
+            long binaryCost = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                    "round %d json: %d ops/s, %d bytes/seed; binary: %d ops/s, %d bytes/seed", round,
+                    SEED_NUMBER * 1000000000L / jsonCost, jsonBytes / SEED_NUMBER,
+                    SEED_NUMBER * 1000000000L / binaryCost, binaryBytes / SEED_NUMBER));
+        }
+    }
+}
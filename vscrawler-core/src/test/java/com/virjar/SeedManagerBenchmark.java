@@ -0,0 +1,83 @@
+package com.virjar;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.virjar.vscrawler.core.VSCrawlerContext;
+import com.virjar.vscrawler.core.seed.BerkeleyDBSeedManager;
+import com.virjar.vscrawler.core.seed.DefaultSeedKeyResolver;
+import com.virjar.vscrawler.core.seed.DefaultSegmentResolver;
+import com.virjar.vscrawler.core.seed.InitSeedSource;
+import com.virjar.vscrawler.core.seed.Seed;
+
+/**
+ * Created by virjar on 2018/3/14.<br>
+ * 种子库多线程吞吐测试,多个线程同时pool,finish并且产生新种子,观察线程数增加之后的吞吐变化
+ */
+public class SeedManagerBenchmark {
+    private static final int INIT_SEED_NUMBER = 200000;
+    private static final int[] THREAD_NUMBERS = { 1, 4, 16, 64, 200 };
+
+    public static void main(String[] args) throws Exception {
+        for (int threadNumber : THREAD_NUMBERS) {
+            run(threadNumber);
+        }
+        System.exit(0);
+    }
+
+    private static void run(final int threadNumber) throws Exception {
+        VSCrawlerContext vsCrawlerContext = VSCrawlerContext
+                .create("seedManagerBenchmark" + threadNumber + "_" + System.currentTimeMillis());
+        final BerkeleyDBSeedManager seedManager = new BerkeleyDBSeedManager(vsCrawlerContext, new InitSeedSource() {
+            @Override
+            public Collection<Seed> initSeeds(VSCrawlerContext vsCrawlerContext) {
+                List<Seed> seeds = Lists.newArrayListWithCapacity(INIT_SEED_NUMBER);
+                for (int i = 0; i < INIT_SEED_NUMBER; i++) {
+                    seeds.add(new Seed("https://www.example.com/list/" + i));
+                }
+                return seeds;
+            }
+        }, new DefaultSeedKeyResolver(), new DefaultSegmentResolver(), 1024);
+        seedManager.init();
+
+        final AtomicLong processed = new AtomicLong(0);
+        final CountDownLatch countDownLatch = new CountDownLatch(threadNumber);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threadNumber; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // 每个列表页产生一个详情页,全部处理完成之后结束
+                        while (processed.get() < INIT_SEED_NUMBER * 2) {
+                            Seed seed = seedManager.pool();
+                            if (seed == null) {
+                                Thread.yield();
+                                continue;
+                            }
+                            seed.setStatus(Seed.STATUS_SUCCESS);
+                            seedManager.finish(seed);
+                            if (!seed.getData().contains("/item/")) {
+                                seedManager.addNewSeeds(Lists.newArrayList(
+                                        new Seed(seed.getData().replace("/list/", "/item/"))));
+                            }
+                            processed.incrementAndGet();
+                        }
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+        countDownLatch.await();
+        long cost = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.println(String.format("threads:%d processed:%d cost:%dms throughput:%d seeds/s", threadNumber,
+                processed.get(), cost, processed.get() * 1000 / cost));
+        Futures.getUnchecked(seedManager.addNewSeeds(Lists.<Seed> newArrayList()));
+        seedManager.crawlerEnd(vsCrawlerContext);
+    }
+}
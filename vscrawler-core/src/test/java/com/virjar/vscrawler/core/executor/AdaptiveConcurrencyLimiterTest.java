@@ -0,0 +1,53 @@
+package com.virjar.vscrawler.core.executor;
+
+import java.net.SocketTimeoutException;
+
+import com.virjar.vscrawler.core.seed.Seed;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/5.<br>
+ * 下载失败、超时等拥塞信号对并发上限的回退
+ */
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+
+    public void testDownloadFailedShrinksLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+        // httpClient吞掉了网络异常,下载内容为空,种子进入重试
+        limiter.onSeedSample(seed(Seed.STATUS_RETRY), null, true, 100);
+        assertEquals(7, limiter.getLimit());
+        // 同一个窗口内只回退一次
+        limiter.onSeedSample(seed(Seed.STATUS_RETRY), null, true, 100);
+        assertEquals(7, limiter.getLimit());
+    }
+
+    public void testTimeoutExceptionShrinksLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+        limiter.onSeedSample(seed(Seed.STATUS_RETRY), new RuntimeException(new SocketTimeoutException()), false,
+                100);
+        assertEquals(7, limiter.getLimit());
+    }
+
+    public void testSuccessDoesNotShrinkLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+        limiter.onSeedSample(seed(Seed.STATUS_SUCCESS), null, false, 100);
+        // 业务异常不是拥塞信号
+        limiter.onSeedSample(seed(Seed.STATUS_RETRY), new IllegalStateException(), false, 100);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    public void testHealthyWindowGrowsLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 20);
+        for (int i = 0; i < 20; i++) {
+            limiter.onSeedSample(seed(Seed.STATUS_SUCCESS), null, false, 100);
+        }
+        assertEquals(11, limiter.getLimit());
+    }
+
+    private static Seed seed(int status) {
+        Seed seed = new Seed("https://www.example.com/");
+        seed.setStatus(status);
+        return seed;
+    }
+}
@@ -0,0 +1,126 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/18.<br>
+ * 种子统计数据的检查点,host计数器单独存储,以及host快照的数目限制
+ */
+public class FrontierStatisticsTest extends TestCase {
+    private File directory;
+    private Environment env;
+    private Database metaDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("frontierStatistics").toFile();
+        EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        environmentConfig.setAllowCreate(true);
+        env = new Environment(directory, environmentConfig);
+        openMetaDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        metaDatabase.close();
+        env.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testCheckpointAndLoad() {
+        FrontierStatistics statistics = new FrontierStatistics(metaDatabase);
+        assertFalse(statistics.load());
+        store(statistics, "https://a.example.com/1", 3);
+        store(statistics, "https://b.example.com/1", 2);
+        end(statistics, "https://a.example.com/1", Seed.STATUS_SUCCESS);
+        end(statistics, "https://b.example.com/1", Seed.STATUS_FAILED);
+        statistics.checkpoint(false);
+
+        FrontierStatistics reopened = new FrontierStatistics(metaDatabase);
+        assertTrue(reopened.load());
+        assertEquals(3, reopened.pending());
+        assertEquals(1, reopened.finished());
+        assertEquals(1, reopened.failed());
+        // host计数器在再次写入的时候从元数据表还原
+        store(reopened, "https://a.example.com/2", 1);
+        SeedCounter host = reopened.snapshot().getHosts().get("a.example.com");
+        assertEquals(3, host.getPending());
+        assertEquals(1, host.getFinished());
+    }
+
+    public void testUncheckpointedWriteNeedRebuild() {
+        FrontierStatistics statistics = new FrontierStatistics(metaDatabase);
+        statistics.checkpoint(true);
+        store(statistics, "https://a.example.com/1", 1);
+
+        FrontierStatistics reopened = new FrontierStatistics(metaDatabase);
+        assertFalse(reopened.load());
+    }
+
+    public void testResetRemovesHostRecords() {
+        FrontierStatistics statistics = new FrontierStatistics(metaDatabase);
+        store(statistics, "https://a.example.com/1", 2);
+        statistics.checkpoint(false);
+        statistics.reset();
+        statistics.checkpoint(true);
+
+        FrontierStatistics reopened = new FrontierStatistics(metaDatabase);
+        assertTrue(reopened.load());
+        store(reopened, "https://a.example.com/2", 1);
+        assertEquals(1, reopened.snapshot().getHosts().get("a.example.com").getPending());
+    }
+
+    public void testHostSnapshotLimit() {
+        FrontierStatistics statistics = new FrontierStatistics(metaDatabase);
+        int hostNumber = FrontierStatistics.MAX_HOST_STATUS * 2;
+        for (int i = 0; i < hostNumber; i++) {
+            store(statistics, "https://host" + i + ".example.com/", i % 7 == 0 ? 10 : 1);
+        }
+        Map<String, SeedCounter> hosts = statistics.snapshot().getHosts();
+        assertEquals(FrontierStatistics.MAX_HOST_STATUS, hosts.size());
+        // 等待派发种子最多的host优先返回
+        assertTrue(hosts.containsKey("host0.example.com"));
+        assertTrue(hosts.containsKey("host196.example.com"));
+        assertEquals(10, hosts.get("host7.example.com").getPending());
+    }
+
+    private void openMetaDatabase() {
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        metaDatabase = env.openDatabase(null, "STORE_META", databaseConfig);
+    }
+
+    private static void store(FrontierStatistics statistics, String url, int times) {
+        statistics.beginWrite();
+        try {
+            for (int i = 0; i < times; i++) {
+                statistics.onStore("segment", new Seed(url));
+            }
+        } finally {
+            statistics.endWrite();
+        }
+    }
+
+    private static void end(FrontierStatistics statistics, String url, int status) {
+        Seed seed = new Seed(url);
+        seed.setStatus(status);
+        statistics.beginWrite();
+        try {
+            statistics.onLoad("segment", seed);
+            statistics.onEnd("segment", seed);
+        } finally {
+            statistics.endWrite();
+        }
+    }
+}
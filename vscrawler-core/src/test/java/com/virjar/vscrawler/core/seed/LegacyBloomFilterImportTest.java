@@ -0,0 +1,112 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/13.<br>
+ * 旧版本guava BloomFilter直接序列化的.bloom文件,导入到可扩容过滤器和映射文件过滤器之后数据不丢失
+ */
+public class LegacyBloomFilterImportTest extends TestCase {
+    private static final int LEGACY_SIZE = 10000;
+
+    private final Funnel<CharSequence> funnel = Funnels.stringFunnel(Charsets.UTF_8);
+
+    private File directory;
+    private File legacyFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("bloomFilter").toFile();
+        legacyFile = new File(directory, "segment.bloom");
+        BloomFilter<CharSequence> legacy = BloomFilter.create(funnel, LEGACY_SIZE * 2, 0.001);
+        for (int i = 0; i < LEGACY_SIZE; i++) {
+            legacy.put(url(i));
+        }
+        OutputStream outputStream = new FileOutputStream(legacyFile);
+        try {
+            legacy.writeTo(outputStream);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testScalableReadsLegacyFile() throws IOException {
+        ScalableBloomFilter<CharSequence> scalable;
+        InputStream inputStream = new FileInputStream(legacyFile);
+        try {
+            scalable = config().readScalable(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        assertEquals(1, scalable.filterNumber());
+        for (int i = 0; i < LEGACY_SIZE; i++) {
+            assertTrue(scalable.mightContain(url(i)));
+        }
+        assertTrue(scalable.approximateElementCount() > LEGACY_SIZE / 2);
+        // 旧的过滤器作为第一个子过滤器继续使用,新数据写满之后追加子过滤器
+        for (int i = LEGACY_SIZE; i < LEGACY_SIZE * 10; i++) {
+            scalable.put(url(i));
+        }
+        assertTrue(scalable.filterNumber() > 1);
+        for (int i = 0; i < LEGACY_SIZE * 10; i++) {
+            assertTrue(scalable.mightContain(url(i)));
+        }
+    }
+
+    public void testMappedImportsLegacyFile() throws IOException {
+        MappedBloomFilter<CharSequence> mapped = MappedBloomFilter.open(directory, "segment.bloom", legacyFile,
+                config());
+        try {
+            for (int i = 0; i < LEGACY_SIZE; i++) {
+                assertTrue(mapped.mightContain(url(i)));
+            }
+            for (int i = LEGACY_SIZE; i < LEGACY_SIZE * 2; i++) {
+                mapped.put(url(i));
+            }
+            mapped.flush();
+        } finally {
+            mapped.close();
+        }
+
+        // 已经存在映射文件的时候直接打开,不再重复导入
+        assertTrue(legacyFile.delete());
+        MappedBloomFilter<CharSequence> reopened = MappedBloomFilter.open(directory, "segment.bloom", legacyFile,
+                config());
+        try {
+            for (int i = 0; i < LEGACY_SIZE * 2; i++) {
+                assertTrue(reopened.mightContain(url(i)));
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private BloomFilterConfig<CharSequence> config() {
+        return new BloomFilterConfig<>(funnel, LEGACY_SIZE, 0.001, 2, 0.85);
+    }
+
+    private static String url(int i) {
+        return "https://www.example.com/item/" + i + ".html";
+    }
+}
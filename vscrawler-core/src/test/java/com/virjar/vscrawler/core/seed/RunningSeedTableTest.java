@@ -0,0 +1,45 @@
+package com.virjar.vscrawler.core.seed;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/16.<br>
+ * 正在处理的种子表,以及种子库清空之后对清空之前取出的种子的隔离
+ */
+public class RunningSeedTableTest extends TestCase {
+    private RunningSeedTable runningSeeds = new RunningSeedTable();
+
+    public void testPutAndRemove() {
+        for (int i = 0; i < 5000; i++) {
+            Seed seed = seed(i);
+            runningSeeds.put("segment", seed.getData(), seed);
+        }
+        assertEquals(5000, runningSeeds.size());
+        for (int i = 0; i < 5000; i++) {
+            Seed seed = seed(i);
+            assertTrue(runningSeeds.remove("segment", seed.getData(), seed));
+        }
+        assertEquals(0, runningSeeds.size());
+        assertFalse(runningSeeds.remove("segment", seed(1).getData(), seed(1)));
+    }
+
+    public void testFinishAfterClear() {
+        Seed seed = seed(1);
+        runningSeeds.put("segment", seed.getData(), seed);
+        int clearEpoch = runningSeeds.clearEpoch();
+
+        // 种子处理期间种子库被清空,处理结束之后种子已经没有租约
+        runningSeeds.clear();
+        assertFalse(runningSeeds.remove("segment", seed.getData(), seed));
+        // 清空之前已经提交的写操作,写入的时候根据清空版本丢弃
+        assertTrue(clearEpoch != runningSeeds.clearEpoch());
+
+        // 清空之后重新取出的种子正常结束
+        runningSeeds.put("segment", seed.getData(), seed);
+        assertTrue(runningSeeds.remove("segment", seed.getData(), seed));
+    }
+
+    private static Seed seed(int i) {
+        return new Seed("https://www.example.com/item/" + i + ".html");
+    }
+}
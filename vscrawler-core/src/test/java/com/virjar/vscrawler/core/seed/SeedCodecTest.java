@@ -0,0 +1,64 @@
+package com.virjar.vscrawler.core.seed;
+
+import com.virjar.vscrawler.core.util.VSCrawlerCommonUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/11.<br>
+ * 种子二进制编码的还原,以及旧版本json数据的兼容
+ */
+public class SeedCodecTest extends TestCase {
+
+    public void testRoundTrip() {
+        Seed seed = new Seed("https://www.example.com/item/1.html?from=列表");
+        seed.setPriority(5);
+        seed.setRetry(2);
+        seed.setMaxRetry(7);
+        seed.setStatus(Seed.STATUS_RETRY);
+        seed.setSegmentKey("20180311");
+        seed.setActiveTimeStamp(1520755200000L);
+        seed.setIgnore(true);
+        seed.setKeyOverflow(true);
+        seed.getExt().put("category", "book");
+        seed.getExt().put("empty", null);
+
+        Seed decoded = SeedCodec.decode(SeedCodec.encode(seed));
+        assertEquals(seed.getData(), decoded.getData());
+        assertEquals(seed.getPriority(), decoded.getPriority());
+        assertEquals(seed.getRetry(), decoded.getRetry());
+        assertEquals(seed.getMaxRetry(), decoded.getMaxRetry());
+        assertEquals(seed.getStatus(), decoded.getStatus());
+        assertEquals(seed.getSegmentKey(), decoded.getSegmentKey());
+        assertEquals(seed.getActiveTimeStamp(), decoded.getActiveTimeStamp());
+        assertTrue(decoded.isIgnore());
+        assertTrue(decoded.isKeyOverflow());
+        assertEquals(seed.getExt(), decoded.getExt());
+    }
+
+    public void testOptionalFieldsAbsent() {
+        Seed seed = new Seed("https://www.example.com/");
+        Seed decoded = SeedCodec.decode(SeedCodec.encode(seed));
+        assertEquals(seed.getData(), decoded.getData());
+        assertNull(decoded.getSegmentKey());
+        assertNull(decoded.getActiveTimeStamp());
+        assertFalse(decoded.isIgnore());
+        assertTrue(decoded.getExt().isEmpty());
+    }
+
+    public void testDecodeLegacyJson() {
+        Seed seed = new Seed("https://www.example.com/item/2.html");
+        seed.setPriority(3);
+        seed.setRetry(1);
+        seed.setSegmentKey("20180310");
+        seed.getExt().put("listPage", "4");
+
+        // 旧版本使用平台默认编码写入json
+        Seed decoded = SeedCodec.decode(VSCrawlerCommonUtil.transferSeedToString(seed).getBytes());
+        assertEquals(seed.getData(), decoded.getData());
+        assertEquals(seed.getPriority(), decoded.getPriority());
+        assertEquals(seed.getRetry(), decoded.getRetry());
+        assertEquals(seed.getSegmentKey(), decoded.getSegmentKey());
+        assertEquals("4", decoded.getExt().get("listPage"));
+    }
+}
@@ -0,0 +1,150 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/22.<br>
+ * 种子租约日志的重放,包括日志末尾不完整的记录
+ */
+public class SeedLeaseLogTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("leaseLog").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testReplayUncompletedLeases() throws IOException {
+        SeedLeaseLog leaseLog = SeedLeaseLog.open(directory);
+        long first = leaseLog.lease("segment", key(1), data("seed1"));
+        leaseLog.lease("segment", key(2), data("seed2"));
+        leaseLog.lease(null, key(3), data("seed3"));
+        leaseLog.renew("segment", key(2), data("seed2-retry"));
+        leaseLog.complete("segment", key(1), first);
+        leaseLog.close();
+
+        SeedLeaseLog reopened = SeedLeaseLog.open(directory);
+        assertEquals(2, reopened.size());
+        assertEquals(-1, reopened.leaseId("segment", key(1)));
+        List<byte[]> leasedSeeds = reopened.leasedSeeds();
+        assertEquals("seed2-retry", new String(leasedSeeds.get(0), Charsets.UTF_8));
+        assertEquals("seed3", new String(leasedSeeds.get(1), Charsets.UTF_8));
+        reopened.close();
+    }
+
+    public void testReplayDropsTornTail() throws IOException {
+        SeedLeaseLog leaseLog = SeedLeaseLog.open(directory);
+        leaseLog.lease("segment", key(1), data("seed1"));
+        leaseLog.lease("segment", key(2), data("seed2"));
+        leaseLog.close();
+
+        // 模拟写入记录的时候进程退出,只留下了长度和部分内容
+        File logFile = onlyLogFile();
+        FileOutputStream outputStream = new FileOutputStream(logFile, true);
+        try {
+            outputStream.write(new byte[] { 0, 0, 0, 64, 1, 0, 0 });
+        } finally {
+            outputStream.close();
+        }
+
+        SeedLeaseLog reopened = SeedLeaseLog.open(directory);
+        assertEquals(2, reopened.size());
+        // 重放之后写入新一代日志,不完整的记录被丢弃,后续追加的记录可以正常重放
+        reopened.lease("segment", key(3), data("seed3"));
+        reopened.close();
+
+        SeedLeaseLog again = SeedLeaseLog.open(directory);
+        assertEquals(3, again.size());
+        again.close();
+    }
+
+    public void testReplayDropsCorruptedRecord() throws IOException {
+        SeedLeaseLog leaseLog = SeedLeaseLog.open(directory);
+        leaseLog.lease("segment", key(1), data("seed1"));
+        leaseLog.lease("segment", key(2), data("seed2"));
+        leaseLog.close();
+
+        // 破坏最后一条记录的crc
+        File logFile = onlyLogFile();
+        byte[] content = FileUtils.readFileToByteArray(logFile);
+        content[content.length - 1] ^= 0xFF;
+        FileUtils.writeByteArrayToFile(logFile, content);
+
+        SeedLeaseLog reopened = SeedLeaseLog.open(directory);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.leaseId("segment", key(1)) > 0);
+        reopened.close();
+    }
+
+    public void testStaleCompleteIgnored() throws IOException {
+        SeedLeaseLog leaseLog = SeedLeaseLog.open(directory);
+        long first = leaseLog.lease("segment", key(1), data("seed1"));
+        leaseLog.complete("segment", key(1), first);
+        // 同一个种子重新加载,旧租约的完成记录不能结束新租约
+        long second = leaseLog.lease("segment", key(1), data("seed1"));
+        assertTrue(second > first);
+        leaseLog.complete("segment", key(1), first);
+        assertEquals(second, leaseLog.leaseId("segment", key(1)));
+        leaseLog.close();
+
+        SeedLeaseLog reopened = SeedLeaseLog.open(directory);
+        assertEquals(second, reopened.leaseId("segment", key(1)));
+        // 租约id在重启之后继续递增
+        assertTrue(reopened.lease("segment", key(2), data("seed2")) > second);
+        reopened.close();
+    }
+
+    public void testCheckpointAndReset() throws IOException {
+        SeedLeaseLog leaseLog = SeedLeaseLog.open(directory);
+        for (int i = 0; i < 5000; i++) {
+            long leaseId = leaseLog.lease("segment", key(i), data("seed" + i));
+            if (i % 100 != 0) {
+                leaseLog.complete("segment", key(i), leaseId);
+            }
+        }
+        assertTrue(leaseLog.needCheckpoint());
+        leaseLog.checkpoint();
+        assertFalse(leaseLog.needCheckpoint());
+        leaseLog.close();
+        assertEquals(1, directory.listFiles().length);
+
+        SeedLeaseLog reopened = SeedLeaseLog.open(directory);
+        assertEquals(50, reopened.size());
+        reopened.reset();
+        reopened.close();
+
+        SeedLeaseLog afterReset = SeedLeaseLog.open(directory);
+        assertEquals(0, afterReset.size());
+        afterReset.close();
+    }
+
+    private File onlyLogFile() {
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static byte[] key(int i) {
+        return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+    }
+
+    private static byte[] data(String seed) {
+        return seed.getBytes(Charsets.UTF_8);
+    }
+}
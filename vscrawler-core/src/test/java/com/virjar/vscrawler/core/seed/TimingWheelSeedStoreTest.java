@@ -0,0 +1,140 @@
+package com.virjar.vscrawler.core.seed;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+import junit.framework.TestCase;
+
+/**
+ * Created by virjar on 2018/3/9.<br>
+ * 时间轮的推进,高层级槽位的降级,以及按照种子key查找
+ */
+public class TimingWheelSeedStoreTest extends TestCase {
+    private File directory;
+    private Environment env;
+    private DatabaseConfig databaseConfig;
+    private TimingWheelSeedStore timingWheel;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("timingWheel").toFile();
+        EnvironmentConfig environmentConfig = new EnvironmentConfig();
+        environmentConfig.setAllowCreate(true);
+        env = new Environment(directory, environmentConfig);
+        databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        timingWheel = new TimingWheelSeedStore(env, databaseConfig);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        timingWheel.close();
+        env.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testAdvanceMinuteWheel() {
+        long now = System.currentTimeMillis();
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(2), key(2), data("seed2"));
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(1), key(1), data("seed1"));
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(30), key(3), data("seed3"));
+
+        assertEquals(0, timingWheel.advance(now, collect(Lists.<String>newArrayList())));
+
+        List<String> due = Lists.newArrayList();
+        assertEquals(2, timingWheel.advance(now + TimeUnit.MINUTES.toMillis(2), collect(due)));
+        // 分钟轮内部按照生效时间出轮
+        assertEquals(Lists.newArrayList("seed1", "seed2"), due);
+        assertNull(timingWheel.get(key(1)));
+        assertNull(timingWheel.get(key(2)));
+        assertEquals("seed3", new String(timingWheel.get(key(3)), Charsets.UTF_8));
+        assertEquals(1, timingWheel.count());
+    }
+
+    public void testCascadeFromHourAndDayWheel() {
+        long now = System.currentTimeMillis();
+        long inHours = now + TimeUnit.HOURS.toMillis(5);
+        long inDays = now + TimeUnit.DAYS.toMillis(3);
+        timingWheel.add(inHours, key(1), data("hour"));
+        timingWheel.add(inDays, key(2), data("day"));
+
+        // 还没有到期的槽位不会出轮,降级之后仍然可以按照种子key找到
+        assertEquals(0, timingWheel.advance(inHours - TimeUnit.MINUTES.toMillis(30), collect(
+                Lists.<String>newArrayList())));
+        assertEquals("hour", new String(timingWheel.get(key(1)), Charsets.UTF_8));
+        assertEquals(2, timingWheel.count());
+
+        List<String> due = Lists.newArrayList();
+        assertEquals(1, timingWheel.advance(inHours, collect(due)));
+        assertEquals(Lists.newArrayList("hour"), due);
+
+        assertEquals(0, timingWheel.advance(inDays - TimeUnit.HOURS.toMillis(12), collect(
+                Lists.<String>newArrayList())));
+        assertEquals("day", new String(timingWheel.get(key(2)), Charsets.UTF_8));
+
+        due.clear();
+        // 长时间停机之后一次推进,天轮的种子直接降级到分钟轮并且出轮
+        assertEquals(1, timingWheel.advance(inDays + TimeUnit.DAYS.toMillis(1), collect(due)));
+        assertEquals(Lists.newArrayList("day"), due);
+        assertEquals(0, timingWheel.count());
+        assertNull(timingWheel.get(key(2)));
+    }
+
+    public void testReAddKeepsLatestIndex() {
+        long now = System.currentTimeMillis();
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(1), key(1), data("old"));
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(10), key(1), data("new"));
+
+        List<String> due = Lists.newArrayList();
+        assertEquals(1, timingWheel.advance(now + TimeUnit.MINUTES.toMillis(1), collect(due)));
+        assertEquals(Lists.newArrayList("old"), due);
+        // 旧槽位出轮不能删除指向新槽位的索引
+        assertEquals("new", new String(timingWheel.get(key(1)), Charsets.UTF_8));
+    }
+
+    public void testRebuildIndexForLegacyWheel() {
+        long now = System.currentTimeMillis();
+        timingWheel.add(now + TimeUnit.HOURS.toMillis(2), key(1), data("seed1"));
+        timingWheel.close();
+        // 老版本的时间轮没有索引
+        env.removeDatabase(null, "TIMING_WHEEL_INDEX");
+
+        timingWheel = new TimingWheelSeedStore(env, databaseConfig);
+        assertEquals("seed1", new String(timingWheel.get(key(1)), Charsets.UTF_8));
+    }
+
+    public void testClear() {
+        long now = System.currentTimeMillis();
+        timingWheel.add(now + TimeUnit.MINUTES.toMillis(1), key(1), data("seed1"));
+        timingWheel.clear();
+        assertEquals(0, timingWheel.count());
+        assertNull(timingWheel.get(key(1)));
+    }
+
+    private static TimingWheelSeedStore.SeedDataVisitor collect(final List<String> due) {
+        return new TimingWheelSeedStore.SeedDataVisitor() {
+            @Override
+            public void visit(byte[] seedData) {
+                due.add(new String(seedData, Charsets.UTF_8));
+            }
+        };
+    }
+
+    private static byte[] key(int i) {
+        return new byte[] { 0, 0, 0, (byte) i };
+    }
+
+    private static byte[] data(String seed) {
+        return seed.getBytes(Charsets.UTF_8);
+    }
+}
@@ -84,6 +84,13 @@ public class CrawlerController {
                 crawlerVO.setActiveSessionNumber(crawler.getCrawlerSessionPool().sessionNumber());
                 crawlerVO.setTotalSeed(crawler.getBerkeleyDBSeedManager().totalSeed());
                 crawlerVO.setFinishedSeed(crawler.getBerkeleyDBSeedManager().finishedSeed());
+                crawlerVO.setFrontierStatus(crawler.getBerkeleyDBSeedManager().frontierStatus());
+                crawlerVO.setHostStatus(crawler.hostStatus());
+                crawlerVO.setStageStatus(crawler.stageStatus());
+                crawlerVO.setConcurrencyLimit(crawler.concurrencyLimitStatus());
+                crawlerVO.setGrabCollapsedCount(crawler.grabCollapsedCount());
+                crawlerVO.setGrabCache(crawler.grabCacheStatus());
+                crawlerVO.setNearDuplicate(crawler.nearDuplicateStatus());
                 return crawlerVO;
             }
         })));
@@ -1,6 +1,8 @@
 package com.virjar.vscrawler.web.controller;
 
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.virjar.vscrawler.core.VSCrawler;
 import com.virjar.vscrawler.core.processor.GrabResult;
 import com.virjar.vscrawler.core.seed.Seed;
@@ -13,13 +15,14 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 import java.util.List;
 
 /**
  * Created by virjar on 2018/1/17.<br>
- * 在线抓取接口
+ * 在线抓取接口,抓取任务异步执行,不占用容器线程
  */
 @RestController
 @Slf4j
@@ -29,25 +32,41 @@ public class GrabController {
 
     @RequestMapping("/grab")
     @ResponseBody
-    public WebJsonResponse<?> grab(@RequestBody GrabRequest grabRequestBean) {
+    public DeferredResult<WebJsonResponse<?>> grab(@RequestBody GrabRequest grabRequestBean) {
+        final DeferredResult<WebJsonResponse<?>> deferredResult = new DeferredResult<>();
         try {
             VSCrawler vsCrawler = crawlerManager.get(grabRequestBean.getCrawlerName());
             if (vsCrawler == null) {
-                return ReturnUtil.failed("no crawler defined :" + grabRequestBean.getCrawlerName());
+                deferredResult.setResult(ReturnUtil.failed("no crawler defined :" + grabRequestBean.getCrawlerName()));
+                return deferredResult;
             }
 
-            Seed seed = new Seed(JSONObject.toJSONString(grabRequestBean));
-            GrabResult crawlResult = vsCrawler.grabSync(seed);
-            List<Object> strings = crawlResult.allEntityResult();
-            if (strings.size() == 1) {
-                return ReturnUtil.success(strings.get(0));
-            } else if (strings.size() == 0 && seed.getRetry() > 0) {
-                return ReturnUtil.failed("timeOut", ReturnUtil.status_timeout);
-            } else {
-                return ReturnUtil.success(strings);
-            }
+            final Seed seed = new Seed(JSONObject.toJSONString(grabRequestBean));
+            Futures.addCallback(vsCrawler.grabAsync(seed), new FutureCallback<GrabResult>() {
+                @Override
+                public void onSuccess(GrabResult crawlResult) {
+                    deferredResult.setResult(toResponse(seed, crawlResult));
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    deferredResult.setResult(ReturnUtil.failed(t.getMessage()));
+                }
+            });
         } catch (Exception e) {
-            return ReturnUtil.failed(e.getMessage());
+            deferredResult.setResult(ReturnUtil.failed(e.getMessage()));
+        }
+        return deferredResult;
+    }
+
+    private WebJsonResponse<?> toResponse(Seed seed, GrabResult crawlResult) {
+        List<Object> strings = crawlResult.allEntityResult();
+        if (strings.size() == 1) {
+            return ReturnUtil.success(strings.get(0));
+        } else if (strings.size() == 0 && seed.getRetry() > 0) {
+            return ReturnUtil.failed("timeOut", ReturnUtil.status_timeout);
+        } else {
+            return ReturnUtil.success(strings);
         }
     }
 }
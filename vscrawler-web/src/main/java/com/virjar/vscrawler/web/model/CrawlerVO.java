@@ -1,7 +1,15 @@
 package com.virjar.vscrawler.web.model;
 
+import com.virjar.vscrawler.core.dedup.NearDuplicateStatus;
+import com.virjar.vscrawler.core.executor.ConcurrencyLimitStatus;
+import com.virjar.vscrawler.core.executor.StageStatus;
+import com.virjar.vscrawler.core.grab.GrabCacheStatus;
+import com.virjar.vscrawler.core.politeness.HostStatus;
+import com.virjar.vscrawler.core.seed.FrontierStatus;
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * Created by virjar on 2018/2/3.<br>
  * crawler 的 view object,用于和前端交互
@@ -16,4 +24,11 @@ public class CrawlerVO {
     private Integer activeSessionNumber;
     private Long totalSeed;
     private Long finishedSeed;
+    private FrontierStatus frontierStatus;
+    private List<HostStatus> hostStatus;
+    private List<StageStatus> stageStatus;
+    private ConcurrencyLimitStatus concurrencyLimit;
+    private Long grabCollapsedCount;
+    private GrabCacheStatus grabCache;
+    private NearDuplicateStatus nearDuplicate;
 }